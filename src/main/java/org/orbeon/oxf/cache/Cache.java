@@ -17,6 +17,8 @@ import java.util.Iterator;
 
 public interface Cache {
     void add(CacheKey key, Object validity, Object object);
+    // computeTime is the time in nanoseconds it took to compute the object, used to decide whether to cache it
+    void add(CacheKey key, Object validity, Object object, long computeTime);
     void remove(CacheKey key);
     int removeAll();
     Object findValid(CacheKey key, Object validity);
@@ -26,5 +28,7 @@ public interface Cache {
     Iterator<Object> iterateCacheObjects();
     int getCurrentSize();
     void setMaxSize(int maxSize);
+    void setMaxBytes(long maxBytes);
+    void setMinComputeTime(long minComputeTimeMillis);
     CacheStatistics getStatistics();
 }
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size accounting, admission policy and per-type statistics shared by the memory cache implementations.
+ *
+ * Objects are weighed with ObjectSizes when added. Objects of unknown size weigh nothing and are only bounded by the
+ * entry count of the cache.
+ */
+class CacheAccounting {
+
+    // An object can't take more than this fraction of the byte budget, so that a single large document doesn't flush
+    // the whole cache
+    private static final int MAX_OBJECT_FRACTION = 4;
+
+    private volatile long maxBytes;
+    private volatile long minComputeTimeNanos;
+
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final ConcurrentMap<String, CacheTypeStatistics> typeStatistics = new ConcurrentHashMap<String, CacheTypeStatistics>();
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    // 0 if the cache is only bounded by its entry count
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Objects computed faster than this are not admitted, 0 to admit all objects
+    public void setMinComputeTime(long minComputeTimeMillis) {
+        this.minComputeTimeNanos = minComputeTimeMillis * 1000 * 1000;
+    }
+
+    public long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    public boolean isOverBudget(long additionalBytes) {
+        final long currentMaxBytes = maxBytes;
+        return currentMaxBytes > 0 && currentBytes.get() + additionalBytes > currentMaxBytes;
+    }
+
+    public Map<String, CacheTypeStatistics> getTypeStatistics() {
+        return Collections.<String, CacheTypeStatistics>unmodifiableMap(typeStatistics);
+    }
+
+    /**
+     * Whether an object can be added to the cache.
+     *
+     * @param key           cache key
+     * @param bytes         approximate size of the object
+     * @param computeTime   time it took to compute the object in nanoseconds, or -1 if unknown
+     * @return              true if the object can be added
+     */
+    public boolean admit(CacheKey key, long bytes, long computeTime) {
+        final long currentMaxBytes = maxBytes;
+        final boolean admit =
+            ! (currentMaxBytes > 0 && bytes > currentMaxBytes / MAX_OBJECT_FRACTION)
+                && ! (computeTime >= 0 && computeTime < minComputeTimeNanos);
+
+        final CacheTypeStatistics statistics = getTypeStatistics(key);
+        if (admit)
+            statistics.incrementAddCount();
+        else
+            statistics.incrementRejectedCount();
+
+        return admit;
+    }
+
+    public void added(CacheKey key, long bytes) {
+        currentBytes.addAndGet(bytes);
+        getTypeStatistics(key).addBytes(bytes);
+    }
+
+    public void removed(CacheKey key, long bytes) {
+        currentBytes.addAndGet(-bytes);
+        getTypeStatistics(key).addBytes(-bytes);
+    }
+
+    public void hit(CacheKey key) {
+        getTypeStatistics(key).incrementHitCount();
+    }
+
+    public void miss(CacheKey key) {
+        getTypeStatistics(key).incrementMissCount();
+    }
+
+    private CacheTypeStatistics getTypeStatistics(CacheKey key) {
+        final String type = (key.getClazz() != null ? key.getClazz() : key.getClass()).getName();
+        final CacheTypeStatistics existing = typeStatistics.get(type);
+        if (existing != null)
+            return existing;
+
+        final CacheTypeStatistics created = new CacheTypeStatistics();
+        final CacheTypeStatistics raced = typeStatistics.putIfAbsent(type, created);
+        return raced != null ? raced : created;
+    }
+}
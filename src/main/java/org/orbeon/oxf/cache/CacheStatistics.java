@@ -13,6 +13,8 @@
  */
 package org.orbeon.oxf.cache;
 
+import java.util.Map;
+
 public interface CacheStatistics {
 
     /**
@@ -36,4 +38,19 @@ public interface CacheStatistics {
     public int getMissCount();
     public int getAddCount();
     public int getExpirationCount();
+
+    /**
+     * Maximum approximate size in bytes of the objects the cache can hold, 0 if not bounded
+     */
+    public long getMaxBytes();
+
+    /**
+     * Approximate size in bytes of the objects in cache at this time
+     */
+    public long getCurrentBytes();
+
+    /**
+     * Global statistics by type of cached object
+     */
+    public Map<String, CacheTypeStatistics> getTypeStatistics();
 }
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of a cache for one type of cached object, where the type is the class of the cache key, which for
+ * processor outputs is the class of the processor.
+ *
+ * Unlike CacheStatistics counts, these are global and not per pipeline.
+ */
+public class CacheTypeStatistics {
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger addCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private final AtomicLong currentBytes = new AtomicLong();
+
+    /**
+     * Number of successful cache reads
+     */
+    public int getHitCount() { return hitCount.get(); }
+
+    /**
+     * Number of failed cache reads
+     */
+    public int getMissCount() { return missCount.get(); }
+
+    /**
+     * Number of objects added to the cache
+     */
+    public int getAddCount() { return addCount.get(); }
+
+    /**
+     * Number of objects not admitted into the cache because they were too large or too cheap to compute
+     */
+    public int getRejectedCount() { return rejectedCount.get(); }
+
+    /**
+     * Approximate size in bytes of the objects of this type in cache at this time
+     */
+    public long getCurrentBytes() { return currentBytes.get(); }
+
+    void incrementHitCount() { hitCount.incrementAndGet(); }
+    void incrementMissCount() { missCount.incrementAndGet(); }
+    void incrementAddCount() { addCount.incrementAndGet(); }
+    void incrementRejectedCount() { rejectedCount.incrementAndGet(); }
+    void addBytes(long bytes) { currentBytes.addAndGet(bytes); }
+}
@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.apache.commons.collections.Transformer;
+import org.apache.commons.collections.iterators.TransformIterator;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.util.PropertyContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent memory cache implementation.
+ *
+ * This has the same validity and notification semantics as MemoryCacheImpl, but readers and writers don't share a
+ * global monitor: entries live in a ConcurrentHashMap and each entry records its last access time. Eviction is
+ * approximate LRU: when the cache grows over its maximum size, a single thread evicts the least recently accessed
+ * entries in a batch while other threads carry on. The cache can therefore temporarily hold a few more entries than
+ * its maximum size. The cache can also be bounded by the approximate size in bytes of the cached objects.
+ *
+ * Unlike with MemoryCacheImpl, iterateCacheKeys() and iterateCacheObjects() don't return entries in LRU order.
+ */
+public class ConcurrentMemoryCacheImpl implements Cache {
+
+    // Fraction of the maximum size evicted at once, so that a full cache doesn't sort its entries on each add
+    private static final int EVICTION_BATCH_DIVISOR = 16;
+
+    private volatile int maxSize;
+
+    private final String statisticsContextKey;
+
+    private final ConcurrentMap<CacheKey, ConcurrentCacheEntry> keyToEntryMap;
+    private final AtomicInteger currentSize = new AtomicInteger();
+    private final Lock evictionLock = new ReentrantLock();
+    private final CacheAccounting accounting = new CacheAccounting();
+
+    public ConcurrentMemoryCacheImpl(String cacheName, int maxSize) {
+        this.maxSize = maxSize;
+        this.statisticsContextKey = "memory-cache-statistics." + cacheName;
+        this.keyToEntryMap = new ConcurrentHashMap<CacheKey, ConcurrentCacheEntry>(Math.max(16, maxSize * 4 / 3 + 1));
+    }
+
+    private static class ConcurrentCacheEntry extends CacheEntry {
+        volatile long lastAccess;
+
+        ConcurrentCacheEntry(CacheKey key, Object validity, Object cacheable, long approximateSize) {
+            this.key = key;
+            this.validity = validity;
+            this.cacheable = cacheable;
+            this.approximateSize = approximateSize;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private class ConcurrentMemoryCacheStatistics implements CacheStatistics {
+
+        // Statistics are stored in the PipelineContext, so they are only ever accessed by one thread at a time
+        private int hitsCount;
+        private int missCount;
+        private int addCount;
+        private int expirationCount;
+
+        public int getMaxSize() { return maxSize; }
+        public int getCurrentSize() { return currentSize.get(); }
+
+        public int getHitCount() { return hitsCount; }
+        public int getMissCount() { return missCount; }
+        public int getAddCount() { return addCount; }
+        public int getExpirationCount() { return expirationCount; }
+
+        public long getMaxBytes() { return accounting.getMaxBytes(); }
+        public long getCurrentBytes() { return accounting.getCurrentBytes(); }
+        public Map<String, CacheTypeStatistics> getTypeStatistics() { return accounting.getTypeStatistics(); }
+
+        public void incrementHitsCount() { hitsCount++; }
+        public void incrementMissCount() { missCount++; }
+        public void incrementAddCount() { addCount++; }
+        public void incrementExpirationCount() { expirationCount++; }
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        add(key, validity, cacheable, -1);
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable, long computeTime) {
+        if (key == null || validity == null || maxSize == 0) return;
+        final ConcurrentMemoryCacheStatistics statistics = findStatistics();
+        if (statistics != null)
+            statistics.incrementAddCount();
+
+        final long approximateSize = ObjectSizes.approximateSize(cacheable);
+        if (! accounting.admit(key, approximateSize, computeTime)) {
+            // Don't keep an outdated object for this key
+            remove(key);
+            return;
+        }
+
+        final ConcurrentCacheEntry entry = new ConcurrentCacheEntry(key, validity, cacheable, approximateSize);
+        final ConcurrentCacheEntry existingEntry = keyToEntryMap.put(key, entry);
+        accounting.added(key, approximateSize);
+        if (existingEntry == null) {
+            // No existing entry found
+            currentSize.incrementAndGet();
+
+            // Notify object
+            notifyAdded(cacheable);
+        } else {
+            // The existing entry was just replaced, which also makes it the most recently accessed
+            accounting.removed(key, existingEntry.approximateSize);
+        }
+
+        if (currentSize.get() > maxSize || accounting.isOverBudget(0))
+            tryEvictOverflow(entry);
+    }
+
+    // Evict least recently accessed entries if the cache is over its maximum size. Only one thread evicts at a time,
+    // and other threads don't wait for it. The entry just added is never evicted.
+    private void tryEvictOverflow(ConcurrentCacheEntry addedEntry) {
+        if (evictionLock.tryLock()) {
+            try {
+                final int currentMaxSize = maxSize;
+                final long currentMaxBytes = accounting.getMaxBytes();
+                if (currentSize.get() > currentMaxSize || accounting.isOverBudget(0)) {
+                    // Only evict a batch for the limit which is exceeded
+                    final int targetSize = currentSize.get() > currentMaxSize ? currentMaxSize - currentMaxSize / EVICTION_BATCH_DIVISOR : currentMaxSize;
+                    final long targetBytes = accounting.isOverBudget(0) ? currentMaxBytes - currentMaxBytes / EVICTION_BATCH_DIVISOR : currentMaxBytes;
+                    tryEvictDownTo(targetSize, targetBytes, addedEntry);
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void tryEvictDownTo(int targetSize, long targetBytes, ConcurrentCacheEntry entryToKeep) {
+
+        // Snapshot access times as other threads may update them while sorting
+        final List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>(currentSize.get());
+        for (final ConcurrentCacheEntry entry : keyToEntryMap.values())
+            if (entry != entryToKeep)
+                candidates.add(new EvictionCandidate(entry));
+
+        Collections.sort(candidates);
+
+        // If somehow we couldn't manage to evict enough entries (e.g. all were locked), the cache will grow over
+        // maxsize.
+        for (final EvictionCandidate candidate : candidates) {
+            if (currentSize.get() <= targetSize && (targetBytes <= 0 || accounting.getCurrentBytes() <= targetBytes))
+                break;
+            tryEvict(candidate.entry);
+        }
+    }
+
+    private static class EvictionCandidate implements Comparable<EvictionCandidate> {
+        final ConcurrentCacheEntry entry;
+        final long lastAccess;
+
+        EvictionCandidate(ConcurrentCacheEntry entry) {
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+
+        public int compareTo(EvictionCandidate other) {
+            return lastAccess < other.lastAccess ? -1 : (lastAccess == other.lastAccess ? 0 : 1);
+        }
+    }
+
+    private boolean tryEvict(ConcurrentCacheEntry entry) {
+
+        // Obtain lock if possible
+        final Lock lock;
+        final boolean canEvict;
+        if (entry.cacheable instanceof Cacheable) {
+            lock = ((Cacheable) entry.cacheable).getEvictionLock();
+            canEvict = lock == null || lock.tryLock();
+        } else {
+            lock = null;
+            canEvict = true;
+        }
+
+        // Only remove object if we are allowed to
+        if (canEvict) {
+            try {
+                // Only remove this very entry, as another thread might have replaced or taken it in the meanwhile
+                if (keyToEntryMap.remove(entry.key, entry)) {
+                    currentSize.decrementAndGet();
+                    accounting.removed(entry.key, entry.approximateSize);
+                    notifyEvicted(entry.cacheable);
+                }
+            } finally {
+                // Release lock if we got one
+                if (lock != null)
+                    lock.unlock();
+            }
+        }
+
+        return canEvict;
+    }
+
+    public void remove(CacheKey key) {
+        final ConcurrentCacheEntry entry = keyToEntryMap.remove(key);
+        if (entry != null) {
+            currentSize.decrementAndGet();
+            accounting.removed(key, entry.approximateSize);
+            // Don't consider this an eviction
+            notifyRemoved(entry.cacheable);
+        }
+    }
+
+    private void notifyAdded(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).added();
+        }
+    }
+
+    private void notifyRemoved(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).removed();
+        }
+    }
+
+    private void notifyEvicted(Object object) {
+        if (object instanceof Cacheable) {
+            ((Cacheable) object).evicted();
+        }
+        final ConcurrentMemoryCacheStatistics statistics = findStatistics();
+        if (statistics != null)
+            statistics.incrementExpirationCount();
+    }
+
+    public int removeAll() {
+        int removedCount = 0;
+        for (final CacheKey key : keyToEntryMap.keySet()) {
+            final ConcurrentCacheEntry entry = keyToEntryMap.remove(key);
+            if (entry != null) {
+                currentSize.decrementAndGet();
+                accounting.removed(key, entry.approximateSize);
+                notifyRemoved(entry.cacheable);
+                removedCount++;
+            }
+        }
+        return removedCount;
+    }
+
+    // Find valid entry and mark it as most recently accessed
+    public Object findValid(CacheKey key, Object validity) {
+        return getValid(key, validity, false);
+    }
+
+    // Like findValid but remove from the cache (with removed() notification)
+    public Object takeValid(CacheKey key, Object validity) {
+        return getValid(key, validity, true);
+    }
+
+    private Object getValid(CacheKey key, Object validity, boolean remove) {
+        final ConcurrentCacheEntry entry = keyToEntryMap.get(key);
+        final boolean found;
+        if (entry != null && MemoryCacheImpl.lowerOrEqual(validity, entry.validity)) {
+            if (remove) {
+                // Only one of several concurrent callers can take the entry
+                found = keyToEntryMap.remove(key, entry);
+                if (found) {
+                    currentSize.decrementAndGet();
+                    accounting.removed(key, entry.approximateSize);
+                    notifyRemoved(entry.cacheable);
+                }
+            } else {
+                entry.lastAccess = System.nanoTime();
+                found = true;
+            }
+        } else {
+            // Not latest validity
+            found = false;
+        }
+
+        if (found)
+            accounting.hit(key);
+        else
+            accounting.miss(key);
+
+        final ConcurrentMemoryCacheStatistics statistics = findStatistics();
+        if (statistics != null) {
+            if (found)
+                statistics.incrementHitsCount();
+            else
+                statistics.incrementMissCount();
+        }
+
+        return found ? entry.cacheable : null;
+    }
+
+    public CacheEntry findAny(CacheKey key) {
+        // Don't update statistics here
+        return keyToEntryMap.get(key);
+    }
+
+    public int getCurrentSize() {
+        return currentSize.get();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(int maxSize) {
+        if (maxSize != this.maxSize) {
+            this.maxSize = maxSize;
+            // Decrease size if necessary
+            if (currentSize.get() > maxSize) {
+                evictionLock.lock();
+                try {
+                    tryEvictDownTo(maxSize, accounting.getMaxBytes(), null);
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+        }
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes != accounting.getMaxBytes()) {
+            accounting.setMaxBytes(maxBytes);
+            // Decrease size if necessary
+            if (accounting.isOverBudget(0)) {
+                evictionLock.lock();
+                try {
+                    tryEvictDownTo(maxSize, maxBytes, null);
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+        }
+    }
+
+    public void setMinComputeTime(long minComputeTimeMillis) {
+        accounting.setMinComputeTime(minComputeTimeMillis);
+    }
+
+    public Iterator<CacheKey> iterateCacheKeys() {
+        return Collections.unmodifiableSet(keyToEntryMap.keySet()).iterator();
+    }
+
+    public Iterator<Object> iterateCacheObjects() {
+        return new TransformIterator(keyToEntryMap.values().iterator(), new Transformer() {
+            public Object transform(Object o) {
+                return ((CacheEntry) o).cacheable;
+            }
+        });
+    }
+
+    public CacheStatistics getStatistics() {
+        final PropertyContext propertyContext = PipelineContext.get();
+        ConcurrentMemoryCacheStatistics statistics = (ConcurrentMemoryCacheStatistics) propertyContext.getAttribute(statisticsContextKey);
+        if (statistics == null) {
+            statistics = new ConcurrentMemoryCacheStatistics();
+            propertyContext.setAttribute(statisticsContextKey, statistics);
+        }
+
+        return statistics;
+    }
+
+    private ConcurrentMemoryCacheStatistics findStatistics() {
+        return (PipelineContext.get() != null) ? (ConcurrentMemoryCacheStatistics) getStatistics() : null;
+    }
+}
@@ -24,6 +24,8 @@ import java.util.concurrent.locks.Lock;
 /**
  * Memory cache implementation.
  *
+ * The cache is bounded by its entry count and, optionally, by the approximate size in bytes of the cached objects.
+ *
  * @noinspection SimplifiableIfStatement
  */
 public class MemoryCacheImpl implements Cache {
@@ -35,6 +37,7 @@ public class MemoryCacheImpl implements Cache {
     private Map<CacheKey, CacheEntry> keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
     private CacheLinkedList linkedList = new CacheLinkedList();
     private int currentSize;
+    private final CacheAccounting accounting = new CacheAccounting();
 
     public MemoryCacheImpl(String cacheName, int maxSize) {
         this.maxSize = maxSize;
@@ -56,52 +59,78 @@ public class MemoryCacheImpl implements Cache {
         public int getAddCount() { return addCount; }
         public int getExpirationCount() { return expirationCount; }
 
+        public long getMaxBytes() { return accounting.getMaxBytes(); }
+        public long getCurrentBytes() { return accounting.getCurrentBytes(); }
+        public Map<String, CacheTypeStatistics> getTypeStatistics() { return accounting.getTypeStatistics(); }
+
         public void incrementHitsCount() { hitsCount++; }
         public void incrementMissCount() { missCount++; }
         public void incrementAddCount() { addCount++; }
         public void incrementExpirationCount() { expirationCount++; }
     }
 
-    public synchronized void add(CacheKey key, Object validity, Object cacheable) {
-        if (key == null || validity == null || maxSize == 0) return;
+    public void add(CacheKey key, Object validity, Object cacheable) {
+        add(key, validity, cacheable, -1);
+    }
+
+    public void add(CacheKey key, Object validity, Object cacheable, long computeTime) {
+        if (key == null || validity == null) return;
+        // Walking the object can take a while, so don't do it while holding the lock
+        add(key, validity, cacheable, computeTime, ObjectSizes.approximateSize(cacheable));
+    }
+
+    private synchronized void add(CacheKey key, Object validity, Object cacheable, long computeTime, long approximateSize) {
+        if (maxSize == 0) return;
         final PropertyContext propertyContext = PipelineContext.get();
         final MemoryCacheStatistics statistics = (propertyContext != null) ? (MemoryCacheStatistics) getStatistics() : null;
         if (statistics != null)
             statistics.incrementAddCount();
+
+        if (! accounting.admit(key, approximateSize, computeTime)) {
+            // Don't keep an outdated object for this key
+            remove(key, false, true);
+            return;
+        }
+
         CacheEntry entry = keyToEntryMap.get(key);
         if (entry == null) {
             // No existing entry found
-            if (currentSize == maxSize) {
-                // Cache is full, try to evict one entry, starting from the end
-                tryEvictLast();
-                // If somehow we couldn't manage to evict an entry (e.g. all were locked), the cache will grow over
-                // maxsize.
-            }
+            // If the cache is full, try to evict entries, starting from the end. If somehow we couldn't manage to
+            // evict enough entries (e.g. all were locked), the cache will grow over maxsize.
+            while ((currentSize >= maxSize || accounting.isOverBudget(approximateSize)) && tryEvictLast(null));
             currentSize++;
 
             entry = new CacheEntry();
             entry.key = key;
             entry.validity = validity;
             entry.cacheable = cacheable;
+            entry.approximateSize = approximateSize;
             keyToEntryMap.put(key, entry);
             entry.listEntry = linkedList.addFirst(entry);
+            accounting.added(key, approximateSize);
 
             // Notify object
             notifyAdded(entry.cacheable);
 
         } else {
             // Update validity and move to the front
+            accounting.removed(key, entry.approximateSize);
             entry.validity = validity;
             entry.cacheable = cacheable;
+            entry.approximateSize = approximateSize;
+            accounting.added(key, approximateSize);
             linkedList.remove(entry.listEntry);
             entry.listEntry = linkedList.addFirst(entry);
+
+            while (accounting.isOverBudget(0) && tryEvictLast(entry));
         }
     }
 
-    private boolean tryEvictLast() {
+    // Try to evict one entry, starting from the end
+    private boolean tryEvictLast(CacheEntry entryToKeep) {
         for (final Iterator<CacheEntry> i = linkedList.reverseIterator(); i.hasNext();) {
             final CacheEntry entryToTry = i.next();
-            if (tryEvict(entryToTry)) {
+            if (entryToTry != entryToKeep && tryEvict(entryToTry)) {
                 return true;
             }
         }
@@ -147,6 +176,7 @@ public class MemoryCacheImpl implements Cache {
             keyToEntryMap.remove(key);
             linkedList.remove(entry.listEntry);
             currentSize--;
+            accounting.removed(key, entry.approximateSize);
 
             // Notify object
             if (isEvict) {
@@ -183,8 +213,10 @@ public class MemoryCacheImpl implements Cache {
         final int previousSize = currentSize;
 
         // Notify objects
-        for (final Iterator i = iterateCacheObjects(); i.hasNext();) {
-            notifyRemoved(i.next());
+        for (final Iterator<CacheEntry> i = linkedList.iterator(); i.hasNext();) {
+            final CacheEntry entry = i.next();
+            accounting.removed(entry.key, entry.approximateSize);
+            notifyRemoved(entry.cacheable);
         }
 
         keyToEntryMap = new HashMap<CacheKey, CacheEntry>();
@@ -210,6 +242,7 @@ public class MemoryCacheImpl implements Cache {
 
             if (propertyContext != null)
                 ((MemoryCacheStatistics) getStatistics()).incrementHitsCount();
+            accounting.hit(key);
 
             if (remove) {
                 // Remove and notify
@@ -225,6 +258,7 @@ public class MemoryCacheImpl implements Cache {
             // Not latest validity
             if (propertyContext != null)
                 ((MemoryCacheStatistics) getStatistics()).incrementMissCount();
+            accounting.miss(key);
             return null;
         }
     }
@@ -250,7 +284,7 @@ public class MemoryCacheImpl implements Cache {
             int tryCount = 0;
             final int maxTries = currentSize;
             while(currentSize > maxSize && tryCount < maxTries) {
-                tryEvictLast();
+                tryEvictLast(null);
                 tryCount++;
             }
 
@@ -258,6 +292,18 @@ public class MemoryCacheImpl implements Cache {
         }
     }
 
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes != accounting.getMaxBytes()) {
+            accounting.setMaxBytes(maxBytes);
+            // Decrease size if necessary
+            while (accounting.isOverBudget(0) && tryEvictLast(null));
+        }
+    }
+
+    public void setMinComputeTime(long minComputeTimeMillis) {
+        accounting.setMinComputeTime(minComputeTimeMillis);
+    }
+
     public Iterator<CacheKey> iterateCacheKeys() {
         return new TransformIterator(linkedList.iterator(), new Transformer() {
             public Object transform(Object o) {
@@ -285,7 +331,7 @@ public class MemoryCacheImpl implements Cache {
         return statistics;
     }
 
-    private boolean lowerOrEqual(Object left, Object right) {
+    static boolean lowerOrEqual(Object left, Object right) {
         if (left instanceof List && right instanceof List) {
             List leftList = (List) left;
             List rightList = (List) right;
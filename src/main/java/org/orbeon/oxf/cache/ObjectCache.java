@@ -13,7 +13,9 @@
  */
 package org.orbeon.oxf.cache;
 
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
+import org.orbeon.oxf.properties.PropertySet;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -28,6 +30,12 @@ public class ObjectCache {
 
     private static final String CACHE_PROPERTY_NAME_PREFIX = "oxf.";
     private static final String CACHE_PROPERTY_NAME_SIZE_SUFFIX = ".size";
+    private static final String CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX = ".implementation";
+    private static final String CACHE_PROPERTY_NAME_MAX_BYTES_SUFFIX = ".max-bytes";
+    private static final String CACHE_PROPERTY_NAME_MIN_COMPUTE_TIME_SUFFIX = ".min-compute-time";
+
+    private static final String MEMORY_IMPLEMENTATION = "memory";
+    private static final String CONCURRENT_IMPLEMENTATION = "concurrent";
 
     private static final Map<String, Cache> namedObjectCaches = new HashMap<String, Cache>();
 
@@ -49,6 +57,14 @@ public class ObjectCache {
     /**
      * Get the instance of the object cache specified.
      *
+     * The cache implementation is chosen with the oxf.[cacheName].implementation property, which can be "memory" (the
+     * default) or "concurrent". The main cache is created before properties are available and always uses the memory
+     * implementation.
+     *
+     * The cache can also be bounded by the approximate size in bytes of the cached objects with the
+     * oxf.[cacheName].max-bytes property, and objects computed in less than oxf.[cacheName].min-compute-time
+     * milliseconds are not cached. Both default to 0, which disables them.
+     *
      * @param cacheName     name of the cache
      * @param defaultSize   default size if size is not found in properties
      * @return              instance of cache
@@ -56,9 +72,27 @@ public class ObjectCache {
     public synchronized static Cache instance(String cacheName, int defaultSize) {
         Cache cache = namedObjectCaches.get(cacheName);
         if (cache == null) {
-            final String propertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX;
-            final Integer size = Properties.instance().getPropertySet().getInteger(propertyName, defaultSize);
-            cache = new MemoryCacheImpl(cacheName, size);
+            final PropertySet propertySet = Properties.instance().getPropertySet();
+
+            final String sizePropertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_SIZE_SUFFIX;
+            final Integer size = propertySet.getInteger(sizePropertyName, defaultSize);
+
+            final String implementationPropertyName = CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_IMPLEMENTATION_SUFFIX;
+            final String implementation = propertySet.getString(implementationPropertyName, MEMORY_IMPLEMENTATION);
+
+            if (CONCURRENT_IMPLEMENTATION.equals(implementation))
+                cache = new ConcurrentMemoryCacheImpl(cacheName, size);
+            else if (MEMORY_IMPLEMENTATION.equals(implementation))
+                cache = new MemoryCacheImpl(cacheName, size);
+            else
+                throw new OXFException("Invalid value for property " + implementationPropertyName + ": " + implementation);
+
+            final Integer maxBytes = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_MAX_BYTES_SUFFIX, 0);
+            cache.setMaxBytes(maxBytes);
+
+            final Integer minComputeTime = propertySet.getInteger(CACHE_PROPERTY_NAME_PREFIX + cacheName + CACHE_PROPERTY_NAME_MIN_COMPUTE_TIME_SUFFIX, 0);
+            cache.setMinComputeTime(minComputeTime);
+
             namedObjectCaches.put(cacheName, cache);
         }
         return cache;
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache;
+
+import org.dom4j.*;
+import org.orbeon.oxf.xml.SAXStore;
+import org.orbeon.saxon.Configuration;
+import org.orbeon.saxon.om.NamePool;
+import org.orbeon.saxon.tinytree.TinyDocumentImpl;
+import org.orbeon.saxon.tinytree.TinyTree;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * Approximate memory footprint of the XML representations kept in caches.
+ */
+public class ObjectSizes {
+
+    // Rough per-node overhead of dom4j nodes, including the node object, its list entry and its QName reference
+    private static final int DOM4J_NODE_BYTES = 64;
+
+    // Layout assumed by measuredSize(): 64-bit JVM with compressed references
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    private ObjectSizes() {}
+
+    /**
+     * Approximate size in bytes of an object.
+     *
+     * @param object    SAXStore, dom4j document or TinyTree
+     * @return          approximate size, 0 if unknown
+     */
+    public static long approximateSize(Object object) {
+        if (object instanceof SAXStore) {
+            return ((SAXStore) object).getApproximateSize();
+        } else if (object instanceof TinyDocumentImpl) {
+            return approximateSize(((TinyDocumentImpl) object).getTree());
+        } else if (object instanceof Document) {
+            return approximateSize((Branch) object);
+        } else {
+            return 0;
+        }
+    }
+
+    private static long approximateSize(TinyTree tree) {
+        // Node arrays: kind, depth, next, alpha, beta, name code
+        long size = tree.getNumberOfNodes() * (1 + 2 + 4 * 4);
+        size += tree.getCharacterBuffer().length() * 2;
+        if (tree.getCommentBuffer() != null)
+            size += tree.getCommentBuffer().length() * 2;
+
+        // Attribute arrays: parent, name code, type code
+        final int attributeCount = tree.getNumberOfAttributes();
+        size += attributeCount * 3 * 4;
+        final CharSequence[] attributeValues = tree.getAttributeValueArray();
+        for (int i = 0; i < attributeCount && i < attributeValues.length; i++) {
+            if (attributeValues[i] != null)
+                size += attributeValues[i].length() * 2;
+        }
+
+        size += tree.getNumberOfNamespaces() * 2 * 4;
+        return size;
+    }
+
+    private static long approximateSize(Branch root) {
+        // Walk the tree with an explicit stack, as documents can be deeper than the call stack allows
+        long size = 0;
+        final List<Branch> branches = new ArrayList<Branch>();
+        branches.add(root);
+        while (! branches.isEmpty()) {
+            final Branch branch = branches.remove(branches.size() - 1);
+            size += DOM4J_NODE_BYTES;
+            if (branch instanceof Element) {
+                for (final Iterator i = ((Element) branch).attributeIterator(); i.hasNext();) {
+                    final Attribute attribute = (Attribute) i.next();
+                    size += DOM4J_NODE_BYTES + attribute.getValue().length() * 2;
+                }
+            }
+            for (final Iterator i = branch.nodeIterator(); i.hasNext();) {
+                final Node node = (Node) i.next();
+                if (node instanceof Branch) {
+                    branches.add((Branch) node);
+                } else {
+                    final String text = node.getText();
+                    size += DOM4J_NODE_BYTES + (text != null ? text.length() * 2 : 0);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Measured size in bytes of all the objects reachable from an object.
+     *
+     * Unlike approximateSize(), this walks the actual object graph, so it is expensive but can be used to compare
+     * representations. Objects shared by all documents, like the Saxon configuration and name pool, dom4j names and
+     * classes, are not counted.
+     *
+     * @param object    object to measure
+     * @return          size in bytes
+     */
+    public static long measuredSize(Object object) {
+        final Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+        final Map<Class, ClassLayout> layouts = new HashMap<Class, ClassLayout>();
+
+        // Walk the graph with an explicit stack, as for approximateSize()
+        final List<Object> pending = new ArrayList<Object>();
+        pending.add(object);
+
+        long size = 0;
+        while (! pending.isEmpty()) {
+            final Object current = pending.remove(pending.size() - 1);
+            if (current == null || isShared(current) || visited.put(current, current) != null)
+                continue;
+
+            final Class clazz = current.getClass();
+            if (clazz.isArray()) {
+                final Class componentType = clazz.getComponentType();
+                final int length = Array.getLength(current);
+                if (componentType.isPrimitive()) {
+                    size += align(ARRAY_HEADER_BYTES + (long) length * primitiveBytes(componentType));
+                } else {
+                    size += align(ARRAY_HEADER_BYTES + (long) length * REFERENCE_BYTES);
+                    for (final Object element : (Object[]) current)
+                        pending.add(element);
+                }
+            } else if (current instanceof String) {
+                // Measured directly, as the fields of String are not always accessible
+                size += align(OBJECT_HEADER_BYTES + REFERENCE_BYTES + 4) + align(ARRAY_HEADER_BYTES + 2L * ((String) current).length());
+            } else {
+                ClassLayout layout = layouts.get(clazz);
+                if (layout == null) {
+                    layout = new ClassLayout(clazz);
+                    layouts.put(clazz, layout);
+                }
+                size += layout.size;
+                for (final Field field : layout.references) {
+                    try {
+                        pending.add(field.get(current));
+                    } catch (IllegalAccessException e) {
+                        // Only accessible fields are kept in the layout
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    private static boolean isShared(Object object) {
+        return object instanceof Class || object instanceof ClassLoader || object instanceof Thread || object instanceof Enum
+                || object instanceof Configuration || object instanceof NamePool
+                || object instanceof DocumentFactory || object instanceof QName || object instanceof Namespace;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static int primitiveBytes(Class type) {
+        if (type == long.class || type == double.class)
+            return 8;
+        else if (type == int.class || type == float.class)
+            return 4;
+        else if (type == short.class || type == char.class)
+            return 2;
+        else
+            return 1;
+    }
+
+    // Shallow size of the instances of a class, and the reference fields to follow
+    private static class ClassLayout {
+
+        public final long size;
+        public final List<Field> references = new ArrayList<Field>();
+
+        public ClassLayout(Class clazz) {
+            long fieldsSize = 0;
+            for (Class c = clazz; c != null; c = c.getSuperclass()) {
+                for (final Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers()))
+                        continue;
+
+                    if (field.getType().isPrimitive()) {
+                        fieldsSize += primitiveBytes(field.getType());
+                    } else {
+                        fieldsSize += REFERENCE_BYTES;
+                        try {
+                            field.setAccessible(true);
+                            references.add(field);
+                        } catch (RuntimeException e) {
+                            // Field not accessible, e.g. in a JDK class: only its reference is counted
+                        }
+                    }
+                }
+            }
+            size = align(OBJECT_HEADER_BYTES + fieldsSize);
+        }
+    }
+}
@@ -91,6 +91,15 @@ public class PipelineContext implements PropertyContext {
         return attributes.get(key);
     }
 
+    /**
+     * Get a copy of all the attributes of the context.
+     *
+     * @return map of attribute keys to attribute values
+     */
+    public synchronized Map<Object, Object> getAttributes() {
+        return new HashMap<Object, Object>(attributes);
+    }
+
     /**
      * Add a new listener to the context.
      *
@@ -20,7 +20,7 @@ import org.orbeon.oxf.xml.XMLReceiver;
 /**
  * The Identity processor produces on its data output the document received on the data input.
  */
-public class IdentityProcessor extends ProcessorImpl {
+public class IdentityProcessor extends ProcessorImpl implements ThreadSafeProcessor {
 
     public IdentityProcessor() {
         addInputInfo(new ProcessorInputOutputInfo(INPUT_DATA));
@@ -28,6 +28,7 @@ import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.SchemaRepository;
 import org.orbeon.oxf.xml.TransformerUtils;
 import org.orbeon.oxf.xml.XMLUtils;
@@ -81,7 +82,7 @@ public abstract class ProcessorImpl implements Processor {
     /**
      * This is for internal pipeline engine use.
      */
-    protected static final String PARENT_PROCESSORS = "parent-processors";
+    public static final String PARENT_PROCESSORS = "parent-processors";
 
     protected ProcessorImpl() {
         sequenceNumber = PROCESSOR_SEQUENCE_NUMBER++;
@@ -314,11 +315,29 @@ public abstract class ProcessorImpl implements Processor {
     public DocumentInfo readCacheInputAsTinyTree(PipelineContext pipelineContext, final Configuration configuration, String inputName) {
         return readCacheInputAsObject(pipelineContext, getInputByName(inputName), new CacheableInputReader<DocumentInfo>() {
             public DocumentInfo read(PipelineContext context, ProcessorInput input) {
-                return readInputAsTinyTree(context, input, configuration);
+                final DocumentInfo documentInfo = readInputAsTinyTree(context, input, configuration);
+
+                // Compare with the dom4j equivalent, which is expensive so only done when debugging
+                if (logger.isDebugEnabled())
+                    logger.debug("Cached TinyTree for input '" + input.getName() + "' of " + ProcessorImpl.this.getClass().getName()
+                            + ": " + ObjectSizes.measuredSize(documentInfo) + " bytes, dom4j equivalent "
+                            + ObjectSizes.measuredSize(TransformerUtils.tinyTreeToDom4j(documentInfo)) + " bytes");
+
+                return documentInfo;
             }
         });
     }
 
+    /**
+     * Read an input as a TinyTree built with the global configuration, and cache it.
+     *
+     * Unlike the dom4j document returned by readCacheInputAsDOM4J(), the tree returned is immutable, so it can be
+     * shared by all the threads reading the cached input without being copied.
+     */
+    public DocumentInfo readCacheInputAsTinyTree(PipelineContext pipelineContext, String inputName) {
+        return readCacheInputAsTinyTree(pipelineContext, XPathCache.getGlobalConfiguration(), inputName);
+    }
+
     /**
      * To be used in the readImpl implementation of a processor when an object
      * is created based on an input (an the object only depends on the input).
@@ -360,7 +379,9 @@ public abstract class ProcessorImpl implements Processor {
         if (logger.isDebugEnabled())
             logger.debug("Cache " + debugInfo + ": READING.");
 
+        final long readStart = System.nanoTime();
         final T result = reader.read(pipelineContext, input);
+        final long readTime = System.nanoTime() - readStart;
 
         if (reader.allowCaching()) {
             // Cache new result if possible, asking again for KeyValidity if needed
@@ -371,7 +392,8 @@ public abstract class ProcessorImpl implements Processor {
                 if (logger.isDebugEnabled())
                     logger.debug("Cache " + debugInfo + ": source cacheable for key '" + keyValidity.key + "'. STORING object:" + result);
 
-                cache.add(keyValidity.key, keyValidity.validity, result);
+                // Pass the time it took to read the object so that the cache can decide whether it is worth keeping
+                cache.add(keyValidity.key, keyValidity.validity, result, readTime);
 
                 reader.storedInCache();
             }
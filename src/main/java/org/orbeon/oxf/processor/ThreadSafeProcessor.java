@@ -0,0 +1,22 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor;
+
+/**
+ * Marker for processors which can run on a pipeline worker, on another thread than the one running their pipeline.
+ * Such processors must not use the request, the session or state shared through the PipelineContext. Processors which
+ * are not marked always run on the thread running their pipeline.
+ */
+public interface ThreadSafeProcessor {
+}
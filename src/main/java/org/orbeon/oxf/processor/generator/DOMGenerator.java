@@ -43,7 +43,7 @@ import javax.xml.transform.dom.DOMSource;
  * happens that that with current impl and usage of DOMGenerator we get this result.  It would
  * be better if there was code that made this happen explicitly.
  */
-public final class DOMGenerator extends ProcessorImpl {
+public final class DOMGenerator extends ProcessorImpl implements ThreadSafeProcessor {
 
     /**
      * Abstraction that lets use either DOM4J or W3C document as source.
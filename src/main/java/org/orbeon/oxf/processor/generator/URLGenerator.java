@@ -55,7 +55,7 @@ import java.util.HashMap;
  * http://www.faqs.org/rfcs/rfc3023.html
  * http://www.ietf.org/internet-drafts/draft-murata-kohn-lilley-xml-00.txt
  */
-public class URLGenerator extends ProcessorImpl {
+public class URLGenerator extends ProcessorImpl implements ThreadSafeProcessor {
 
     private static Logger logger = Logger.getLogger(URLGenerator.class);
     public static IndentedLogger indentedLogger = new IndentedLogger(logger, "oxf:url-generator");
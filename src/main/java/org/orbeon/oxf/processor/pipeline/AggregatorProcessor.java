@@ -28,7 +28,7 @@ import org.xml.sax.SAXException;
 
 import java.util.*;
 
-public class AggregatorProcessor extends ProcessorImpl {
+public class AggregatorProcessor extends ProcessorImpl implements ThreadSafeProcessor {
 
     public static final String AGGREGATOR_NAMESPACE_URI = "http://www.orbeon.com/oxf/pipeline/aggregator";
 
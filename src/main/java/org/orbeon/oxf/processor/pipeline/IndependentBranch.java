@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.processor.Processor;
+import org.orbeon.oxf.processor.ProcessorOutput;
+import org.orbeon.oxf.processor.ThreadSafeProcessor;
+import org.orbeon.oxf.processor.pipeline.ast.*;
+
+import java.util.*;
+
+/**
+ * Part of a pipeline which doesn't depend on the rest of the pipeline, and which can therefore run ahead of time on a
+ * pipeline worker while the pipeline runs.
+ *
+ * A branch is a processor call with a single output, read by a single other processor call, together with the
+ * processor calls feeding it exclusively. A branch doesn't read pipeline inputs, and only contains processors marked
+ * as thread-safe.
+ */
+public class IndependentBranch {
+
+    private final ProcessorOutput output;
+    private final List<Processor> processors;
+
+    private IndependentBranch(ProcessorOutput output, List<Processor> processors) {
+        this.output = output;
+        this.processors = processors;
+    }
+
+    /**
+     * Output of the branch, as connected to the processor reading it.
+     */
+    public ProcessorOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * All the processors of the branch, which must be reset before the branch runs.
+     */
+    public List<Processor> getProcessors() {
+        return processors;
+    }
+
+    /**
+     * Find the independent branches of a pipeline.
+     *
+     * @param astPipeline           pipeline
+     * @param statementProcessors   processors created for each processor call, the processor called being last
+     * @return                      branches, empty unless there are at least two branches which can run concurrently
+     */
+    public static List<IndependentBranch> find(ASTPipeline astPipeline, final Map<ASTProcessorCall, List<Processor>> statementProcessors) {
+
+        // Number of references to each id, and statement referencing each id
+        final Map<String, Integer> referenceCounts = new HashMap<String, Integer>();
+        final Map<String, ASTStatement> consumers = new HashMap<String, ASTStatement>();
+        // Processor call producing each id
+        final Map<String, ASTProcessorCall> producers = new HashMap<String, ASTProcessorCall>();
+
+        for (final ASTStatement statement : astPipeline.getStatements()) {
+            statement.walk(new ASTSimpleHandler() {
+                @Override
+                public void hrefId(ASTHrefId hrefId) {
+                    final Integer count = referenceCounts.get(hrefId.getId());
+                    referenceCounts.put(hrefId.getId(), count == null ? 1 : count + 1);
+                    consumers.put(hrefId.getId(), statement);
+                }
+            });
+            if (statement instanceof ASTProcessorCall) {
+                for (final Object output : ((ASTProcessorCall) statement).getOutputs()) {
+                    final String id = ((ASTOutput) output).getId();
+                    if (id != null)
+                        producers.put(id, (ASTProcessorCall) statement);
+                }
+            }
+        }
+
+        // Whether each processor call can run on its own, with the processor calls feeding it exclusively
+        final Map<ASTProcessorCall, Boolean> selfContained = new HashMap<ASTProcessorCall, Boolean>();
+        class SelfContained {
+            boolean check(ASTProcessorCall processorCall) {
+                final Boolean cached = selfContained.get(processorCall);
+                if (cached != null)
+                    return cached;
+
+                boolean result = statementProcessors.containsKey(processorCall) && getSingleOutput(processorCall) != null;
+                if (result) {
+                    for (final Processor processor : statementProcessors.get(processorCall))
+                        if (! (processor instanceof ThreadSafeProcessor))
+                            result = false;
+                }
+                if (result) {
+                    // Pipeline inputs, current() and outputs of p:choose and p:for-each have no producer
+                    for (final Object id : processorCall.getIdInfo().getInputRefs()) {
+                        final ASTProcessorCall producer = producers.get(id);
+                        if (producer == null || referenceCounts.get(id) != 1 || ! check(producer))
+                            result = false;
+                    }
+                }
+
+                selfContained.put(processorCall, result);
+                return result;
+            }
+        }
+        final SelfContained selfContainedCheck = new SelfContained();
+
+        // Branches are the largest self-contained parts, read by a processor call which is not self-contained
+        final List<IndependentBranch> branches = new ArrayList<IndependentBranch>();
+        for (final ASTStatement statement : astPipeline.getStatements()) {
+            if (statement instanceof ASTProcessorCall) {
+                final ASTProcessorCall processorCall = (ASTProcessorCall) statement;
+                final ASTOutput astOutput = getSingleOutput(processorCall);
+                if (astOutput != null && selfContainedCheck.check(processorCall)) {
+                    final ASTStatement consumer = consumers.get(astOutput.getId());
+                    // Outputs read from p:choose or p:for-each are connected through tees
+                    if (consumer instanceof ASTProcessorCall && referenceCounts.get(astOutput.getId()) == 1
+                            && ! selfContainedCheck.check((ASTProcessorCall) consumer)) {
+
+                        final List<Processor> processors = new ArrayList<Processor>();
+                        collectProcessors(processorCall, producers, statementProcessors, processors);
+
+                        final List<Processor> callProcessors = statementProcessors.get(processorCall);
+                        final Processor processor = callProcessors.get(callProcessors.size() - 1);
+                        branches.add(new IndependentBranch(processor.getOutputByName(astOutput.getName()), processors));
+                    }
+                }
+            }
+        }
+
+        // A single branch would just run while the pipeline waits for it
+        return branches.size() >= 2 ? branches : Collections.<IndependentBranch>emptyList();
+    }
+
+    private static ASTOutput getSingleOutput(ASTProcessorCall processorCall) {
+        if (processorCall.getOutputs().size() != 1)
+            return null;
+        final ASTOutput astOutput = (ASTOutput) processorCall.getOutputs().get(0);
+        return astOutput.getId() != null && astOutput.getRef() == null ? astOutput : null;
+    }
+
+    private static void collectProcessors(ASTProcessorCall processorCall, Map<String, ASTProcessorCall> producers,
+                                          Map<ASTProcessorCall, List<Processor>> statementProcessors, List<Processor> processors) {
+        processors.addAll(statementProcessors.get(processorCall));
+        for (final Object id : processorCall.getIdInfo().getInputRefs())
+            collectProcessors(producers.get(id), producers, statementProcessors, processors);
+    }
+}
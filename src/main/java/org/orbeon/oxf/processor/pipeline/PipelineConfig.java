@@ -38,6 +38,8 @@ public class PipelineConfig {
     private List<Processor> processors = new ArrayList<Processor>();
     // List of Processor objects: we have to call their start() method
     private List<Processor> processorsToStart = new ArrayList<Processor>();
+    // Branches which can run concurrently with the rest of the pipeline
+    private List<IndependentBranch> independentBranches = new ArrayList<IndependentBranch>();
 
     public void declareTopOutput(String name, PipelineProcessor.InternalTopOutput topOutput) {
         List<PipelineProcessor.InternalTopOutput> outputsForName = nameToTopOutputMap.get(name);
@@ -77,4 +79,12 @@ public class PipelineConfig {
     public List<Processor> getProcessorsToStart() {
         return processorsToStart;
     }
+
+    public void setIndependentBranches(List<IndependentBranch> independentBranches) {
+        this.independentBranches = independentBranches;
+    }
+
+    public List<IndependentBranch> getIndependentBranches() {
+        return independentBranches;
+    }
 }
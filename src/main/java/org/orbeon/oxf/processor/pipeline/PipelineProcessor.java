@@ -28,14 +28,18 @@ import org.orbeon.oxf.processor.pipeline.choose.AbstractChooseProcessor;
 import org.orbeon.oxf.processor.pipeline.choose.ConcreteChooseProcessor;
 import org.orbeon.oxf.processor.pipeline.foreach.AbstractForEachProcessor;
 import org.orbeon.oxf.processor.pipeline.foreach.ConcreteForEachProcessor;
+import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.PipelineUtils;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.SchemaRepository;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.oxf.xml.dom4j.ExtendedLocationData;
 import org.orbeon.oxf.xml.dom4j.LocationData;
+import org.xml.sax.SAXException;
 
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * <b>Lifecycle</b>
@@ -61,6 +65,9 @@ public class PipelineProcessor extends ProcessorImpl {
 
     public static final String PIPELINE_NAMESPACE_URI = "http://www.orbeon.com/oxf/pipeline";
     public static final Namespace PIPELINE_NAMESPACE = new Namespace("p", PIPELINE_NAMESPACE_URI);
+
+    private static final String CONCURRENT_BRANCHES_PROPERTY = "oxf.pipeline.concurrent-branches";
+
     private PipelineConfig configFromAST;
 
     public PipelineProcessor() {
@@ -184,11 +191,15 @@ public class PipelineProcessor extends ProcessorImpl {
             // here to create of pass the input/output information.
         }
 
+        // Processors created for each processor call, to find independent branches
+        final Map<ASTProcessorCall, List<Processor>> statementProcessors = new HashMap<ASTProcessorCall, List<Processor>>();
+
         // Internally connect all processors / choose / for-each
         for (Iterator i = astPipeline.getStatements().iterator(); i.hasNext();) {
             Object statement = i.next();
             Processor processor = null;
             boolean foundOutput = false;
+            final int processorCountBefore = config.getProcessors().size();
 
             if (statement instanceof ASTProcessorCall) {
                 ASTProcessorCall processorCall = (ASTProcessorCall) statement;
@@ -405,6 +416,10 @@ public class PipelineProcessor extends ProcessorImpl {
                     config.addProcessorToStart(processor);
                 }
             }
+
+            if (statement instanceof ASTProcessorCall && processor != null)
+                statementProcessors.put((ASTProcessorCall) statement,
+                        new ArrayList<Processor>(config.getProcessors().subList(processorCountBefore, config.getProcessors().size())));
         }
 
         // Check that all bottom inputs are connected
@@ -421,6 +436,16 @@ public class PipelineProcessor extends ProcessorImpl {
         for (Iterator i = block.getCreatedProcessors().iterator(); i.hasNext();)
             config.addProcessor((Processor) i.next());
 
+        // Read independent branches through outputs which replay what the branch produced ahead of time, if it did
+        final List<IndependentBranch> independentBranches = IndependentBranch.find(astPipeline, statementProcessors);
+        for (final IndependentBranch branch : independentBranches) {
+            final ProcessorInput readingInput = branch.getOutput().getInput();
+            final ProcessorOutput branchOutput = new IndependentBranchOutput(branch);
+            readingInput.setOutput(branchOutput);
+            branchOutput.setInput(readingInput);
+        }
+        config.setIndependentBranches(independentBranches);
+
         return config;
     }
 
@@ -570,6 +595,74 @@ public class PipelineProcessor extends ProcessorImpl {
         }
     }
 
+    /**
+     * Output connected to the processor reading an independent branch.
+     *
+     * If the branch was run ahead of time, replay its result. Otherwise, read the branch as if it was directly
+     * connected.
+     */
+    public static class IndependentBranchOutput extends org.orbeon.oxf.processor.impl.ProcessorOutputImpl {
+
+        private final IndependentBranch branch;
+
+        public IndependentBranchOutput(IndependentBranch branch) {
+            // Don't pass a processor instance to the constructor
+            super(PipelineProcessor.class, branch.getOutput().getName());
+            this.branch = branch;
+        }
+
+        public void readImpl(PipelineContext context, XMLReceiver xmlReceiver) {
+            final BranchResult result = getBranchResult(context);
+            if (result != null) {
+                try {
+                    result.output.replay(xmlReceiver);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            } else {
+                branch.getOutput().read(context, xmlReceiver);
+            }
+        }
+
+        @Override
+        public OutputCacheKey getKeyImpl(PipelineContext pipelineContext) {
+            final BranchResult result = getBranchResult(pipelineContext);
+            return result != null ? result.key : branch.getOutput().getKey(pipelineContext);
+        }
+
+        @Override
+        public Object getValidityImpl(PipelineContext pipelineContext) {
+            final BranchResult result = getBranchResult(pipelineContext);
+            return result != null ? result.validity : branch.getOutput().getValidity(pipelineContext);
+        }
+
+        private BranchResult getBranchResult(PipelineContext pipelineContext) {
+            final State state = (State) getParentState(pipelineContext);
+            final Future<BranchResult> future = state.branchResults.get(branch);
+            if (future == null)
+                return null;
+
+            final long waitStart = System.nanoTime();
+            final BranchResult result = PipelineWorkers.getResult(future);
+            state.branchWaitTime += System.nanoTime() - waitStart;
+            return result;
+        }
+    }
+
+    private static class BranchResult {
+        public final SAXStore output;
+        public final OutputCacheKey key;
+        public final Object validity;
+        public final long time;
+
+        private BranchResult(SAXStore output, OutputCacheKey key, Object validity, long time) {
+            this.output = output;
+            this.key = key;
+            this.validity = validity;
+            this.time = time;
+        }
+    }
+
     /**
      * "Artificial" input sitting at the "bottom" of the pipeline.
      */
@@ -609,6 +702,10 @@ public class PipelineProcessor extends ProcessorImpl {
         state.nameToBottomInputMap = config.getNameToInputMap();
         state.started = true;
 
+        // Run independent branches ahead of time
+        if (! config.getIndependentBranches().isEmpty() && isConcurrentBranches())
+            startIndependentBranches(context, state, config.getIndependentBranches());
+
         // Run the processors that are not connected to any pipeline output
         for (Iterator i = config.getProcessorsToStart().iterator(); i.hasNext();) {
             final Processor processor = (Processor) i.next();
@@ -624,6 +721,67 @@ public class PipelineProcessor extends ProcessorImpl {
         }
     }
 
+    private static boolean isConcurrentBranches() {
+        return Properties.instance().getPropertySet().getBoolean(CONCURRENT_BRANCHES_PROPERTY, false);
+    }
+
+    private void startIndependentBranches(final PipelineContext context, final State state, final List<IndependentBranch> branches) {
+
+        // Submit as a parent of the branch processors, so that they use the same state keys as when run directly
+        executeChildren(context, new Runnable() {
+            public void run() {
+                for (final IndependentBranch branch : branches) {
+                    // If all the workers are busy, the branch is read on this thread when needed
+                    final Future<BranchResult> future = PipelineWorkers.trySubmit(context, new PipelineWorkers.Task<BranchResult>() {
+                        public BranchResult run(PipelineContext workerContext) {
+                            final long start = System.nanoTime();
+                            for (final Processor processor : branch.getProcessors())
+                                processor.reset(workerContext);
+
+                            final SAXStore output = new SAXStore();
+                            final ProcessorOutput branchOutput = branch.getOutput();
+                            branchOutput.read(workerContext, output);
+                            return new BranchResult(output, branchOutput.getKey(workerContext),
+                                    branchOutput.getValidity(workerContext), System.nanoTime() - start);
+                        }
+                    });
+                    if (future != null)
+                        state.branchResults.put(branch, future);
+                }
+            }
+        });
+
+        context.addContextListener(new PipelineContext.ContextListener() {
+            public void contextDestroyed(boolean success) {
+                // Don't keep running branches which were not read, e.g. after an error
+                for (final Future<BranchResult> future : state.branchResults.values())
+                    future.cancel(true);
+
+                if (logger.isDebugEnabled()) {
+                    // The critical path is the longest branch, as branches run concurrently
+                    long criticalPath = 0;
+                    long totalTime = 0;
+                    int completed = 0;
+                    for (final Future<BranchResult> future : state.branchResults.values()) {
+                        if (future.isDone() && ! future.isCancelled()) {
+                            try {
+                                final long time = future.get().time;
+                                criticalPath = Math.max(criticalPath, time);
+                                totalTime += time;
+                                completed++;
+                            } catch (Exception e) {
+                                // Branch failed, its error was reported when reading it
+                            }
+                        }
+                    }
+                    logger.debug("Concurrent pipeline branches: " + completed + "/" + state.branchResults.size()
+                            + " completed, critical path " + criticalPath / 1000000 + " ms, total " + totalTime / 1000000
+                            + " ms, waited " + state.branchWaitTime / 1000000 + " ms; " + PipelineProcessor.this.getLocationData());
+                }
+            }
+        });
+    }
+
     private void resetChildProcessors(final PipelineContext context) {
         if (hasState(context)) {
             final State state = (State) getState(context);
@@ -650,6 +808,8 @@ public class PipelineProcessor extends ProcessorImpl {
         public boolean started = false;
         public Map<String, List<ProcessorInput>> pipelineInputs = new HashMap<String, List<ProcessorInput>>();
         public List<Processor> childProcessors;
+        public Map<IndependentBranch, Future<BranchResult>> branchResults = new HashMap<IndependentBranch, Future<BranchResult>>();
+        public long branchWaitTime;
     }
 
     private void addSelfAsParent(PipelineContext pipelineContext) {
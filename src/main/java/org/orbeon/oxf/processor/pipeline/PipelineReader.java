@@ -208,6 +208,9 @@ public class PipelineReader extends ProcessorImpl {
                     forEach.setOutputSchemaHref(element.attributeValue("output-schema-href"));
                     forEach.setOutputSchemaUri(element.attributeValue("output-schema-uri"));
                     forEach.setOutputDebug(element.attributeValue("output-debug"));
+                    forEach.setParallel("true".equals(element.attributeValue("parallel")));
+                    if (element.attributeValue("max-parallelism") != null)
+                        forEach.setMaxParallelism(Integer.parseInt(element.attributeValue("max-parallelism")));
                     forEach.getStatements().addAll(readStatements(element));
                 }
             }
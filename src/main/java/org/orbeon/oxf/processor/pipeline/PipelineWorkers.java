@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.DatabaseContext;
+import org.orbeon.oxf.processor.Processor;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.processor.sql.SQLProcessorInterpreterContext;
+import org.orbeon.oxf.properties.Properties;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker threads running parts of a pipeline concurrently with the thread running the pipeline.
+ *
+ * Processors keep their state in the PipelineContext, so each task runs with its own PipelineContext. That context has
+ * the attributes of the context of the pipeline, except for processor state and resources bound to the context, such as
+ * database connections. It has the same parent processors, so that processors use the same state keys. Processors run
+ * by a task must be reset in the task's context before being read or started.
+ *
+ * The thread pool is bounded, and tasks are never queued: when all the workers are busy, the task runs on the caller's
+ * thread instead. As tasks can wait for other tasks, queueing them could cause deadlocks.
+ */
+public class PipelineWorkers {
+
+    private static final String MAX_THREADS_PROPERTY = "oxf.pipeline.workers.max-threads";
+    public static final String THREAD_NAME_PREFIX = "orbeon-pipeline-worker-";
+
+    // Attributes holding resources which are released when their context is destroyed, and can't be shared by threads
+    private static final Set<Object> CONTEXT_RESOURCES = new HashSet<Object>(Arrays.asList(
+        DatabaseContext.DATASOURCE_CONTEXT,
+        SQLProcessorInterpreterContext.SQL_PROCESSOR_CONTEXT
+    ));
+
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        final int maxThreads = Properties.instance().getPropertySet().getInteger(MAX_THREADS_PROPERTY, 16);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        // Don't keep idle threads around
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public interface Task<T> {
+        T run(PipelineContext workerContext);
+    }
+
+    /**
+     * Submit a task running with a PipelineContext derived from the given one. If all the workers are busy, run the
+     * task on the current thread, and return its completed result.
+     *
+     * This must be called from the thread running the given PipelineContext, as the parent processors are captured
+     * when the task is submitted.
+     */
+    public static <T> Future<T> submit(PipelineContext pipelineContext, final Task<T> task) {
+        final FutureTask<T> futureTask = createTask(pipelineContext, task);
+        try {
+            executor.execute(futureTask);
+        } catch (RejectedExecutionException e) {
+            futureTask.run();
+        }
+        return futureTask;
+    }
+
+    /**
+     * Like submit(), but return null instead of running the task on the current thread if all the workers are busy.
+     */
+    public static <T> Future<T> trySubmit(PipelineContext pipelineContext, final Task<T> task) {
+        final FutureTask<T> futureTask = createTask(pipelineContext, task);
+        try {
+            executor.execute(futureTask);
+            return futureTask;
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    private static <T> FutureTask<T> createTask(PipelineContext pipelineContext, final Task<T> task) {
+
+        final Map<Object, Object> attributes = new HashMap<Object, Object>();
+        for (final Map.Entry<Object, Object> entry : pipelineContext.getAttributes().entrySet())
+            if (isInherited(entry.getKey()))
+                attributes.put(entry.getKey(), entry.getValue());
+        final Stack<ProcessorImpl> parents = (Stack<ProcessorImpl>) pipelineContext.getAttribute(ProcessorImpl.PARENT_PROCESSORS);
+        final List<ProcessorImpl> parentsSnapshot = parents != null ? new ArrayList<ProcessorImpl>(parents) : null;
+
+        return new FutureTask<T>(new Callable<T>() {
+            public T call() {
+                // NOTE: The PipelineContext is also set as the current context of the worker thread
+                final PipelineContext workerContext = new PipelineContext();
+                boolean success = false;
+                try {
+                    for (final Map.Entry<Object, Object> entry : attributes.entrySet())
+                        workerContext.setAttribute(entry.getKey(), entry.getValue());
+                    if (parentsSnapshot != null) {
+                        final Stack<ProcessorImpl> workerParents = new Stack<ProcessorImpl>();
+                        workerParents.addAll(parentsSnapshot);
+                        workerContext.setAttribute(ProcessorImpl.PARENT_PROCESSORS, workerParents);
+                    }
+
+                    final T result = task.run(workerContext);
+                    success = true;
+                    return result;
+                } finally {
+                    workerContext.destroy(success);
+                }
+            }
+        });
+    }
+
+    private static boolean isInherited(Object key) {
+        return ! (key instanceof ProcessorImpl.ProcessorKey)
+            && ! (key instanceof Processor)
+            && ! ProcessorImpl.PARENT_PROCESSORS.equals(key)
+            && ! CONTEXT_RESOURCES.contains(key);
+    }
+
+    /**
+     * Wait for the result of a task, rethrowing the exception thrown by the task if any.
+     */
+    public static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new OXFException(cause);
+        }
+    }
+}
@@ -28,7 +28,7 @@ import org.xml.sax.SAXException;
 /**
  * This internal processor handles the tee-ing functionality of XPL, i.e. sending an XML infoset to multiple readers.
  */
-public class TeeProcessor extends ProcessorImpl {
+public class TeeProcessor extends ProcessorImpl implements ThreadSafeProcessor {
 
     private static final Logger logger = LoggerFactory.createLogger(TeeProcessor.class);
     private Exception creationException;
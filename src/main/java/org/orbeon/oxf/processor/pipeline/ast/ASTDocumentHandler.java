@@ -143,6 +143,10 @@ public class ASTDocumentHandler implements ASTHandler {
         if (forEach.getRef() != null)
             currentElement.addAttribute("ref", forEach.getRef());
         currentElement.addAttribute("root", forEach.getRoot());
+        if (forEach.isParallel())
+            currentElement.addAttribute("parallel", "true");
+        if (forEach.getMaxParallelism() > 0)
+            currentElement.addAttribute("max-parallelism", Integer.toString(forEach.getMaxParallelism()));
         return true;
     }
 
@@ -22,12 +22,14 @@ import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.processor.*;
 import org.orbeon.oxf.processor.generator.DOMGenerator;
 import org.orbeon.oxf.processor.pipeline.PipelineProcessor;
+import org.orbeon.oxf.processor.pipeline.PipelineWorkers;
 import org.orbeon.oxf.processor.pipeline.TeeProcessor;
 import org.orbeon.oxf.processor.pipeline.ast.*;
 import org.orbeon.oxf.util.PooledXPathExpression;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.EmbeddedDocumentXMLReceiver;
 import org.orbeon.oxf.xml.NamespaceMapping;
+import org.orbeon.oxf.xml.SAXStore;
 import org.orbeon.oxf.xml.dom4j.Dom4jUtils;
 import org.orbeon.saxon.dom4j.DocumentWrapper;
 import org.orbeon.saxon.om.DocumentInfo;
@@ -36,6 +38,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ConcreteForEachProcessor extends ProcessorImpl {
 
@@ -46,6 +51,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
     private String rootLocalName;
     private String rootQName;
     private String rootNamespaceURI;
+    private final boolean parallel;
+    private final int maxParallelism;
 
     public ConcreteForEachProcessor(ASTForEach forEachAST, Object validity) {
         final String[] refsWithNoId = getRefsWithNoId(forEachAST);
@@ -92,6 +99,8 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         iterationOutput = forEachBlockProcessor.createOutput(idOrRef);
 
         select = forEachAST.getSelect();
+        parallel = forEachAST.isParallel();
+        maxParallelism = forEachAST.getMaxParallelism() > 0 ? forEachAST.getMaxParallelism() : Runtime.getRuntime().availableProcessors();
         namespaceContext = new NamespaceMapping(Dom4jUtils.getNamespaceContextNoDefault((Element) forEachAST.getNode()));
         if (forEachAST.getRoot() != null) {
             rootQName = forEachAST.getRoot();
@@ -122,6 +131,21 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                     xmlReceiver.startDocument();
                     xmlReceiver.startElement(rootNamespaceURI, rootLocalName, rootQName, new AttributesImpl());
 
+                    if (parallel) {
+                        // Run all iterations, then output their results in order
+                        final List<SAXStore> iterationResults = runParallelIterations(pipelineContext, true);
+                        for (final SAXStore iterationResult : iterationResults)
+                            iterationResult.replay(new EmbeddedDocumentXMLReceiver(xmlReceiver));
+
+                        // Notify input Tee processors that we are done
+                        commitInputs(pipelineContext, iterationResults.size());
+
+                        // Close document
+                        xmlReceiver.endElement(rootNamespaceURI, rootLocalName, rootQName);
+                        xmlReceiver.endDocument();
+                        return;
+                    }
+
                     // Read n times from iterationOutput
                     PooledXPathExpression expression = null;
                     int iterationCount = 0;
@@ -249,8 +273,117 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
                 select, namespaceContext, getLocationData());
     }
 
+    /**
+     * Run all the iterations on pipeline workers, with at most maxParallelism iterations at the same time. The workers
+     * are shared by all pipelines, and when they are all busy, iterations run on this thread.
+     *
+     * Each iteration runs with its own PipelineContext, as processor state is kept in the PipelineContext. The inputs of
+     * p:for-each are read once, before the iterations start, since they can only be read in the outer PipelineContext.
+     *
+     * @return the result of each iteration, in document order, or nulls if readOutput is false
+     */
+    private List<SAXStore> runParallelIterations(PipelineContext pipelineContext, final boolean readOutput) {
+
+        final List<Element> elements = new ArrayList<Element>();
+        {
+            PooledXPathExpression expression = null;
+            try {
+                expression = createExpression(pipelineContext);
+                for (Iterator i = new ElementIterator(expression); i.hasNext();)
+                    elements.add((Element) i.next());
+            } catch (XPathException e) {
+                throw new OXFException(e);
+            } finally {
+                if (expression != null) expression.returnToPool();
+            }
+        }
+
+        final Map<String, SAXStore> inputs = readInputs(pipelineContext);
+
+        final Semaphore permits = new Semaphore(maxParallelism);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final List<Future<SAXStore>> futures = new ArrayList<Future<SAXStore>>(elements.size());
+        try {
+            for (final Element currentElement : elements) {
+                permits.acquireUninterruptibly();
+                if (failed.get()) {
+                    // Don't start other iterations, the error is reported below
+                    permits.release();
+                    break;
+                }
+                futures.add(PipelineWorkers.submit(pipelineContext, new PipelineWorkers.Task<SAXStore>() {
+                    public SAXStore run(PipelineContext iterationContext) {
+                        try {
+                            return runIteration(iterationContext, currentElement, inputs, readOutput);
+                        } catch (RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        } catch (Error e) {
+                            failed.set(true);
+                            throw e;
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                }));
+            }
+
+            final List<SAXStore> results = new ArrayList<SAXStore>(futures.size());
+            for (final Future<SAXStore> future : futures)
+                results.add(PipelineWorkers.getResult(future));
+            return results;
+        } finally {
+            // In case of error, don't wait for iterations still running
+            for (final Future<SAXStore> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    private SAXStore runIteration(PipelineContext iterationContext, Element currentElement, Map<String, SAXStore> inputs, boolean readOutput) {
+
+        final State state = new State();
+        final String systemId = Dom4jUtils.makeSystemId(currentElement);
+        state.domGenerator = new DOMGenerator(currentElement, "for each input", DOMGenerator.ZeroValidity, systemId);
+        state.domGenerator.createOutput(OUTPUT_DATA);
+        state.inputs = inputs;
+        setState(iterationContext, state);
+
+        forEachBlockProcessor.reset(iterationContext);
+
+        if (readOutput) {
+            final SAXStore result = new SAXStore();
+            iterationOutput.read(iterationContext, result);
+            return result;
+        } else {
+            forEachBlockProcessor.start(iterationContext);
+            return null;
+        }
+    }
+
+    // Read all the inputs of p:for-each used by the iterations
+    private Map<String, SAXStore> readInputs(PipelineContext pipelineContext) {
+        final Map<String, SAXStore> inputs = new HashMap<String, SAXStore>();
+        for (final String inputName : getConnectedInputs().keySet()) {
+            if (!AbstractForEachProcessor.FOR_EACH_DATA_INPUT.equals(inputName)) {
+                final SAXStore input = new SAXStore();
+                readInputAsSAX(pipelineContext, inputName, input);
+                inputs.put(inputName, input);
+            }
+        }
+        return inputs;
+    }
+
     @Override
     public void start(PipelineContext pipelineContext) {
+
+        if (parallel) {
+            final int iterationCount = runParallelIterations(pipelineContext, false).size();
+
+            // Notify input Tee processors that we are done
+            commitInputs(pipelineContext, iterationCount);
+            return;
+        }
+
         final State state = (State) getState(pipelineContext);
 
         // Read n times from iterationOutput
@@ -319,8 +452,18 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
         }
 
         protected void readImpl(PipelineContext pipelineContext, XMLReceiver xmlReceiver) {
-            // Delegate to the p:for-each input
-            ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), xmlReceiver);
+            final State state = (State) getState(pipelineContext);
+            if (state.inputs != null) {
+                // Parallel iteration: replay the input read before the iterations started
+                try {
+                    state.inputs.get(getName()).replay(xmlReceiver);
+                } catch (SAXException e) {
+                    throw new OXFException(e);
+                }
+            } else {
+                // Delegate to the p:for-each input
+                ConcreteForEachProcessor.this.readInputAsSAX(pipelineContext, getName(), xmlReceiver);
+            }
         }
 
         @Override
@@ -368,6 +511,7 @@ public class ConcreteForEachProcessor extends ProcessorImpl {
      */
     private static class State {
         DOMGenerator domGenerator;
+        Map<String, SAXStore> inputs; // only for parallel iterations
     }
 
     @Override
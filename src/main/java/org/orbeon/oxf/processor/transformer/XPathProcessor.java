@@ -40,7 +40,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-public class XPathProcessor extends ProcessorImpl {
+public class XPathProcessor extends ProcessorImpl implements ThreadSafeProcessor {
 
     private LocationData locationData;
 
@@ -13,10 +13,10 @@
  */
 package org.orbeon.oxf.processor.transformer.xslt;
 
+import org.apache.commons.lang3.StringUtils;
 import org.orbeon.errorified.Exceptions;
 import org.apache.log4j.Logger;
 import org.dom4j.Document;
-import org.dom4j.Node;
 import org.orbeon.oxf.cache.CacheKey;
 import org.orbeon.oxf.cache.InternalCacheKey;
 import org.orbeon.oxf.cache.ObjectCache;
@@ -34,6 +34,7 @@ import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.properties.PropertyStore;
 import org.orbeon.oxf.resources.URLFactory;
 import org.orbeon.oxf.util.StringBuilderWriter;
+import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xml.*;
 import org.orbeon.oxf.xml.XMLUtils;
 import org.orbeon.oxf.xml.dom4j.ConstantLocator;
@@ -47,6 +48,7 @@ import org.orbeon.saxon.expr.*;
 import org.orbeon.saxon.functions.FunctionLibrary;
 import org.orbeon.saxon.functions.FunctionLibraryList;
 import org.orbeon.saxon.instruct.TerminationException;
+import org.orbeon.saxon.om.DocumentInfo;
 import org.orbeon.saxon.om.Item;
 import org.orbeon.saxon.om.NamePool;
 import org.orbeon.saxon.om.NodeInfo;
@@ -161,8 +163,10 @@ public abstract class XSLTTransformer extends ProcessorImpl {
                     // Create transformer if we did not find one in cache
                     if (templatesInfo == null) {
                         // Get transformer configuration
-                        final Node config = readCacheInputAsDOM4J(pipelineContext, INPUT_TRANSFORMER);
-                        final String transformerClass = XPathUtils.selectStringValueNormalize(config, "/config/class");
+                        // NOTE: The configuration is read as a TinyTree, which is shared by all the threads using it
+                        final DocumentInfo config = readCacheInputAsTinyTree(pipelineContext, INPUT_TRANSFORMER);
+                        final String transformerClass = StringUtils.trimToNull(XPathCache.evaluateAsString(config,
+                                "normalize-space(/config/class)", null, null, null, null, null, null, null));
                         // Create transformer
                         // NOTE: createTransformer() handles its own exceptions
                         templatesInfo = createTransformer(pipelineContext, transformerClass, attributes);
@@ -166,6 +166,11 @@ public class FilesystemResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    @Override
+    protected File getWatchableFile(String key) {
+        return getFile(key);
+    }
+
     public String getRealPath(String key) {
         return getFile(key).getAbsolutePath();
         // Need an option for this as some callers call this for non-existing files
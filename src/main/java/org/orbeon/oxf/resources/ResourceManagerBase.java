@@ -13,11 +13,13 @@
  */
 package org.orbeon.oxf.resources;
 
+import org.apache.log4j.Logger;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.pipeline.api.TransformerXMLReceiver;
 import org.orbeon.oxf.xml.XMLReceiver;
 import org.orbeon.oxf.resources.handler.OXFHandler;
+import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.xml.ForwardingXMLReceiver;
 import org.orbeon.oxf.xml.TransformerUtils;
 import org.orbeon.oxf.xml.XMLReaderToReceiver;
@@ -30,35 +32,117 @@ import org.xml.sax.XMLReader;
 
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.stream.StreamResult;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Base class for most resource manager implementations.
+ *
+ * Last modification dates are cached for a minimum reload interval. If watching is enabled, the last modification
+ * dates of resources backed by files are instead cached until a change is notified by the filesystem, with a longer
+ * polling interval for filesystems which don't deliver change notifications.
  */
 public abstract class ResourceManagerBase implements ResourceManager {
 
+    private static Logger logger = LoggerFactory.createLogger(ResourceManagerBase.class);
+
     private static final String MIN_RELOAD_INTERVAL_KEY = "oxf.resources.common.min-reload-interval";
     private static final long DEFAULT_MIN_RELOAD_INTERVAL = 2 * 1000;
 
-    private ExpirationMap lastModifiedMap;
+    private static final String WATCH_KEY = "oxf.resources.common.watch";
+    private static final String WATCH_POLL_INTERVAL_KEY = "oxf.resources.common.watch.poll-interval";
+    private static final long DEFAULT_WATCH_POLL_INTERVAL = 60 * 1000;
+
+    private final long minReloadInterval;
+    private final long watchPollInterval;
+    private final ResourceWatcher watcher;
+
+    private final ConcurrentMap<String, LastModifiedEntry> lastModifiedEntries = new ConcurrentHashMap<String, LastModifiedEntry>();
+
+    // Incremented upon each change notification of a resource, so that a value read while a change of that resource is
+    // notified is not cached
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static class LastModifiedEntry {
+        public final Object value; // Long or ResourceNotFoundException
+        public final long expiration;
+
+        private LastModifiedEntry(Object value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+    }
 
     /**
      * Initialisation. Should be called only by sub-classes
      */
     protected ResourceManagerBase(Map props) {
         // Override default reload interval if property is specified
-        final String minReloadIntervalString = (String) props.get(MIN_RELOAD_INTERVAL_KEY);
-        long minReloadInterval = DEFAULT_MIN_RELOAD_INTERVAL;
-        if (minReloadIntervalString != null) {
-            final long longValue = Long.parseLong(minReloadIntervalString);
+        minReloadInterval = getInterval(props, MIN_RELOAD_INTERVAL_KEY, DEFAULT_MIN_RELOAD_INTERVAL);
+        watchPollInterval = getInterval(props, WATCH_POLL_INTERVAL_KEY, DEFAULT_WATCH_POLL_INTERVAL);
+        watcher = "true".equals(props.get(WATCH_KEY)) ? createWatcher() : null;
+    }
+
+    private static long getInterval(Map props, String key, long defaultValue) {
+        final String intervalString = (String) props.get(key);
+        if (intervalString != null) {
+            final long longValue = Long.parseLong(intervalString);
             if (longValue < 0)
-                throw new OXFException("Value for property '" + MIN_RELOAD_INTERVAL_KEY + "' must be a non-negative integer.");
-            minReloadInterval = longValue;
+                throw new OXFException("Value for property '" + key + "' must be a non-negative integer.");
+            return longValue;
+        } else {
+            return defaultValue;
         }
-        lastModifiedMap = new ExpirationMap(minReloadInterval);
+    }
+
+    private ResourceWatcher createWatcher() {
+        try {
+            return new ResourceWatcher(new ResourceWatcher.Listener() {
+                public void changed(String key) {
+                    ResourceManagerBase.this.changed(key);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Unable to watch resources, checking resources every " + minReloadInterval + " ms", e);
+            return null;
+        } catch (LinkageError e) {
+            // java.nio.file is not available
+            logger.warn("Unable to watch resources on this JVM, checking resources every " + minReloadInterval + " ms");
+            return null;
+        }
+    }
+
+    // Called by the watcher when the file backing the resource changes
+    void changed(String key) {
+        getGeneration(key).incrementAndGet();
+        lastModifiedEntries.remove(key);
+    }
+
+    private AtomicLong getGeneration(String key) {
+        final AtomicLong generation = generations.get(key);
+        if (generation != null) {
+            return generation;
+        } else {
+            final AtomicLong newGeneration = new AtomicLong();
+            final AtomicLong existingGeneration = generations.putIfAbsent(key, newGeneration);
+            return existingGeneration != null ? existingGeneration : newGeneration;
+        }
+    }
+
+    /**
+     * Return the file backing the resource, if any. Only resources with a backing file can be watched.
+     *
+     * @param key   A Resource Manager key
+     * @return      file or null
+     */
+    protected File getWatchableFile(String key) {
+        return null;
     }
 
     public Node getContentAsDOM(String key) {
@@ -135,26 +219,42 @@ public abstract class ResourceManagerBase implements ResourceManager {
         return transformer;
     }
 
-    final synchronized public long lastModified(String key, boolean doNotThrowResourceNotFound) {
+    final public long lastModified(String key, boolean doNotThrowResourceNotFound) {
         // Do only 1 call to currentTimeMillis()
         final long currentTime = System.currentTimeMillis();
-        Object value = lastModifiedMap.get(currentTime, key);
-        if (value == null) {
+        final LastModifiedEntry entry = lastModifiedEntries.get(key);
+
+        final Object value;
+        if (entry != null && currentTime <= entry.expiration) {
+            value = entry.value;
+        } else {
             // We don't have the information or or it has expired
+            final AtomicLong generation = watcher != null ? getGeneration(key) : null;
+            final long generationBeforeCheck = generation != null ? generation.get() : 0;
+            final File watchableFile = watcher != null ? getWatchableFile(key) : null;
+            final boolean watched = watchableFile != null && watcher.watch(key, watchableFile);
+
+            Object newValue;
             try {
-                long lastModified = lastModifiedImpl(key, doNotThrowResourceNotFound);
-                lastModifiedMap.put(currentTime, key, lastModified);
-                return lastModified;
+                newValue = lastModifiedImpl(key, doNotThrowResourceNotFound);
             } catch (ResourceNotFoundException e) {
-                lastModifiedMap.put(currentTime, key, e);
-                throw e;
+                newValue = e;
             }
+
+            final LastModifiedEntry newEntry = new LastModifiedEntry(newValue, currentTime + (watched ? watchPollInterval : minReloadInterval));
+            lastModifiedEntries.put(key, newEntry);
+            // A change was notified in the meanwhile, so the value might be out of date
+            if (generation != null && generation.get() != generationBeforeCheck)
+                lastModifiedEntries.remove(key, newEntry);
+
+            value = newValue;
+        }
+
+        if (value instanceof ResourceNotFoundException) {
+            if (doNotThrowResourceNotFound) return -1;
+            else throw (ResourceNotFoundException) value;
         } else {
-            if (value instanceof ResourceNotFoundException) {
-                throw (ResourceNotFoundException) value;
-            } else {
-                return (Long) value;
-            }
+            return (Long) value;
         }
     }
 
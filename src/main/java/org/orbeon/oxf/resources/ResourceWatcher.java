@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources;
+
+import org.apache.log4j.Logger;
+import org.orbeon.oxf.util.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Watch the directories of the files backing resources, and notify a listener when files change.
+ *
+ * Directories are registered as resources are first checked. A single daemon thread receives the events. When events
+ * are lost by the filesystem, all the resources of the directory are reported as changed.
+ *
+ * NOTE: This requires java.nio.file, so this class must only be loaded through ResourceManagerBase, which falls back to
+ * polling if it is not available.
+ */
+class ResourceWatcher {
+
+    private static Logger logger = LoggerFactory.createLogger(ResourceWatcher.class);
+
+    interface Listener {
+        void changed(String key);
+    }
+
+    private final WatchService watchService;
+    private final Listener listener;
+
+    // Keys of the resources being watched, by directory
+    private final ConcurrentMap<Path, Set<String>> keysByDirectory = new ConcurrentHashMap<Path, Set<String>>();
+    // Keys of the resources being watched, by file
+    private final ConcurrentMap<Path, Set<String>> keysByFile = new ConcurrentHashMap<Path, Set<String>>();
+
+    ResourceWatcher(Listener listener) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                processEvents();
+            }
+        }, "Orbeon resource watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Start watching the given file for the given resource key.
+     *
+     * @param key   resource key
+     * @param file  file backing the resource
+     * @return      true if the file is watched, false if its directory can't be watched
+     */
+    boolean watch(String key, File file) {
+        final Path filePath = file.getAbsoluteFile().toPath().normalize();
+        final Path directory = filePath.getParent();
+        if (directory == null)
+            return false;
+
+        if (! keysByDirectory.containsKey(directory)) {
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException e) {
+                // E.g. directory doesn't exist yet
+                return false;
+            } catch (ClosedWatchServiceException e) {
+                return false;
+            }
+            keysByDirectory.putIfAbsent(directory, new CopyOnWriteArraySet<String>());
+        }
+
+        keysByDirectory.get(directory).add(key);
+        keysByFile.putIfAbsent(filePath, new CopyOnWriteArraySet<String>());
+        keysByFile.get(filePath).add(key);
+
+        return true;
+    }
+
+    private void processEvents() {
+        while (true) {
+            final WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            final Path directory = (Path) watchKey.watchable();
+            for (final WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, so consider that anything in the directory might have changed
+                    notifyKeys(keysByDirectory.get(directory));
+                } else {
+                    final Path filePath = directory.resolve((Path) event.context());
+                    notifyKeys(keysByFile.get(filePath));
+                }
+            }
+
+            if (! watchKey.reset()) {
+                // The directory is no longer accessible: resources must be checked again, which registers it again
+                if (logger.isDebugEnabled())
+                    logger.debug("Directory no longer watched: " + directory);
+                notifyKeys(keysByDirectory.remove(directory));
+            }
+        }
+    }
+
+    private void notifyKeys(Set<String> keys) {
+        if (keys != null)
+            for (final String key : keys)
+                listener.changed(key);
+    }
+}
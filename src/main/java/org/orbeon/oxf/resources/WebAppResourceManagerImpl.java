@@ -159,6 +159,13 @@ public class WebAppResourceManagerImpl extends ResourceManagerBase {
         }
     }
 
+    @Override
+    protected File getWatchableFile(String key) {
+        // Resources of an unexpanded WAR file don't have a real path
+        final String realPath = getRealPath(key);
+        return realPath != null ? new File(realPath) : null;
+    }
+
     public String getRealPath(String key) {
         return webAppContext.getRealPath(rootDirectory + key);
         // Need an option for this as some callers call this for non-existing files
@@ -18,11 +18,13 @@ import org.apache.http.auth.*;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.*;
+import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.client.protocol.ClientContext;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.params.ConnManagerParams;
-import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -31,18 +33,22 @@ import org.apache.http.conn.ssl.X509HostnameVerifier;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParamBean;
 import org.apache.http.params.HttpParams;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
 import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.properties.Properties;
 import org.orbeon.oxf.properties.PropertySet;
 import org.orbeon.oxf.util.Connection;
+import org.orbeon.oxf.util.LoggerFactory;
 import org.orbeon.oxf.util.StringConversions;
 
 import javax.net.ssl.SSLContext;
@@ -56,11 +62,20 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HTTPURLConnection extends URLConnection {
 
+    private static final Logger logger = LoggerFactory.createLogger(HTTPURLConnection.class);
+
     public static String STALE_CHECKING_ENABLED_PROPERTY = "oxf.http.stale-checking-enabled";
     public static String SO_TIMEOUT_PROPERTY = "oxf.http.so-timeout";
+    public static String MAX_CONNECTIONS_PER_ROUTE_PROPERTY = "oxf.http.max-connections-per-route";
+    public static String MAX_TOTAL_CONNECTIONS_PROPERTY = "oxf.http.max-total-connections";
+    public static String CONNECTION_REQUEST_TIMEOUT_PROPERTY = "oxf.http.connection-request-timeout";
+    public static String IDLE_CONNECTION_TIMEOUT_PROPERTY = "oxf.http.idle-connection-timeout";
+    public static String KEEP_ALIVE_TIMEOUT_PROPERTY = "oxf.http.keep-alive-timeout";
     public static String PROXY_HOST_PROPERTY = "oxf.http.proxy.host";
     public static String PROXY_PORT_PROPERTY = "oxf.http.proxy.port";
     public static String SSL_HOSTNAME_VERIFIER = "oxf.http.ssl.hostname-verifier";
@@ -72,18 +87,20 @@ public class HTTPURLConnection extends URLConnection {
 	public static String PROXY_NTLM_HOST_PROPERTY = "oxf.http.proxy.ntlm.host";
 	public static String PROXY_NTLM_DOMAIN_PROPERTY = "oxf.http.proxy.ntlm.domain";
 
+    // Minimum interval between two checks for idle connections
+    private static final long IDLE_CONNECTION_CHECK_INTERVAL = 5000;
+
     // Use a single shared connection manager so we can have efficient connection pooling
-    private static ClientConnectionManager connectionManager;
+    private static InstrumentedConnectionManager connectionManager;
     private static HttpParams httpParams;
+    private static DefaultConnectionKeepAliveStrategy keepAliveStrategy;
+    private static long idleConnectionTimeout;
+    private static final AtomicLong lastIdleConnectionCheck = new AtomicLong(System.currentTimeMillis());
     private static PreemptiveAuthHttpRequestInterceptor preemptiveAuthHttpRequestInterceptor = new PreemptiveAuthHttpRequestInterceptor();
     private static AuthState proxyAuthState = null;
 
     static {
         final BasicHttpParams basicHttpParams = new BasicHttpParams();
-        // Remove limit on the number of connections per host
-        ConnManagerParams.setMaxConnectionsPerRoute(basicHttpParams, new ConnPerRouteBean(Integer.MAX_VALUE));
-        // Remove limit on the number of max connections
-        ConnManagerParams.setMaxTotalConnections(basicHttpParams, Integer.MAX_VALUE);
 
         // Set parameters per as configured in the properties
         final HttpConnectionParamBean paramBean = new HttpConnectionParamBean(basicHttpParams);
@@ -91,6 +108,18 @@ public class HTTPURLConnection extends URLConnection {
         paramBean.setStaleCheckingEnabled(propertySet.getBoolean(STALE_CHECKING_ENABLED_PROPERTY, true));
         paramBean.setSoTimeout(propertySet.getInteger(SO_TIMEOUT_PROPERTY, 0));
 
+        idleConnectionTimeout = propertySet.getInteger(IDLE_CONNECTION_TIMEOUT_PROPERTY, 60000);
+
+        // Keep connections alive as long as the server says, or as configured if the server doesn't say
+        final long keepAliveTimeout = propertySet.getInteger(KEEP_ALIVE_TIMEOUT_PROPERTY, -1);
+        keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                final long duration = super.getKeepAliveDuration(response, context);
+                return duration >= 0 ? duration : keepAliveTimeout;
+            }
+        };
+
         // Create SSL context, based on a custom key store if specified
         final SSLContext sslcontext;
         try {
@@ -124,7 +153,12 @@ public class HTTPURLConnection extends URLConnection {
         final SSLSocketFactory sslSocketFactory = new SSLSocketFactory(sslcontext, hostnameVerifier);
         schemeRegistry.register(new Scheme("https", 443, sslSocketFactory));
 
-        connectionManager = new ThreadSafeClientConnManager(basicHttpParams, schemeRegistry);
+        connectionManager = new InstrumentedConnectionManager(schemeRegistry);
+        connectionManager.setDefaultMaxPerRoute(propertySet.getInteger(MAX_CONNECTIONS_PER_ROUTE_PROPERTY, 100));
+        connectionManager.setMaxTotal(propertySet.getInteger(MAX_TOTAL_CONNECTIONS_PROPERTY, 500));
+
+        // Don't wait forever for a connection when the pool is exhausted
+        HttpClientParams.setConnectionManagerTimeout(basicHttpParams, propertySet.getInteger(CONNECTION_REQUEST_TIMEOUT_PROPERTY, 30000));
 
         // Set proxy if defined in properties
         final String proxyHost = Properties.instance().getPropertySet().getString(PROXY_HOST_PROPERTY);
@@ -152,6 +186,85 @@ public class HTTPURLConnection extends URLConnection {
         httpParams = basicHttpParams;
     }
 
+    /**
+     * Connection manager keeping track of the time spent waiting for a connection from the pool.
+     */
+    private static class InstrumentedConnectionManager extends PoolingClientConnectionManager {
+
+        public final AtomicLong requestCount = new AtomicLong();
+        public final AtomicLong waitTimeMillis = new AtomicLong();
+
+        public InstrumentedConnectionManager(SchemeRegistry schemeRegistry) {
+            super(schemeRegistry);
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(final HttpRoute route, final Object state) {
+            final ClientConnectionRequest request = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) throws InterruptedException, ConnectionPoolTimeoutException {
+                    final long startTime = System.currentTimeMillis();
+                    try {
+                        return request.getConnection(timeout, tunit);
+                    } finally {
+                        final long waitTime = System.currentTimeMillis() - startTime;
+                        requestCount.incrementAndGet();
+                        waitTimeMillis.addAndGet(waitTime);
+
+                        if (logger.isDebugEnabled())
+                            logger.debug("leased connection for " + route + " after " + waitTime + " ms; pool: " + getTotalStats());
+                    }
+                }
+
+                public void abortRequest() {
+                    request.abortRequest();
+                }
+            };
+        }
+    }
+
+    // Leased, available and pending connections, and maximum number of connections, for all routes
+    public static PoolStats getConnectionPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    // Maximum number of connections per route
+    public static int getMaxConnectionsPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    // Maximum number of connections for all routes
+    public static int getMaxTotalConnections() {
+        return connectionManager.getMaxTotal();
+    }
+
+    // Maximum time to wait for a connection from the pool, 0 for no limit
+    public static long getConnectionRequestTimeoutMillis() {
+        return HttpClientParams.getConnectionManagerTimeout(httpParams);
+    }
+
+    // Number of connections requested from the pool so far
+    public static long getConnectionRequestCount() {
+        return connectionManager.requestCount.get();
+    }
+
+    // Total time spent waiting for a connection from the pool so far
+    public static long getConnectionWaitTimeMillis() {
+        return connectionManager.waitTimeMillis.get();
+    }
+
+    // Close connections which expired or have been idle for too long, at most once per check interval
+    private static void closeIdleConnectionsIfNeeded() {
+        if (idleConnectionTimeout >= 0) {
+            final long currentTime = System.currentTimeMillis();
+            final long lastCheck = lastIdleConnectionCheck.get();
+            if (currentTime - lastCheck >= IDLE_CONNECTION_CHECK_INTERVAL && lastIdleConnectionCheck.compareAndSet(lastCheck, currentTime)) {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
     private CookieStore cookieStore;
 
     private URL url;
@@ -198,8 +311,11 @@ public class HTTPURLConnection extends URLConnection {
             final String userInfo = url.getUserInfo();
             final boolean isAuthenticationRequestedWithUsername = username != null && !username.equals("");
 
+            closeIdleConnectionsIfNeeded();
+
             // Create the HTTP client and HTTP context for the client (we expect this to be fairly lightweight)
             final DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager, httpParams);
+            httpClient.setKeepAliveStrategy(keepAliveStrategy);
             final HttpContext httpContext = new BasicHttpContext();
 
             // Set cookie store, creating a new one if none was provided to us
@@ -23,6 +23,7 @@ import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.orbeon.saxon.om.*;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Instances of this class are used to annotate XForms instance nodes with MIPs and other information.
@@ -50,6 +51,19 @@ public class InstanceData {// rename to DataNodeProperties once done
     // Annotations (used only for multipart submission as of 2010-12)
     private Map<String, String> transientAnnotations;
 
+    // Generation of the MIPs of the document, on the root element only. A new generation starts whenever relevance or
+    // readonly-ness can change, which invalidates the inherited MIPs memoized below on all the nodes of the document.
+    private long mipGeneration;
+
+    // Inherited relevant and readonly of this node, memoized for the given generation
+    private long inheritedGeneration;
+    private int inheritedMIPs;
+
+    private static final AtomicLong generationCounter = new AtomicLong();
+
+    private static final int INHERITED_RELEVANT = 1;
+    private static final int INHERITED_READONLY = 2;
+
     public static void addBindNode(NodeInfo nodeInfo, BindNode bindNode) {
         final InstanceData instanceData = getOrCreateInstanceData(nodeInfo, false);
         if (instanceData != READONLY_LOCAL_INSTANCE_DATA) {
@@ -230,14 +244,8 @@ public class InstanceData {// rename to DataNodeProperties once done
     }
 
     public static boolean getInheritedRelevant(Node node) {
-        // Iterate this node and its parents. The node is non-relevant if it or any ancestor is non-relevant.
-        for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
-            final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentRelevant = (currentInstanceData == null) ? Model.DEFAULT_RELEVANT() : currentInstanceData.getLocalRelevant();
-            if (!currentRelevant)
-                return false;
-        }
-        return true;
+        // The node is non-relevant if it or any ancestor is non-relevant
+        return (getInheritedMIPs(node, getMIPGeneration(node)) & INHERITED_RELEVANT) != 0;
     }
 
     public static boolean getRequired(NodeInfo nodeInfo) {
@@ -261,14 +269,58 @@ public class InstanceData {// rename to DataNodeProperties once done
     }
 
     public static boolean getInheritedReadonly(Node node) {
-        // Iterate this node and its parents. The node is readonly if it or any ancestor is readonly.
-        for (Node currentNode = node; currentNode != null; currentNode = currentNode.getParent()) {
-            final InstanceData currentInstanceData = getLocalInstanceData(currentNode);
-            final boolean currentReadonly = (currentInstanceData == null) ? Model.DEFAULT_READONLY() : currentInstanceData.getLocalReadonly();
-            if (currentReadonly)
-                return true;
+        // The node is readonly if it or any ancestor is readonly
+        return (getInheritedMIPs(node, getMIPGeneration(node)) & INHERITED_READONLY) != 0;
+    }
+
+    // Inherited MIPs of the node, computed from the inherited MIPs of its parent. Unless generation is 0, the result is
+    // memoized on the InstanceData of each node visited, so that nodes are only computed once per generation.
+    private static int getInheritedMIPs(Node node, long generation) {
+        if (node == null)
+            return (Model.DEFAULT_RELEVANT() ? INHERITED_RELEVANT : 0) | (Model.DEFAULT_READONLY() ? INHERITED_READONLY : 0);
+
+        final InstanceData instanceData = getLocalInstanceData(node);
+        if (generation != 0 && instanceData != null && instanceData.inheritedGeneration == generation)
+            return instanceData.inheritedMIPs;
+
+        final int parentMIPs = getInheritedMIPs(node.getParent(), generation);
+        final boolean localRelevant = (instanceData == null) ? Model.DEFAULT_RELEVANT() : instanceData.getLocalRelevant();
+        final boolean localReadonly = (instanceData == null) ? Model.DEFAULT_READONLY() : instanceData.getLocalReadonly();
+
+        final int mips =
+            ((parentMIPs & INHERITED_RELEVANT) != 0 && localRelevant ? INHERITED_RELEVANT : 0) |
+            ((parentMIPs & INHERITED_READONLY) != 0 || localReadonly ? INHERITED_READONLY : 0);
+
+        if (generation != 0 && instanceData != null) {
+            instanceData.inheritedGeneration = generation;
+            instanceData.inheritedMIPs = mips;
         }
-        return false;
+        return mips;
+    }
+
+    // Current generation of the MIPs of the node's document, or 0 if inherited MIPs must not be memoized
+    private static long getMIPGeneration(Node node) {
+        final Document document = node.getDocument();
+        if (document == null || document.getRootElement() == null)
+            return 0;
+
+        final InstanceData rootInstanceData = getLocalInstanceData(document.getRootElement());
+        return (rootInstanceData == null) ? 0 : rootInstanceData.mipGeneration;
+    }
+
+    /**
+     * Start a new generation of MIPs for the document containing the node, after relevance or readonly-ness might have
+     * changed, or after nodes might have moved.
+     */
+    public static void invalidateInheritedMIPs(NodeInfo nodeInfo) {
+        if (nodeInfo instanceof VirtualNode)
+            invalidateInheritedMIPs(XFormsUtils.getNodeFromNodeInfo(nodeInfo, ""));
+    }
+
+    public static void invalidateInheritedMIPs(Node node) {
+        final Document document = node.getDocument();
+        if (document != null && document.getRootElement() != null)
+            getOrCreateInstanceData(document.getRootElement()).mipGeneration = generationCounter.incrementAndGet();
     }
 
     public static boolean getValid(NodeInfo nodeInfo) {
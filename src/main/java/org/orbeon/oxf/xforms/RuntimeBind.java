@@ -74,6 +74,14 @@ public class RuntimeBind implements XFormsObject {
             if (isSingleNodeContext)
                 binds.singleNodeContextBinds().put(staticBind.staticId(), this);
 
+            // Remember all the runtime binds of a static bind, used for incremental recalculate
+            List<RuntimeBind> runtimeBinds = binds.runtimeBindsByStaticId().get(staticBind.staticId());
+            if (runtimeBinds == null) {
+                runtimeBinds = new ArrayList<RuntimeBind>();
+                binds.runtimeBindsByStaticId().put(staticBind.staticId(), runtimeBinds);
+            }
+            runtimeBinds.add(this);
+
             // Set type on node
             // Get type namespace and local name
             typeQName = evaluateTypeQName(staticBind.namespaceMapping().mapping);
@@ -353,6 +353,7 @@ public class XFormsConstants {
     public static final QName XXFORMS_REFRESH_ITEMS_QNAME = new QName("refresh-items", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_REPEAT_INDEXES_QNAME = new QName("repeat-indexes", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_DND_QNAME = new QName("dnd", XXFORMS_NAMESPACE);
+    public static final QName XXFORMS_PAGE_SIZE_QNAME = new QName("page-size", XXFORMS_NAMESPACE);
     public static final QName XXFORMS_DEFERRED_UPDATES_QNAME = new QName("deferred-updates", XXFORMS_NAMESPACE);
 
     public static final QName XXFORMS_FORMAT_QNAME = new QName("format", XXFORMS_NAMESPACE);
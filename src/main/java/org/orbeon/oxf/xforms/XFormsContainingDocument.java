@@ -94,6 +94,8 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
 
     private SAXStore lastAjaxResponse; // last Ajax response for retry feature
 
+    private DynamicStateSummary storedDynamicStateSummary; // summary of the dynamic state as last stored, used for delta encoding
+
     private final IndentedLogger indentedLogger = getIndentedLogger("document");
 
     // Global XForms function library
@@ -289,7 +291,7 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
      * @param xformsState       XFormsState containing static and dynamic state
      * @param disableUpdates    whether to disable updates (for recreating initial document upon browser back)
      */
-    public XFormsContainingDocument(XFormsState xformsState, boolean disableUpdates) {
+    public XFormsContainingDocument(final XFormsState xformsState, boolean disableUpdates) {
         super(CONTAINING_DOCUMENT_PSEUDO_ID, CONTAINING_DOCUMENT_PSEUDO_ID, "", null, null, null);
 
         // 1. Restore the static state
@@ -297,19 +299,13 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
             final scala.Option<String> staticStateDigest = xformsState.staticStateDigest();
 
             if (staticStateDigest.isDefined()) {
-                final XFormsStaticState cachedState = XFormsStaticStateCache.instance().getDocument(staticStateDigest.get());
-                if (cachedState != null) {
-                    // Found static state in cache
-                    indentedLogger.logDebug("", "found static state by digest in cache");
-                    this.staticState = cachedState;
-                } else {
-                    // Not found static state in cache, create static state from input
-                    indentedLogger.logDebug("", "did not find static state by digest in cache");
-                    this.staticState = XFormsStaticStateImpl.restore(staticStateDigest, xformsState.staticState());
-
-                    // Store in cache
-                    XFormsStaticStateCache.instance().storeDocument(this.staticState);
-                }
+                this.staticState = XFormsStaticStateCache.instance().findOrCreateDocument(
+                    staticStateDigest.get(), false, indentedLogger, new Callable<XFormsStaticState>() {
+                        public XFormsStaticState call() {
+                            // Create static state from input
+                            return XFormsStaticStateImpl.restore(staticStateDigest, xformsState.staticState());
+                        }
+                    });
 
                 assert this.staticState.isServerStateHandling();
             } else {
@@ -412,6 +408,14 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
         return lastAjaxResponse;
     }
 
+    public DynamicStateSummary getStoredDynamicStateSummary() {
+        return storedDynamicStateSummary;
+    }
+
+    public void setStoredDynamicStateSummary(DynamicStateSummary storedDynamicStateSummary) {
+        this.storedDynamicStateSummary = storedDynamicStateSummary;
+    }
+
     public boolean isInitializing() {
         return initializing;
     }
@@ -1183,5 +1187,7 @@ public class XFormsContainingDocument extends XBLContainer implements XFormsDocu
         // the lock on the document first and will not evict us if we have the lock. This means that this will be called
         // only if no thread is dealing with this document.
         XFormsStateManager.instance().onEvictedFromCache(this);
+        // The document is going away, so results of pending submissions can't be processed anymore
+        AsynchronousSubmissionManager.cancelAsynchronousSubmissions(getUUID());
     }
 }
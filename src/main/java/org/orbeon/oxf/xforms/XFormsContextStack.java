@@ -18,6 +18,7 @@ import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.OrbeonLocationException;
 import org.orbeon.oxf.common.ValidationException;
 import org.orbeon.oxf.util.IndentedLogger;
+import org.orbeon.oxf.util.XPath;
 import org.orbeon.oxf.util.XPathCache;
 import org.orbeon.oxf.xforms.analysis.ElementAnalysis;
 import org.orbeon.oxf.xforms.analysis.VariableAnalysisTrait;
@@ -432,9 +433,8 @@ public class XFormsContextStack {
 
                         List<Item> result;
                             try {
-                                result = XPathCache.evaluateKeepItems(evaluationNodeset, evaluationPosition,
-                                        ref != null ? ref : nodeset, bindingElementNamespaceMapping, evaluationContextBinding.getInScopeVariables(), XFormsContainingDocument.getFunctionLibrary(),
-                                        functionContext, null, locationData, containingDocument.getRequestStats().getReporter());
+                                result = evaluateBinding(evaluationNodeset, evaluationPosition, ref != null ? ref : nodeset,
+                                        bindingElementNamespaceMapping, evaluationContextBinding, locationData);
                             } catch (Exception e) {
                                 if (handleNonFatal) {
                                     XFormsError.handleNonFatalXPathError(container, e);
@@ -470,9 +470,8 @@ public class XFormsContextStack {
 
                             List<Item> result;
                                 try {
-                                    result = XPathCache.evaluateKeepItems(evaluationContextBinding.getNodeset(), evaluationContextBinding.getPosition(),
-                                            ref != null ? ref : nodeset, bindingElementNamespaceMapping, evaluationContextBinding.getInScopeVariables(), XFormsContainingDocument.getFunctionLibrary(),
-                                            functionContext, null, locationData, containingDocument.getRequestStats().getReporter());
+                                    result = evaluateBinding(evaluationContextBinding.getNodeset(), evaluationContextBinding.getPosition(), ref != null ? ref : nodeset,
+                                            bindingElementNamespaceMapping, evaluationContextBinding, locationData);
                                 } catch (Exception e) {
                                     if (handleNonFatal) {
                                         XFormsError.handleNonFatalXPathError(container, e);
@@ -570,6 +569,23 @@ public class XFormsContextStack {
         }
     }
 
+    // Evaluate a binding expression, reusing the expression compiled during static analysis if there is one
+    private List<Item> evaluateBinding(List<Item> contextItems, int contextPosition, String expression, NamespaceMapping namespaceMapping,
+                                       BindingContext evaluationContextBinding, LocationData locationData) {
+
+        final XPath.CompiledExpression compiledExpression = (namespaceMapping != null)
+            ? container.getPartAnalysis().getCompiledBinding(namespaceMapping, expression)
+            : null;
+
+        if (compiledExpression != null)
+            return XPath.evaluateKeepItems(contextItems, contextPosition, compiledExpression, functionContext,
+                    evaluationContextBinding.getInScopeVariables(), containingDocument.getRequestStats().getReporter());
+        else
+            return XPathCache.evaluateKeepItems(contextItems, contextPosition, expression, namespaceMapping,
+                    evaluationContextBinding.getInScopeVariables(), XFormsContainingDocument.getFunctionLibrary(),
+                    functionContext, null, locationData, containingDocument.getRequestStats().getReporter());
+    }
+
     private void pushTemporaryContext(BindingContext parent, BindingContext base, Item contextItem) {
         this.head = new BindingContext(parent, base.model(), null, base.getNodeset(), base.getPosition(), base.elementId(),
                 false, base.getControlElement(), base.locationData(), false, contextItem, base.scope());
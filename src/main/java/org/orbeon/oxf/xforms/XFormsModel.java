@@ -917,8 +917,10 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventObserver,
         deferredActionContext.markValueChange(isCalculate);
 
         // Notify dependencies of the change
-        if (nodeInfo != null)
+        if (nodeInfo != null) {
             containingDocument.getXPathDependencies().markValueChanged(this, nodeInfo);
+            InstanceData.invalidateInheritedMIPs(nodeInfo);
+        }
     }
 
 //    public void markMipChange(NodeInfo nodeInfo) {
@@ -933,6 +935,13 @@ public class XFormsModel extends XFormsModelBase implements XFormsEventObserver,
 
         // Notify dependencies of the change
         containingDocument.getXPathDependencies().markStructuralChange(this, instance);
+
+        // Nodes might have moved, so inherited MIPs must be computed again
+        if (instance != null)
+            InstanceData.invalidateInheritedMIPs(instance.rootElement());
+        else
+            for (final XFormsInstance currentInstance : getInstances())
+                InstanceData.invalidateInheritedMIPs(currentInstance.rootElement());
     }
 
     public void startOutermostActionHandler() {
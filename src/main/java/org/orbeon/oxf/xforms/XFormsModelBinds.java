@@ -108,6 +108,7 @@ public class XFormsModelBinds extends XFormsModelBindsBase {
         topLevelBinds.clear();
         singleNodeContextBinds().clear();
         iterationsForContextNodeInfo().clear();
+        runtimeBindsByStaticId().clear();
 
         // Clear all instances that might have InstanceData
         // Only need to do this after the first rebuild
@@ -138,6 +139,10 @@ public class XFormsModelBinds extends XFormsModelBindsBase {
 
         isFirstRebuild = false;
 
+        // MIPs have been reset
+        for (final XFormsInstance instance : model.getInstances())
+            InstanceData.invalidateInheritedMIPs(instance.rootElement());
+
         if (indentedLogger.isDebugEnabled())
             indentedLogger.endHandleOperation();
     }
@@ -175,13 +180,21 @@ public class XFormsModelBinds extends XFormsModelBindsBase {
                 }
 
                 // Handle calculations
-                if (staticModel.hasCalculateBind())
-                    iterateBinds(new BindRunner() {
+                if (staticModel.hasCalculateBind()) {
+                    final BindRunner calculateRunner = new BindRunner() {
                         public void applyBind(RuntimeBind bind, int position) {
                             if (bind.staticBind.getCalculate() != null && dependencies.requireModelMIPUpdate(staticModel, bind.staticBind, Model.CALCULATE(), null))
                                 handleCalculateBind(bind, position);
                         }
-                    });
+                    };
+
+                    // Only evaluate calculate binds affected by changes, in dependency order, if possible
+                    final scala.Option<scala.collection.Seq<StaticBind>> affectedBinds = affectedCalculateBinds();
+                    if (affectedBinds.isDefined())
+                        iterateStaticBinds(affectedBinds.get(), calculateRunner);
+                    else
+                        iterateBinds(calculateRunner);
+                }
 
                 // 2. Update computed expression binds if requested
                 applyComputedExpressionBinds();
@@ -202,12 +215,19 @@ public class XFormsModelBinds extends XFormsModelBindsBase {
         model.resetAndEvaluateVariables();
 
         // Apply
-        iterateBinds(new BindRunner() {
+        final BindRunner computedExpressionRunner = new BindRunner() {
             public void applyBind(RuntimeBind bind, int position) {
                 if (bind.staticBind.hasCalculateComputedMIPs() || bind.staticBind.hasCustomMIPs()) // don't bother if not
                     handleComputedExpressionBind(bind, position);
             }
-        });
+        };
+
+        // Only evaluate binds affected by changes, including changes done by calculate binds, if possible
+        final scala.Option<scala.collection.Seq<StaticBind>> affectedBinds = affectedComputedBinds();
+        if (affectedBinds.isDefined())
+            iterateStaticBinds(affectedBinds.get(), computedExpressionRunner);
+        else
+            iterateBinds(computedExpressionRunner);
     }
 
     /**
@@ -304,6 +304,45 @@ public class XFormsProperties {
 
     private static final String LOCATION_MODE_PROPERTY = XFORMS_PROPERTY_PREFIX + "location-mode";
 
+    private static final String XPATH_ANALYSIS_PARALLELISM_PROPERTY = XFORMS_PROPERTY_PREFIX + "xpath-analysis.parallelism";
+    private static final int XPATH_ANALYSIS_PARALLELISM_DEFAULT = 1;
+
+    private static final String STATIC_STATE_CACHE_SIZE_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.size";
+    private static final int STATIC_STATE_CACHE_SIZE_DEFAULT = 50;
+    private static final String STATIC_STATE_CACHE_MAX_BYTES_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.max-bytes";
+    private static final int STATIC_STATE_CACHE_MAX_BYTES_DEFAULT = 50 * 1024 * 1024;
+    private static final String STATIC_STATE_CACHE_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.directory";
+    private static final String STATIC_STATE_CACHE_DIRECTORY_MAX_FILES_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.directory.max-files";
+    private static final int STATIC_STATE_CACHE_DIRECTORY_MAX_FILES_DEFAULT = 500;
+    private static final String STATIC_STATE_CACHE_PREWARM_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.static-state.prewarm";
+
+    private static final String SHARED_INSTANCES_CACHE_STALE_WHILE_REVALIDATE_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.shared-instances.stale-while-revalidate";
+    private static final String SHARED_INSTANCES_CACHE_MAX_WAIT_PROPERTY = XFORMS_PROPERTY_PREFIX + "cache.shared-instances.max-wait";
+    private static final int SHARED_INSTANCES_CACHE_MAX_WAIT_DEFAULT = 0;
+
+    private static final String ASYNC_SUBMISSION_MAX_THREADS_PROPERTY = XFORMS_PROPERTY_PREFIX + "submission.asynchronous.max-threads";
+    private static final int ASYNC_SUBMISSION_MAX_THREADS_DEFAULT = 20;
+    private static final String ASYNC_SUBMISSION_MAX_QUEUED_PROPERTY = XFORMS_PROPERTY_PREFIX + "submission.asynchronous.max-queued";
+    private static final int ASYNC_SUBMISSION_MAX_QUEUED_DEFAULT = 1000;
+    private static final String ASYNC_SUBMISSION_MAX_PER_DOCUMENT_PROPERTY = XFORMS_PROPERTY_PREFIX + "submission.asynchronous.max-per-document";
+    private static final int ASYNC_SUBMISSION_MAX_PER_DOCUMENT_DEFAULT = 4;
+    private static final String ASYNC_SUBMISSION_TIMEOUT_PROPERTY = XFORMS_PROPERTY_PREFIX + "submission.asynchronous.timeout";
+
+    private static final String STATE_DELTA_MAX_CHAIN_LENGTH_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.delta.max-chain-length";
+    private static final int STATE_DELTA_MAX_CHAIN_LENGTH_DEFAULT = 0;
+
+    private static final String STATE_STORE_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.store";
+    public static final String STATE_STORE_EHCACHE_VALUE = "ehcache";
+    public static final String STATE_STORE_MAPPED_VALUE = "mapped";
+
+    private static final String STATE_STORE_MAPPED_DIRECTORY_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.store.mapped.directory";
+    private static final String STATE_STORE_MAPPED_SEGMENT_SIZE_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.store.mapped.segment-size";
+    private static final int STATE_STORE_MAPPED_SEGMENT_SIZE_DEFAULT = 64 * 1024 * 1024;
+    private static final String STATE_STORE_MAPPED_MAX_SEGMENTS_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.store.mapped.max-segments";
+    private static final int STATE_STORE_MAPPED_MAX_SEGMENTS_DEFAULT = 16;
+    private static final String STATE_STORE_MAPPED_MAX_ENTRIES_PROPERTY = XFORMS_PROPERTY_PREFIX + "state.store.mapped.max-entries";
+    private static final int STATE_STORE_MAPPED_MAX_ENTRIES_DEFAULT = 100000;
+
     // == Global properties ============================================================================================
     /**
      * Return a PropertyDefinition given a property name.
@@ -409,6 +448,78 @@ public class XFormsProperties {
         return Properties.instance().getPropertySet().getBoolean(DEBUG_REQUEST_STATS_PROPERTY, false);
     }
 
+    public static int getXPathAnalysisParallelism() {
+        return Properties.instance().getPropertySet().getInteger(XPATH_ANALYSIS_PARALLELISM_PROPERTY, XPATH_ANALYSIS_PARALLELISM_DEFAULT);
+    }
+
+    public static int getStaticStateCacheSize() {
+        return Properties.instance().getPropertySet().getInteger(STATIC_STATE_CACHE_SIZE_PROPERTY, STATIC_STATE_CACHE_SIZE_DEFAULT);
+    }
+
+    public static int getStaticStateCacheMaxBytes() {
+        return Properties.instance().getPropertySet().getInteger(STATIC_STATE_CACHE_MAX_BYTES_PROPERTY, STATIC_STATE_CACHE_MAX_BYTES_DEFAULT);
+    }
+
+    public static String getStaticStateCacheDirectory() {
+        return Properties.instance().getPropertySet().getString(STATIC_STATE_CACHE_DIRECTORY_PROPERTY);
+    }
+
+    public static int getStaticStateCacheDirectoryMaxFiles() {
+        return Properties.instance().getPropertySet().getInteger(STATIC_STATE_CACHE_DIRECTORY_MAX_FILES_PROPERTY, STATIC_STATE_CACHE_DIRECTORY_MAX_FILES_DEFAULT);
+    }
+
+    public static boolean isStaticStateCachePrewarm() {
+        return Properties.instance().getPropertySet().getBoolean(STATIC_STATE_CACHE_PREWARM_PROPERTY, false);
+    }
+
+    public static boolean isSharedInstancesCacheStaleWhileRevalidate() {
+        return Properties.instance().getPropertySet().getBoolean(SHARED_INSTANCES_CACHE_STALE_WHILE_REVALIDATE_PROPERTY, false);
+    }
+
+    public static int getSharedInstancesCacheMaxWait() {
+        return Properties.instance().getPropertySet().getInteger(SHARED_INSTANCES_CACHE_MAX_WAIT_PROPERTY, SHARED_INSTANCES_CACHE_MAX_WAIT_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxThreads() {
+        return Properties.instance().getPropertySet().getInteger(ASYNC_SUBMISSION_MAX_THREADS_PROPERTY, ASYNC_SUBMISSION_MAX_THREADS_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxQueued() {
+        return Properties.instance().getPropertySet().getInteger(ASYNC_SUBMISSION_MAX_QUEUED_PROPERTY, ASYNC_SUBMISSION_MAX_QUEUED_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionMaxPerDocument() {
+        return Properties.instance().getPropertySet().getInteger(ASYNC_SUBMISSION_MAX_PER_DOCUMENT_PROPERTY, ASYNC_SUBMISSION_MAX_PER_DOCUMENT_DEFAULT);
+    }
+
+    public static int getAsynchronousSubmissionTimeout() {
+        return Properties.instance().getPropertySet().getInteger(ASYNC_SUBMISSION_TIMEOUT_PROPERTY, 0);
+    }
+
+    public static int getStateDeltaMaxChainLength() {
+        return Properties.instance().getPropertySet().getInteger(STATE_DELTA_MAX_CHAIN_LENGTH_PROPERTY, STATE_DELTA_MAX_CHAIN_LENGTH_DEFAULT);
+    }
+
+    public static String getStateStore() {
+        return Properties.instance().getPropertySet().getString(STATE_STORE_PROPERTY, STATE_STORE_EHCACHE_VALUE);
+    }
+
+    public static String getStateStoreMappedDirectory() {
+        return Properties.instance().getPropertySet().getString(STATE_STORE_MAPPED_DIRECTORY_PROPERTY);
+    }
+
+    public static int getStateStoreMappedSegmentSize() {
+        return Properties.instance().getPropertySet().getInteger(STATE_STORE_MAPPED_SEGMENT_SIZE_PROPERTY, STATE_STORE_MAPPED_SEGMENT_SIZE_DEFAULT);
+    }
+
+    public static int getStateStoreMappedMaxSegments() {
+        return Properties.instance().getPropertySet().getInteger(STATE_STORE_MAPPED_MAX_SEGMENTS_PROPERTY, STATE_STORE_MAPPED_MAX_SEGMENTS_DEFAULT);
+    }
+
+    public static int getStateStoreMappedMaxEntries() {
+        return Properties.instance().getPropertySet().getInteger(STATE_STORE_MAPPED_MAX_ENTRIES_PROPERTY, STATE_STORE_MAPPED_MAX_ENTRIES_DEFAULT);
+    }
+
     public static int getAjaxTimeout() {
         return Properties.instance().getPropertySet().getInteger(XFORMS_PROPERTY_PREFIX + DELAY_BEFORE_AJAX_TIMEOUT_PROPERTY, ((Integer) getPropertyDefinition(DELAY_BEFORE_AJAX_TIMEOUT_PROPERTY).defaultValue).intValue());
     }
@@ -102,27 +102,25 @@ public class XFormsUtils {
 
     public static String encodeBytes(byte[] bytesToEncode, boolean compress, boolean encrypt) {
         // Compress if needed
-        final byte[] gzipByteArray = compress ? XFormsCompressor.compressBytes(bytesToEncode) : null;
+        if (compress)
+            return encodeCompressedBytes(XFormsCompressor.compressBytes(bytesToEncode), encrypt);
 
         // Encrypt if needed
         if (encrypt) {
-            // Perform encryption
-            if (gzipByteArray == null) {
-                // The data was not compressed above
-                return "X1" + SecureUtils.encrypt(bytesToEncode);
-            } else {
-                // The data was compressed above
-                return "X2" + SecureUtils.encrypt(gzipByteArray);
-            }
+            // The data was not compressed above
+            return "X1" + SecureUtils.encrypt(bytesToEncode);
         } else {
-            // No encryption
-            if (gzipByteArray == null) {
-                // The data was not compressed above
-                return "X3" + Base64.encode(bytesToEncode, false);
-            } else {
-                // The data was compressed above
-                return "X4" + Base64.encode(gzipByteArray, false);
-            }
+            // The data was not compressed above
+            return "X3" + Base64.encode(bytesToEncode, false);
+        }
+    }
+
+    // Encode bytes already compressed with XFormsCompressor
+    public static String encodeCompressedBytes(byte[] gzipByteArray, boolean encrypt) {
+        if (encrypt) {
+            return "X2" + SecureUtils.encrypt(gzipByteArray);
+        } else {
+            return "X4" + Base64.encode(gzipByteArray, false);
         }
     }
 
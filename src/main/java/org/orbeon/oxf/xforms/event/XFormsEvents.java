@@ -36,6 +36,7 @@ public class XFormsEvents {
     public static final String XXFORMS_LOAD = "xxforms-load";
     public static final String XXFORMS_SETINDEX = "xxforms-setindex";
     public static final String XXFORMS_REPEAT_ACTIVATE = "xxforms-repeat-activate";
+    public static final String XXFORMS_REPEAT_PAGE = "xxforms-repeat-page";
     public static final String XXFORMS_ACTION_ERROR = "xxforms-action-error";
 
     public static final String XXFORMS_UPLOAD_START    = "xxforms-upload-start";
@@ -38,6 +38,7 @@ import org.xml.sax.SAXException;
 import javax.xml.transform.stream.StreamResult;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * This processor handles XForms initialization and produces an XHTML document which is a
@@ -181,30 +182,15 @@ abstract public class XFormsToSomething extends ProcessorImpl {
                 // In this case, we found the static state digest and more in the cache, but we must now create a new XFormsContainingDocument from this information
                 indentedLogger.logDebug("", "annotated document and static state digest obtained from cache", "digest", stage2CacheableState.staticStateDigest);
 
-                final XFormsStaticState staticState;
-                {
-                    final XFormsStaticState cachedState = XFormsStaticStateCache.instance().getDocument(stage2CacheableState.staticStateDigest);
-                    if (cachedState != null && cachedState.topLevelPart().metadata().checkBindingsIncludes()) {
-                        // Found static state in cache
-                        indentedLogger.logDebug("", "found up-to-date static state by digest in cache");
-
-                        staticState = cachedState;
-                    } else {
-                        // Not found static state in cache OR it is out of date, create static state from input
-                        // NOTE: In out of date case, could clone static state and reprocess instead?
-                        if (cachedState != null)
-                            indentedLogger.logDebug("", "found out-of-date static state by digest in cache");
-                        else
-                            indentedLogger.logDebug("", "did not find static state by digest in cache");
-
-                        final StaticStateBits staticStateBits = new StaticStateBits(pipelineContext, indentedLogger, stage2CacheableState.staticStateDigest);
-                        staticState = XFormsStaticStateImpl.createFromStaticStateBits(staticStateBits.staticStateDocument, stage2CacheableState.staticStateDigest,
-                                staticStateBits.metadata, staticStateBits.template);
-
-                        // Store in cache
-                        XFormsStaticStateCache.instance().storeDocument(staticState);
-                    }
-                }
+                final XFormsStaticState staticState = XFormsStaticStateCache.instance().findOrCreateDocument(
+                    stage2CacheableState.staticStateDigest, true, indentedLogger, new Callable<XFormsStaticState>() {
+                        public XFormsStaticState call() {
+                            // Create static state from input
+                            final StaticStateBits staticStateBits = new StaticStateBits(pipelineContext, indentedLogger, stage2CacheableState.staticStateDigest);
+                            return XFormsStaticStateImpl.createFromStaticStateBits(staticStateBits.staticStateDocument, stage2CacheableState.staticStateDigest,
+                                    staticStateBits.metadata, staticStateBits.template);
+                        }
+                    });
 
                 final XFormsURIResolver uriResolver = new XFormsURIResolver(XFormsToSomething.this, processorOutput, pipelineContext, INPUT_ANNOTATED_DOCUMENT, XMLUtils.ParserConfiguration.PLAIN);
                 containingDocument[0] = new XFormsContainingDocument(staticState, stage2CacheableState.template, uriResolver, PipelineResponse.getResponse(xmlReceiver, externalContext));
@@ -237,28 +223,14 @@ abstract public class XFormsToSomething extends ProcessorImpl {
 
         final StaticStateBits staticStateBits = new StaticStateBits(pipelineContext, indentedLogger, null);
 
-        {
-            final XFormsStaticState cachedState = XFormsStaticStateCache.instance().getDocument(staticStateBits.staticStateDigest);
-            if (cachedState != null && cachedState.topLevelPart().metadata().checkBindingsIncludes()) {
-                // Found static state in cache
-                indentedLogger.logDebug("", "found up-to-date static state by digest in cache");
-
-                staticState[0] = cachedState;
-            } else {
-                // Not found static state in cache OR it is out of date, create and initialize static state object
-                // NOTE: In out of date case, could clone static state and reprocess instead?
-                if (cachedState != null)
-                    indentedLogger.logDebug("", "found out-of-date static state by digest in cache");
-                else
-                    indentedLogger.logDebug("", "did not find static state by digest in cache");
-
-                staticState[0] = XFormsStaticStateImpl.createFromStaticStateBits(staticStateBits.staticStateDocument, staticStateBits.staticStateDigest,
-                        staticStateBits.metadata, staticStateBits.template);
-
-                // Store in cache
-                XFormsStaticStateCache.instance().storeDocument(staticState[0]);
-            }
-        }
+        staticState[0] = XFormsStaticStateCache.instance().findOrCreateDocument(
+            staticStateBits.staticStateDigest, true, indentedLogger, new Callable<XFormsStaticState>() {
+                public XFormsStaticState call() {
+                    // Create and initialize static state object
+                    return XFormsStaticStateImpl.createFromStaticStateBits(staticStateBits.staticStateDocument, staticStateBits.staticStateDigest,
+                            staticStateBits.metadata, staticStateBits.template);
+                }
+            });
 
         // Update input dependencies object
         return new Stage2CacheableState(staticStateBits.staticStateDigest, staticStateBits.template);
@@ -25,6 +25,7 @@ import org.orbeon.oxf.xforms.Loggers;
 import org.orbeon.oxf.xforms.XFormsConstants;
 import org.orbeon.oxf.xforms.XFormsContainingDocument;
 import org.orbeon.oxf.xforms.XFormsProperties;
+import org.orbeon.oxf.xforms.submission.AsynchronousSubmissionManager;
 
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -142,6 +143,8 @@ public class XFormsStateManager implements XFormsStateLifecycle {
                     indentedLogger.logDebug(LOG_TYPE, "Removing document from cache following session expiration.");
                     // NOTE: This will call onRemoved() on the document, and onRemovedFromCache() on XFormsStateManager
                     XFormsDocumentCache.instance().removeDocument(uuid);
+                    // The document is going away, so results of pending submissions can't be processed anymore
+                    AsynchronousSubmissionManager.cancelAsynchronousSubmissions(uuid);
                 }
             };
 
@@ -498,6 +501,11 @@ public class XFormsStateManager implements XFormsStateLifecycle {
 
         // Create document
         final XFormsContainingDocument document = new XFormsContainingDocument(xformsState, disableUpdates);
+
+        // Remember the current state so the next state can be stored as a delta
+        if (isServerState && ! isInitialState && XFormsProperties.getStateDeltaMaxChainLength() > 0)
+            document.setStoredDynamicStateSummary(DynamicStateSummary.apply(xformsState.dynamicState()));
+
         assert isServerState ? document.getStaticState().isServerStateHandling() : document.getStaticState().isClientStateHandling();
         return document;
     }
@@ -13,17 +13,27 @@
  */
 package org.orbeon.oxf.xforms.state;
 
-import org.orbeon.oxf.cache.*;
-import org.orbeon.oxf.util.PropertyContext;
+import org.orbeon.oxf.cache.CacheStatistics;
+import org.orbeon.oxf.common.OXFException;
+import org.orbeon.oxf.util.IndentedLogger;
 import org.orbeon.oxf.xforms.XFormsStaticState;
+import scala.Option;
 
-public class XFormsStaticStateCache {
-
-    private static final String XFORMS_DOCUMENT_CACHE_NAME = "xforms.cache.static-state";
-    private static final int XFORMS_DOCUMENT_CACHE_DEFAULT_SIZE = 50;
+import java.util.concurrent.*;
 
-    private static final Long CONSTANT_VALIDITY = 0L;
-    private static final String CONTAINING_DOCUMENT_KEY_TYPE = XFORMS_DOCUMENT_CACHE_NAME;
+/**
+ * Cache of analysed static states.
+ *
+ * Static states are kept in the StaticStateTable, which is shared with the state stores, so that a static state
+ * referenced by stored documents is not evicted.
+ *
+ * Static states being created are tracked by digest, so that concurrent requests for the same document wait for a
+ * single creation instead of each analyzing the document.
+ *
+ * When a directory is configured, static states are also persisted with StaticStateDiskStore, so that after a restart
+ * they are restored from disk instead of being created again.
+ */
+public class XFormsStaticStateCache {
 
     private static XFormsStaticStateCache instance = new XFormsStaticStateCache();
 
@@ -31,7 +41,7 @@ public class XFormsStaticStateCache {
         return instance;
     }
 
-    private final Cache cache = ObjectCache.instance(XFORMS_DOCUMENT_CACHE_NAME, XFORMS_DOCUMENT_CACHE_DEFAULT_SIZE);
+    private final ConcurrentMap<String, FutureTask<XFormsStaticState>> pendingCreations = new ConcurrentHashMap<String, FutureTask<XFormsStaticState>>();
 
     private XFormsStaticStateCache() {}
 
@@ -41,8 +51,8 @@ public class XFormsStaticStateCache {
      * @param staticState       state to store
      */
     public void storeDocument(XFormsStaticState staticState) {
-        final InternalCacheKey cacheKey = createCacheKey(staticState.digest());
-        cache.add(cacheKey, CONSTANT_VALIDITY, staticState);
+        StaticStateTable.putStaticState(staticState);
+        StaticStateDiskStore.store(staticState);
     }
 
     /**
@@ -53,12 +63,102 @@ public class XFormsStaticStateCache {
      * @return                  state or null
      */
     public XFormsStaticState getDocument(String digest) {
-        final InternalCacheKey cacheKey = createCacheKey(digest);
-        return (XFormsStaticState) cache.findValid(cacheKey, CONSTANT_VALIDITY);
+        assert digest != null;
+        return StaticStateTable.getStaticState(digest);
     }
 
-    private InternalCacheKey createCacheKey(String digest) {
+    /**
+     * Find a document in the cache. If not found, or if out of date, create it and add it to the cache.
+     *
+     * If the same document is being created by another thread, wait for it instead of creating it again.
+     *
+     * @param digest                digest used to search cache
+     * @param checkBindingsIncludes whether to check that XBL bindings and includes of a cached state are up to date
+     * @param indentedLogger        logger
+     * @param creator               creates the state if needed
+     * @return                      state
+     */
+    public XFormsStaticState findOrCreateDocument(final String digest, final boolean checkBindingsIncludes, final IndentedLogger indentedLogger,
+                                                  final Callable<XFormsStaticState> creator) {
         assert digest != null;
-        return new InternalCacheKey(CONTAINING_DOCUMENT_KEY_TYPE, digest);
+
+        final XFormsStaticState cachedState = getDocument(digest);
+        if (isUpToDate(cachedState, checkBindingsIncludes)) {
+            // Found static state in cache
+            indentedLogger.logDebug("", "found up-to-date static state by digest in cache");
+            return cachedState;
+        }
+
+        // Not found static state in cache OR it is out of date, create static state
+        // NOTE: In out of date case, could clone static state and reprocess instead?
+        if (cachedState != null)
+            indentedLogger.logDebug("", "found out-of-date static state by digest in cache");
+        else
+            indentedLogger.logDebug("", "did not find static state by digest in cache");
+
+        final boolean restoreFromDisk = cachedState == null;
+        final FutureTask<XFormsStaticState> newCreation = new FutureTask<XFormsStaticState>(new Callable<XFormsStaticState>() {
+            public XFormsStaticState call() throws Exception {
+                // Another request might have created the state since it was looked up above
+                final XFormsStaticState createdState = getDocument(digest);
+                if (isUpToDate(createdState, checkBindingsIncludes)) {
+                    indentedLogger.logDebug("", "found static state created by another request");
+                    return createdState;
+                }
+
+                // A persisted state is only used if the state is not in memory: an out of date state must be created again
+                final Option<XFormsStaticState> persistedState =
+                    restoreFromDisk ? StaticStateDiskStore.findStaticState(digest) : Option.<XFormsStaticState>empty();
+
+                final XFormsStaticState staticState = persistedState.isDefined() ? persistedState.get() : creator.call();
+
+                // Store in cache
+                storeDocument(staticState);
+                return staticState;
+            }
+        });
+
+        final FutureTask<XFormsStaticState> existingCreation = pendingCreations.putIfAbsent(digest, newCreation);
+        if (existingCreation == null) {
+            // Create in this thread
+            try {
+                newCreation.run();
+            } finally {
+                pendingCreations.remove(digest, newCreation);
+            }
+            return getCreatedState(newCreation);
+        } else {
+            // Wait for the other thread
+            indentedLogger.logDebug("", "waiting for static state being created by another request");
+            return getCreatedState(existingCreation);
+        }
+    }
+
+    private static boolean isUpToDate(XFormsStaticState staticState, boolean checkBindingsIncludes) {
+        return staticState != null && (! checkBindingsIncludes || staticState.topLevelPart().metadata().checkBindingsIncludes());
+    }
+
+    private static XFormsStaticState getCreatedState(Future<XFormsStaticState> creation) {
+        try {
+            return creation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OXFException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else
+                throw new OXFException(cause);
+        }
+    }
+
+    /**
+     * Return global hit/miss/eviction statistics for the cache.
+     *
+     * @return                  statistics
+     */
+    public CacheStatistics getStatistics() {
+        return StaticStateTable.statistics();
     }
 }
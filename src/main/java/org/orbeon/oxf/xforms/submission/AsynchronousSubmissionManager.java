@@ -24,23 +24,105 @@ import org.orbeon.oxf.xforms.XFormsContainingDocument;
 import org.orbeon.oxf.xforms.XFormsProperties;
 import org.orbeon.oxf.xforms.event.XFormsEvents;
 
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handle asynchronous submissions.
  *
- * The CompletionService is stored in the session, indexed by document UUID.
+ * The submissions of a document are stored in the session, indexed by document UUID.
+ *
+ * Submissions run on a bounded global thread pool. Each document runs at most a configured number of submissions at
+ * the same time, and queues the others.
  *
  * See http://wiki.orbeon.com/forms/doc/developer-guide/asynchronous-submissions
- * See http://java.sun.com/j2se/1.5.0/docs/api/java/util/concurrent/ExecutorCompletionService.html
  */
 public class AsynchronousSubmissionManager {
 
     private static final String ASYNC_SUBMISSIONS_SESSION_KEY_PREFIX = "oxf.xforms.state.async-submissions.";
 
+    // Interval at which to check for timed out submissions while waiting for submissions to complete
+    private static final long TIMEOUT_CHECK_INTERVAL = 1000;
+
     // Global thread pool
-    private static final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private static final ThreadPoolExecutor threadPool;
+
+    static {
+        final int maxThreads = XFormsProperties.getAsynchronousSubmissionMaxThreads();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        threadPool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(XFormsProperties.getAsynchronousSubmissionMaxQueued()),
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "orbeon-async-submission-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        // Don't keep idle threads around
+        threadPool.allowCoreThreadTimeOut(true);
+    }
+
+    // Submissions of documents with pending submissions, so that they can be cancelled when the document goes away
+    private static final ConcurrentHashMap<String, AsynchronousSubmissions> submissionsByDocument = new ConcurrentHashMap<String, AsynchronousSubmissions>();
+
+    // Statistics
+    private static final AtomicLong submittedCount = new AtomicLong();
+    private static final AtomicLong completedCount = new AtomicLong();
+    private static final AtomicLong rejectedCount = new AtomicLong();
+    private static final AtomicLong cancelledCount = new AtomicLong();
+    private static final AtomicLong runTimeMillis = new AtomicLong();
+
+    public static long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public static long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    // Submissions rejected because the queue of the thread pool was full
+    public static long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    // Submissions cancelled because they timed out or their document went away
+    public static long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    // Total time spent running submissions
+    public static long getRunTimeMillis() {
+        return runTimeMillis.get();
+    }
+
+    // Submissions waiting for a thread of the thread pool
+    public static int getQueuedCount() {
+        return threadPool.getQueue().size();
+    }
+
+    public static int getRunningCount() {
+        return threadPool.getActiveCount();
+    }
+
+    static void registerAsynchronousSubmissions(String documentUUID, AsynchronousSubmissions asynchronousSubmissions) {
+        submissionsByDocument.put(documentUUID, asynchronousSubmissions);
+    }
+
+    /**
+     * Cancel all the pending submissions of a document which is going away.
+     *
+     * @param documentUUID  UUID of the document
+     */
+    public static void cancelAsynchronousSubmissions(String documentUUID) {
+        final AsynchronousSubmissions asynchronousSubmissions = submissionsByDocument.remove(documentUUID);
+        if (asynchronousSubmissions != null)
+            asynchronousSubmissions.cancelAll();
+    }
 
     private final XFormsContainingDocument containingDocument;
 
@@ -84,14 +166,15 @@ public class AsynchronousSubmissionManager {
         }
     }
 
-    public void addAsynchronousSubmission(final Callable<SubmissionResult> callable) {
+    public void addAsynchronousSubmission(String submissionEffectiveId, final Callable<SubmissionResult> callable) {
 
         final AsynchronousSubmissions asynchronousSubmissions = getAsynchronousSubmissions(true, getSessionKey(containingDocument));
+        registerAsynchronousSubmissions(containingDocument.getUUID(), asynchronousSubmissions);
 
         // NOTE: If we want to re-enable foreground async submissions, we must:
         // - do a better detection: !(xf-submit-done/xf-submit-error listener) && replace="none"
         // - OR provide an explicit hint on xf:submission
-        asynchronousSubmissions.submit(new Callable<SubmissionResult>() {
+        asynchronousSubmissions.submit(submissionEffectiveId, new Callable<SubmissionResult>() {
 
             // Submission should not need an ExternalContext, but if it does we must provide access to a safe one
             final ExternalContext currentExternalContext = NetUtils.getExternalContext();
@@ -104,6 +187,7 @@ public class AsynchronousSubmissionManager {
                 // Make sure an ExternalContext is scoped for the callable. We use the same external context as the caller,
                 // even though that can be a dangerous. Should we use AsyncExternalContext here?
                 // Candidate for Scala withPipelineContext
+                final long startTime = System.currentTimeMillis();
                 final PipelineContext pipelineContext = new PipelineContext();
                 pipelineContext.setAttribute(PipelineContext.EXTERNAL_CONTEXT, newExternalContext);
                 boolean success = false;
@@ -114,6 +198,8 @@ public class AsynchronousSubmissionManager {
                     return result;
                 } finally {
                     pipelineContext.destroy(success);
+                    completedCount.incrementAndGet();
+                    runTimeMillis.addAndGet(System.currentTimeMillis() - startTime);
                 }
             }
         });
@@ -140,11 +226,11 @@ public class AsynchronousSubmissionManager {
             indentedLogger.startHandleOperation("", "processing all background asynchronous submissions");
             int processedCount = 0;
             try {
+                final long timeout = XFormsProperties.getAsynchronousSubmissionTimeout();
                 while (asynchronousSubmissions.getPendingCount() > 0) {
                     try {
                         // Handle next completed task
-                        final Future<SubmissionResult> future = asynchronousSubmissions.take();
-                        final SubmissionResult result = future.get();
+                        final SubmissionResult result = asynchronousSubmissions.take(timeout);
 
                         // Process response by dispatching an event to the submission
                         final XFormsModelSubmission submission = (XFormsModelSubmission) containingDocument.getObjectByEffectiveId(result.getSubmissionEffectiveId());
@@ -158,6 +244,7 @@ public class AsynchronousSubmissionManager {
                     processedCount++;
                 }
             } finally {
+                removeIfNoPendingSubmissions(asynchronousSubmissions);
                 indentedLogger.endHandleOperation("processed", Integer.toString(processedCount));
             }
         }
@@ -177,13 +264,17 @@ public class AsynchronousSubmissionManager {
             final IndentedLogger indentedLogger = containingDocument.getIndentedLogger(XFormsModelSubmission.LOGGING_CATEGORY);
             indentedLogger.startHandleOperation("", "processing completed background asynchronous submissions");
 
+            // Cancelled submissions become available as completed with an error
+            asynchronousSubmissions.cancelTimedOut(XFormsProperties.getAsynchronousSubmissionTimeout());
+
             int processedCount = 0;
             try {
-                Future<SubmissionResult> future = asynchronousSubmissions.poll();
-                while (future != null) {
+                while (true) {
                     try {
                         // Handle next completed task
-                        final SubmissionResult result = future.get();
+                        final SubmissionResult result = asynchronousSubmissions.poll();
+                        if (result == null)
+                            break;
 
                         // Process response by dispatching an event to the submission
                         final XFormsModelSubmission submission = (XFormsModelSubmission) containingDocument.getObjectByEffectiveId(result.getSubmissionEffectiveId());
@@ -194,41 +285,195 @@ public class AsynchronousSubmissionManager {
                     }
 
                     processedCount++;
-
-                    future = asynchronousSubmissions.poll();
                 }
             } finally {
+                removeIfNoPendingSubmissions(asynchronousSubmissions);
                 indentedLogger.endHandleOperation("processed", Integer.toString(processedCount),
-                        "pending", Integer.toString(asynchronousSubmissions.getPendingCount()));
+                        "pending", Integer.toString(asynchronousSubmissions.getPendingCount()),
+                        "queued", Integer.toString(getQueuedCount()),
+                        "running", Integer.toString(getRunningCount()));
             }
         }
     }
 
-    private static class AsynchronousSubmissions {
-        private final CompletionService<SubmissionResult> completionService = new ExecutorCompletionService<SubmissionResult>(threadPool);
-        private int pendingCount = 0;
+    private void removeIfNoPendingSubmissions(AsynchronousSubmissions asynchronousSubmissions) {
+        if (asynchronousSubmissions.getPendingCount() == 0)
+            submissionsByDocument.remove(containingDocument.getUUID(), asynchronousSubmissions);
+    }
+
+    /**
+     * Submissions of a document. Each submission task adds itself to the queue of completed submissions when it
+     * completes, whether it ran, failed or was cancelled.
+     */
+    static class AsynchronousSubmissions {
+
+        private final Executor executor;
+        private final BlockingQueue<SubmissionTask> completedSubmissions = new LinkedBlockingQueue<SubmissionTask>();
+
+        // Submissions not processed yet
+        private final Map<SubmissionTask, Boolean> pendingSubmissions = new ConcurrentHashMap<SubmissionTask, Boolean>();
+
+        AsynchronousSubmissions() {
+            this(threadPool, XFormsProperties.getAsynchronousSubmissionMaxPerDocument());
+        }
+
+        AsynchronousSubmissions(Executor threadPool, int maxRunning) {
+            this.executor = new DocumentExecutor(threadPool, maxRunning);
+        }
+
+        public void submit(String submissionEffectiveId, Callable<SubmissionResult> callable) {
+            final SubmissionTask task = new SubmissionTask(submissionEffectiveId, callable);
+            pendingSubmissions.put(task, Boolean.TRUE);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                pendingSubmissions.remove(task);
+                throw e;
+            }
+            submittedCount.incrementAndGet();
+        }
+
+        // Return the result of the next completed submission, or null if none
+        public SubmissionResult poll() throws InterruptedException, ExecutionException {
+            final SubmissionTask task = completedSubmissions.poll();
+            return (task != null) ? getResult(task) : null;
+        }
+
+        // Wait for the next completed submission, cancelling submissions which run for longer than the timeout
+        public SubmissionResult take(long timeout) throws InterruptedException, ExecutionException {
+            if (timeout <= 0)
+                return getResult(completedSubmissions.take());
 
-        public Future<SubmissionResult> submit(Callable<SubmissionResult> task) {
-            final Future<SubmissionResult> future = completionService.submit(task);
-            pendingCount++;
-            return future;
+            while (true) {
+                cancelTimedOut(timeout);
+                final SubmissionTask task = completedSubmissions.poll(Math.min(timeout, TIMEOUT_CHECK_INTERVAL), TimeUnit.MILLISECONDS);
+                if (task != null)
+                    return getResult(task);
+            }
+        }
+
+        private SubmissionResult getResult(SubmissionTask task) throws InterruptedException, ExecutionException {
+            pendingSubmissions.remove(task);
+            try {
+                return task.get();
+            } catch (CancellationException e) {
+                // Report the cancellation to the submission, which dispatches xforms-submit-error
+                return new SubmissionResult(task.submissionEffectiveId,
+                        new OXFException("Asynchronous submission was cancelled: " + task.submissionEffectiveId), null);
+            }
         }
 
-        public Future<SubmissionResult> poll() {
-            final Future<SubmissionResult> future = completionService.poll();
-            if (future != null)
-                pendingCount--;
-            return future;
+        public void cancelTimedOut(long timeout) {
+            if (timeout > 0) {
+                final long currentTime = System.currentTimeMillis();
+                for (final SubmissionTask task : pendingSubmissions.keySet())
+                    if (currentTime - task.submissionTime > timeout && task.cancel(true))
+                        cancelledCount.incrementAndGet();
+            }
         }
 
-        public Future<SubmissionResult> take() throws InterruptedException {
-            final Future<SubmissionResult> future = completionService.take();
-            pendingCount--;
-            return future;
+        public void cancelAll() {
+            for (final SubmissionTask task : pendingSubmissions.keySet())
+                if (task.cancel(true))
+                    cancelledCount.incrementAndGet();
         }
 
         public int getPendingCount() {
-            return pendingCount;
+            return pendingSubmissions.size();
+        }
+
+        private class SubmissionTask extends FutureTask<SubmissionResult> {
+
+            public final String submissionEffectiveId;
+            public final long submissionTime = System.currentTimeMillis();
+
+            private SubmissionTask(String submissionEffectiveId, Callable<SubmissionResult> callable) {
+                super(callable);
+                this.submissionEffectiveId = submissionEffectiveId;
+            }
+
+            @Override
+            protected void done() {
+                completedSubmissions.add(this);
+            }
+        }
+    }
+
+    /**
+     * Executor running tasks on the global thread pool, but at most a given number at the same time. Other tasks wait
+     * until a running task completes.
+     */
+    private static class DocumentExecutor implements Executor {
+
+        private final Executor threadPool;
+        private final int maxRunning;
+        private final Queue<Runnable> waiting = new LinkedList<Runnable>();
+        private int runningCount = 0;
+
+        private DocumentExecutor(Executor threadPool, int maxRunning) {
+            this.threadPool = threadPool;
+            this.maxRunning = maxRunning;
+        }
+
+        public void execute(Runnable command) {
+            synchronized (this) {
+                if (maxRunning > 0 && runningCount >= maxRunning) {
+                    waiting.add(command);
+                    return;
+                }
+                runningCount++;
+            }
+
+            try {
+                threadPool.execute(new CompletionRunnable(command));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    runningCount--;
+                }
+                rejectedCount.incrementAndGet();
+                throw e;
+            }
+        }
+
+        // Called when a task completes: hand over its slot to the next waiting task if any
+        private void runNext() {
+            while (true) {
+                final Runnable next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        runningCount--;
+                        return;
+                    }
+                }
+
+                try {
+                    threadPool.execute(new CompletionRunnable(next));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    rejectedCount.incrementAndGet();
+                    // Cancelling a submission task completes it, and processing reports it as cancelled
+                    if (next instanceof Future)
+                        ((Future<?>) next).cancel(false);
+                }
+            }
+        }
+
+        private class CompletionRunnable implements Runnable {
+
+            private final Runnable command;
+
+            private CompletionRunnable(Runnable command) {
+                this.command = command;
+            }
+
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    runNext();
+                }
+            }
         }
     }
 }
@@ -85,7 +85,7 @@ public abstract class BaseSubmission implements Submission {
         if (p2.isAsynchronous) {
 
             // Tell XFCD that we have one more async submission
-            containingDocument.getAsynchronousSubmissionManager(true).addAsynchronousSubmission(callable);
+            containingDocument.getAsynchronousSubmissionManager(true).addAsynchronousSubmission(submission.getEffectiveId(), callable);
 
             // Tell caller he doesn't need to do anything
             return null;
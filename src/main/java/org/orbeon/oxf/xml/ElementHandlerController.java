@@ -14,6 +14,7 @@
 package org.orbeon.oxf.xml;
 
 import org.dom4j.Element;
+import org.orbeon.oxf.common.OXFException;
 import org.orbeon.oxf.common.OrbeonLocationException;
 import org.orbeon.oxf.xml.dom4j.LocationData;
 import org.xml.sax.Attributes;
@@ -21,7 +22,9 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
 
+import java.lang.reflect.Constructor;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is the controller for the handlers system.
@@ -33,15 +36,16 @@ import java.util.*;
  * o calls handlers when needed
  * o handles repeated content
  *
- * TODO: Should use pools of handlers to reduce memory consumption?
+ * Handlers keep state about the element they handle, so a new handler is created for each element handled.
  */
 public class ElementHandlerController implements ElementHandlerContext, XMLReceiver {
 
     private Object elementHandlerContext;
     private DeferredXMLReceiver output;
 
-    private final Map<String, List<HandlerMatcher>> handlerMatchers = new HashMap<String, List<HandlerMatcher>>();
-    private final Map<String, String> uriHandlers = new HashMap<String, String>();
+    // Matchers by URI and local name, and handlers matching on URI only
+    private final Map<String, Map<String, List<HandlerMatcher>>> handlerMatchers = new HashMap<String, Map<String, List<HandlerMatcher>>>();
+    private final Map<String, HandlerFactory> uriHandlers = new HashMap<String, HandlerFactory>();
 
     private final Stack<HandlerInfo> handlerInfos = new Stack<HandlerInfo>();
     private HandlerInfo currentHandlerInfo;
@@ -53,8 +57,8 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
 
     private int level = 0;
 
-    // Class.forName is expensive, so we cache mappings
-    private static Map<String, Class<ElementHandler>> classNameToHandlerClass = new HashMap<String, Class<ElementHandler>>();
+    // Class.forName is expensive, so we cache factories, which are shared by all controllers
+    private static final Map<String, HandlerFactory> classNameToHandlerFactory = new ConcurrentHashMap<String, HandlerFactory>();
 
     /**
      * Register a handler that matches on a URI only.
@@ -87,18 +91,35 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
      * @param matcher               matcher on attributes, or null
      */
     public void registerHandler(String handlerClassName, String uri, String localname, Matcher matcher) {
+        registerHandler(getHandlerFactoryByClassName(handlerClassName), uri, localname, matcher);
+    }
+
+    /**
+     * Register a handler factory. The handler can match on a URI + localname + custom matcher, URI + localname, or on
+     * URI only in that order.
+     *
+     * @param handlerFactory        factory creating the handler
+     * @param uri                   URI of the element that triggers the handler
+     * @param localname             local name of the element that triggers the handler, or null if match on URI only
+     * @param matcher               matcher on attributes, or null
+     */
+    public void registerHandler(HandlerFactory handlerFactory, String uri, String localname, Matcher matcher) {
         if (localname != null) {
             // Match on URI + localname and optionally custom matcher
-            final String key = XMLUtils.buildExplodedQName(uri, localname);
-            List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(key);
+            Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+            if (localnameMatchers == null) {
+                localnameMatchers = new HashMap<String, List<HandlerMatcher>>();
+                this.handlerMatchers.put(uri, localnameMatchers);
+            }
+            List<HandlerMatcher> handlerMatchers = localnameMatchers.get(localname);
             if (handlerMatchers == null) {
                 handlerMatchers = new ArrayList<HandlerMatcher>();
-                this.handlerMatchers.put(key, handlerMatchers);
+                localnameMatchers.put(localname, handlerMatchers);
             }
-            handlerMatchers.add(new HandlerMatcher(handlerClassName, matcher != null ? matcher : ALL_MATCHER));
+            handlerMatchers.add(new HandlerMatcher(handlerFactory, matcher != null ? matcher : ALL_MATCHER));
         } else {
             // Match on URI only
-            uriHandlers.put(uri, handlerClassName);
+            uriHandlers.put(uri, handlerFactory);
         }
     }
 
@@ -149,9 +170,7 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
                 // Just ignore content
             } else {
                 // Look for a new handler
-                final String explodedQName = XMLUtils.buildExplodedQName(uri, localname);
-
-                final HandlerInfo handlerInfo = getHandler(uri, explodedQName, attributes);
+                final HandlerInfo handlerInfo = getHandler(uri, localname, attributes);
 
                 if (handlerInfo != null) {
                     // New handler found
@@ -513,69 +532,68 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
      * @return          handler if found
      */
     public ElementHandler getHandler(Element element) {
-        final HandlerInfo handlerInfo = 
-        getHandler(element.getNamespaceURI(),
-                XMLUtils.buildExplodedQName(element.getNamespaceURI(), element.getName()),
-                XMLUtils.getSAXAttributes(element));
+        final HandlerInfo handlerInfo =
+            getHandler(element.getNamespaceURI(), element.getName(), XMLUtils.getSAXAttributes(element));
         
         return (handlerInfo != null) ? handlerInfo.elementHandler : null;
     }
 
-    private HandlerInfo getHandler(String uri, String explodedQName, Attributes attributes) {
+    private HandlerInfo getHandler(String uri, String localname, Attributes attributes) {
+
         // 1: Try full matchers
-        final List<HandlerMatcher> handlerMatchers = this.handlerMatchers.get(explodedQName);
+        final Map<String, List<HandlerMatcher>> localnameMatchers = this.handlerMatchers.get(uri);
+        final List<HandlerMatcher> handlerMatchers = (localnameMatchers != null) ? localnameMatchers.get(localname) : null;
         if (handlerMatchers != null) {
             // Try matchers in order
-            for (HandlerMatcher handlerMatcher: handlerMatchers) {
+            for (final HandlerMatcher handlerMatcher: handlerMatchers) {
                 // Run matcher
                 final Object matched = handlerMatcher.matcher.match(attributes, elementHandlerContext);
                 if (matched != null) {
-                    final ElementHandler elementHandler = getHandlerByClassName(handlerMatcher.handlerClassName);
-                    return new HandlerInfo(level, explodedQName, elementHandler, attributes, matched, this.locator);
+                    final ElementHandler elementHandler = createHandler(handlerMatcher.handlerFactory);
+                    return new HandlerInfo(level, elementHandler, attributes, matched, this.locator);
                 }
             }
         }
 
         // 2: Try URI-based handler
-        final String uriHandlerClassName = uriHandlers.get(uri);
-        if (uriHandlerClassName != null) {
-            final ElementHandler elementHandler = getHandlerByClassName(uriHandlerClassName);
-            return new HandlerInfo(level, explodedQName, elementHandler, attributes, null, this.locator);
+        final HandlerFactory uriHandlerFactory = uriHandlers.get(uri);
+        if (uriHandlerFactory != null) {
+            final ElementHandler elementHandler = createHandler(uriHandlerFactory);
+            return new HandlerInfo(level, elementHandler, attributes, null, this.locator);
         } else {
             return null;
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private ElementHandler getHandlerByClassName(String handlerClassName) {
-        Class<ElementHandler> handlerClass = classNameToHandlerClass.get(handlerClassName);
-        if (handlerClass == null) {
-            try {
-                handlerClass = (Class<ElementHandler>) Class.forName(handlerClassName);
-                classNameToHandlerClass.put(handlerClassName, handlerClass);
-            } catch (ClassNotFoundException e) {
-                throw OrbeonLocationException.wrapException(e, new LocationData(locator));
-            }
-        }
+    private ElementHandler createHandler(HandlerFactory handlerFactory) {
         try {
-            return handlerClass.newInstance();
+            return handlerFactory.create();
         } catch (Exception e) {
             throw OrbeonLocationException.wrapException(e, new LocationData(locator));
         }
     }
 
+    private static HandlerFactory getHandlerFactoryByClassName(String handlerClassName) {
+        final HandlerFactory existingFactory = classNameToHandlerFactory.get(handlerClassName);
+        if (existingFactory != null)
+            return existingFactory;
+
+        // Concurrent callers might create the same factory, which is harmless
+        final HandlerFactory newFactory = new ClassHandlerFactory(handlerClassName);
+        classNameToHandlerFactory.put(handlerClassName, newFactory);
+        return newFactory;
+    }
+
     private static class HandlerInfo {
         public final int level;
-        public final String explodedQName;
         public final ElementHandler elementHandler;
         public final Attributes attributes;
         public final Object matched;
 
         public final SAXStore saxStore;
         
-        public HandlerInfo(int level, String explodedQName, ElementHandler elementHandler, Attributes attributes, Object matched, Locator locator) {
+        public HandlerInfo(int level, ElementHandler elementHandler, Attributes attributes, Object matched, Locator locator) {
             this.level = level;
-            this.explodedQName = explodedQName;
             this.elementHandler = elementHandler;
             this.attributes = elementHandler.isRepeating() ? new AttributesImpl(attributes) : null; // NOTE: could keep attributes if needed
             this.matched = matched;
@@ -592,6 +610,32 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
         public abstract Object match(Attributes attributes, Object handlerContext);
     }
 
+    /**
+     * Create a new handler for each element handled.
+     */
+    public static abstract class HandlerFactory {
+        public abstract ElementHandler create() throws Exception;
+    }
+
+    // Factory calling the no-arg constructor of a handler class, which is looked up once
+    private static class ClassHandlerFactory extends HandlerFactory {
+        private final Constructor<? extends ElementHandler> constructor;
+
+        private ClassHandlerFactory(String handlerClassName) {
+            try {
+                this.constructor = Class.forName(handlerClassName).asSubclass(ElementHandler.class).getDeclaredConstructor();
+                this.constructor.setAccessible(true);
+            } catch (Exception e) {
+                throw new OXFException(e);
+            }
+        }
+
+        @Override
+        public ElementHandler create() throws Exception {
+            return constructor.newInstance();
+        }
+    }
+
     private final Matcher ALL_MATCHER = new Matcher() {
         @Override
         public Object match(Attributes attributes, Object handlerContext) {
@@ -601,11 +645,11 @@ public class ElementHandlerController implements ElementHandlerContext, XMLRecei
     };
 
     private static class HandlerMatcher {
-        public String handlerClassName;
-        public Matcher matcher;
+        public final HandlerFactory handlerFactory;
+        public final Matcher matcher;
 
-        private HandlerMatcher(String handlerClassName, Matcher matcher) {
-            this.handlerClassName = handlerClassName;
+        private HandlerMatcher(HandlerFactory handlerFactory, Matcher matcher) {
+            this.handlerFactory = handlerFactory;
             this.matcher = matcher;
         }
     }
@@ -27,8 +27,10 @@ import javax.xml.transform.stream.StreamResult;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * SAXStore keeps a compact representation of SAX events sent to the ContentHandler interface.
@@ -801,4 +803,170 @@ public class SAXStore extends ForwardingXMLReceiver implements Externalizable {
             }
         }
     }
+
+    /**
+     * Write the store in a compact form, without going through Java serialization.
+     *
+     * Counts and characters are written as variable-length integers, so that ASCII text takes one byte per character.
+     * Strings such as element and attribute names are written once and then referred to by index.
+     */
+    public void writeCompact(DataOutput out) throws IOException {
+
+        final Map<String, Integer> stringTable = new HashMap<String, Integer>();
+
+        writeVarInt(out, eventBufferPosition);
+        out.write(eventBuffer, 0, eventBufferPosition);
+
+        writeVarInt(out, charBufferPosition);
+        for (int i = 0; i < charBufferPosition; i++)
+            writeVarInt(out, charBuffer[i]);
+
+        writeVarInts(out, intBuffer, intBufferPosition);
+        writeVarInts(out, lineBuffer, lineBufferPosition);
+
+        writeVarInt(out, systemIdBufferPosition);
+        for (int i = 0; i < systemIdBufferPosition; i++)
+            writeTableString(out, stringTable, systemIdBuffer[i]);
+
+        writeVarInts(out, attributeCountBuffer, attributeCountBufferPosition);
+
+        writeVarInt(out, StringBuilder.size());
+        for (final String s : StringBuilder)
+            writeTableString(out, stringTable, s);
+
+        out.writeBoolean(hasDocumentLocator);
+        writeTableString(out, stringTable, publicId);
+
+        if (marks == null || marks.isEmpty()) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, marks.size());
+            for (final Mark mark : marks) {
+                writeTableString(out, stringTable, mark.id);
+                writeVarInt(out, mark.eventBufferPosition);
+                writeVarInt(out, mark.charBufferPosition);
+                writeVarInt(out, mark.intBufferPosition);
+                writeVarInt(out, mark.lineBufferPosition);
+                writeVarInt(out, mark.systemIdBufferPosition);
+                writeVarInt(out, mark.attributeCountBufferPosition);
+                writeVarInt(out, mark.StringBuilderPosition);
+            }
+        }
+    }
+
+    /**
+     * Read the store from the form written by writeCompact(). This must be called on an empty store.
+     */
+    public void readCompact(DataInput in) throws IOException {
+
+        final List<String> stringTable = new ArrayList<String>();
+
+        eventBufferPosition = readVarInt(in);
+        eventBuffer = new byte[eventBufferPosition];
+        in.readFully(eventBuffer);
+
+        charBufferPosition = readVarInt(in);
+        charBuffer = new char[charBufferPosition];
+        for (int i = 0; i < charBufferPosition; i++)
+            charBuffer[i] = (char) readVarInt(in);
+
+        intBufferPosition = readVarInt(in);
+        intBuffer = readVarInts(in, intBufferPosition);
+
+        lineBufferPosition = readVarInt(in);
+        lineBuffer = readVarInts(in, lineBufferPosition);
+
+        systemIdBufferPosition = readVarInt(in);
+        systemIdBuffer = new String[systemIdBufferPosition];
+        for (int i = 0; i < systemIdBufferPosition; i++)
+            systemIdBuffer[i] = readTableString(in, stringTable);
+
+        attributeCountBufferPosition = readVarInt(in);
+        attributeCountBuffer = readVarInts(in, attributeCountBufferPosition);
+        for (int i = 0; i < attributeCountBufferPosition; i++)
+            attributeCount += attributeCountBuffer[i];
+
+        final int StringBuilderSize = readVarInt(in);
+        for (int i = 0; i < StringBuilderSize; i++)
+            StringBuilder.add(readTableString(in, stringTable));
+
+        hasDocumentLocator = in.readBoolean();
+        publicId = readTableString(in, stringTable);
+
+        final int marksCount = readVarInt(in);
+        for (int i = 0; i < marksCount; i++) {
+            final String id = readTableString(in, stringTable);
+            final int[] values = readVarInts(in, 7);
+            new Mark(values, id);
+        }
+    }
+
+    // Unsigned LEB128 encoding: small non-negative values take fewer bytes, negative values take 5 bytes
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return result;
+        }
+    }
+
+    private static void writeVarInts(DataOutput out, int[] values, int length) throws IOException {
+        writeVarInt(out, length);
+        for (int i = 0; i < length; i++)
+            writeVarInt(out, values[i]);
+    }
+
+    private static int[] readVarInts(DataInput in, int length) throws IOException {
+        final int[] values = new int[length];
+        for (int i = 0; i < length; i++)
+            values[i] = readVarInt(in);
+        return values;
+    }
+
+    // String reference: 0 for null, 1 for a new string followed by its characters, or 2 + the index of a string already
+    // written
+    private static void writeTableString(DataOutput out, Map<String, Integer> stringTable, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+        } else {
+            final Integer index = stringTable.get(s);
+            if (index != null) {
+                writeVarInt(out, index + 2);
+            } else {
+                stringTable.put(s, stringTable.size());
+                writeVarInt(out, 1);
+                final int length = s.length();
+                writeVarInt(out, length);
+                for (int i = 0; i < length; i++)
+                    writeVarInt(out, s.charAt(i));
+            }
+        }
+    }
+
+    private static String readTableString(DataInput in, List<String> stringTable) throws IOException {
+        final int code = readVarInt(in);
+        if (code == 0) {
+            return null;
+        } else if (code == 1) {
+            final int length = readVarInt(in);
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++)
+                chars[i] = (char) readVarInt(in);
+            final String s = new String(chars);
+            stringTable.add(s);
+            return s;
+        } else {
+            return stringTable.get(code - 2);
+        }
+    }
 }
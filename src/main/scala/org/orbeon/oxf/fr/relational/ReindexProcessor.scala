@@ -18,139 +18,248 @@ import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.xml.{NamespaceMapping, XMLConstants, TransformerUtils}
 import javax.xml.transform.stream.StreamSource
 import org.orbeon.oxf.util._
+import org.orbeon.oxf.util.ScalaUtils._
+import org.orbeon.oxf.externalcontext.ExternalContextOps._
 import org.orbeon.scaxon.XML._
 import org.orbeon.oxf.fr.FormRunner
 import org.orbeon.saxon.om.NodeInfo
 import org.orbeon.oxf.fr.relational.Index.IndexedControl
 import org.orbeon.oxf.xforms.XFormsConstants
 import collection.JavaConverters._
+import collection.mutable
 import org.orbeon.scaxon.XML
+import java.io.StringReader
+import java.sql.{Connection, PreparedStatement, Clob, Timestamp}
+import java.util.concurrent.{Callable, Future, Executors}
 
 /**
  * Processor repopulating the relational indices. This doesn't create the tables, but deletes their content
- * and repopulates them from scratch.
+ * and repopulates them, either entirely or for one form.
  *
  * - mapped to `fr:persistence-reindex` in `processors.xml`
  * - mapped to `/fr/service/[provider]/reindex` in `fr/page-flow.xml`
+ *
+ * Request parameters:
+ *
+ * - `app` and `form`: only reindex the documents of that form, leaving the index of other forms untouched
+ * - `resume=true`: don't clear the index, and only index documents which are not in the index yet, to complete a run
+ *   which didn't finish; the index of documents saved since the interrupted run is replaced
+ *
+ * Documents are read on the thread running the processor, which also writes the index, while XML parsing and value
+ * extraction run on a pool of workers. Inserts are sent in JDBC batches, and the transaction is committed every
+ * `CommitInterval` documents. As a document's row in `orbeon_i_current` is committed together with its values in
+ * `orbeon_i_control_text`, a document in `orbeon_i_current` is fully indexed, which is what makes resuming possible.
+ * If the reindex fails, the current batch is rolled back.
  */
 class ReindexProcessor extends ProcessorImpl {
 
+    import ReindexProcessor._
+
     private implicit val Logger = new IndentedLogger(LoggerFactory.createLogger(classOf[ReindexProcessor]), "")
 
-    private val ReindexPathRegex    = """/fr/service/([^/]+)/reindex""".r
-    private val XPathPredicateRegex = """\[[^\]]*\]""".r
-
-    // Prefixes used in Form Builder; prefixes in other documents, for now, are not supported
-    val FbNamespaceMapping = new NamespaceMapping(Map(
-        "xh" → XMLConstants.XHTML_NAMESPACE_URI,
-        "xf" → XFormsConstants.XFORMS_NAMESPACE_URI
-    ).asJava)
+    private val ReindexPathRegex = """/fr/service/([^/]+)/reindex""".r
 
     override def start(pipelineContext: PipelineContext) {
 
-        val ReindexPathRegex(provider) = NetUtils.getExternalContext.getRequest.getRequestPath
+        val request = NetUtils.getExternalContext.getRequest
+        val ReindexPathRegex(provider) = request.getRequestPath
 
-        RelationalUtils.withConnection { connection ⇒
+        val appForm = for (app ← request.getFirstParamAsString("app"); form ← request.getFirstParamAsString("form")) yield (app, form)
+        val resume  = request.getFirstParamAsString("resume") exists (_ == "true")
+
+        // Condition on the app/form, if any, with the given column prefix, and setting its parameters
+        def appFormCondition(prefix: String) = appForm map (_ ⇒ s"${prefix}app = ? and ${prefix}form = ?")
+        def setAppFormParameters(statement: PreparedStatement): Unit = appForm foreach { case (app, form) ⇒
+            statement.setString(1, app)
+            statement.setString(2, form)
+        }
+
+        def reindex(connection: Connection): Unit = {
 
             // Clean index
-            connection.prepareStatement("delete from orbeon_i_current").execute()
-            connection.prepareStatement("delete from orbeon_i_control_text").execute()
+            if (! resume) {
+                val where = appFormCondition("") map ("where " + _) getOrElse ""
+                for (table ← Seq("orbeon_i_current", "orbeon_i_control_text")) {
+                    val delete = connection.prepareStatement(s"delete from $table $where")
+                    setAppFormParameters(delete)
+                    delete.execute()
+                }
+                connection.commit()
+            }
 
             // Get all the row from orbeon_form_data that are "latest" and not deleted
-            val currentData = connection.prepareStatement(
-                """select   id, created, last_modified, username, app, form, document_id, xml
-                  |  from   orbeon_form_data
-                  | where   (app, form, document_id, last_modified) in
+            // - when resuming, skip documents which are already indexed
+            val currentDataStatement = connection.prepareStatement(
+                s"""select   d.id, d.created, d.last_modified, d.username, d.app, d.form, d.document_id, d.xml
+                  |  from   orbeon_form_data d
+                  | where   (d.app, d.form, d.document_id, d.last_modified) in
                   |         (
                   |               select app, form, document_id, max(last_modified) last_modified
                   |                 from orbeon_form_data
                   |             group by app, form, document_id
                   |         )
-                  |   and   deleted = 'N'
-                  |order by app, form
-                  |""".stripMargin).executeQuery()
-
-            // Info on indexed controls for a given app/form
-            case class FormIndexedControls(app: String, form: String, indexedControls: Seq[IndexedControl])
-
-            // Go through each data document
-            // - we keep track of the indexed controls along in the iteration, and thus avoid recomputing them
-            var prevIndexedControls: Option[FormIndexedControls] = None
-            while (currentData.next()) {
-                val app  = currentData.getString("app")
-                val form = currentData.getString("form")
-
-                // Get indexed controls for current app/form
-                val indexedControls: Seq[IndexedControl] = prevIndexedControls match {
-                    case Some(FormIndexedControls(`app`, `form`, indexedControls)) ⇒
-                        // Use indexed controls from previous iteration
-                        indexedControls
-                    case _ ⇒
-                        // Compute indexed controls reading the form definition
-                        FormRunner.readPublishedForm(app, form) match {
-                            case None ⇒
-                                Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
-                                Seq()
-                            case Some(formDefinition) ⇒
-                                Index.findIndexedControls(formDefinition)
-                        }
+                  |   and   d.deleted = 'N'
+                  |   ${appFormCondition("d.") map ("and " + _) getOrElse ""}
+                  |   ${if (resume) "and d.id not in (select data_id from orbeon_i_current)" else ""}
+                  |order by d.app, d.form
+                  |""".stripMargin)
+            setAppFormParameters(currentDataStatement)
+            val currentData = currentDataStatement.executeQuery()
+
+            // Statements are prepared once and reused for all the batches
+            val insertCurrent = connection.prepareStatement(
+                """insert into orbeon_i_current
+                  |           (data_id, document_id, created, last_modified, username, app, form)
+                  |    values (?, ?, ?, ?, ?, ?, ?)
+                """.stripMargin)
+            val insertControlText = connection.prepareStatement(
+                """insert into orbeon_i_control_text
+                  |           (data_id, username, app, form, control, pos, val)
+                  |    values (?, ?, ?, ?, ?, ?, ?)
+                """.stripMargin)
+
+            // When resuming, documents saved since the interrupted run can have an outdated index, which is replaced
+            val deleteControlText = connection.prepareStatement(
+                """delete from orbeon_i_control_text
+                  |      where data_id in (select data_id from orbeon_i_current where document_id = ?)
+                """.stripMargin)
+            val deleteCurrent = connection.prepareStatement(
+                "delete from orbeon_i_current where document_id = ?")
+
+            // Deletes run first, as they are for documents inserted in the same batch
+            def executeBatches(): Unit = {
+                if (resume) {
+                    deleteControlText.executeBatch()
+                    deleteCurrent.executeBatch()
                 }
+                insertCurrent.executeBatch()
+                insertControlText.executeBatch()
+            }
 
-                // Insert into the "current data" table
-                val insert = connection.prepareStatement(
-                    """insert into orbeon_i_current
-                      |           (data_id, document_id, created, last_modified, username, app, form)
-                      |    values (?, ?, ?, ?, ?, ?, ?)
-                    """.stripMargin)
-                insert.setInt      (1, currentData.getInt      ("id"))
-                insert.setString   (2, currentData.getString   ("document_id"))
-                insert.setTimestamp(3, currentData.getTimestamp("created"))
-                insert.setTimestamp(4, currentData.getTimestamp("last_modified"))
-                insert.setString   (5, currentData.getString   ("username"))
-                insert.setString   (6, app)
-                insert.setString   (7, form)
-                insert.execute()
-
-                // Read data (XML)
-                // - using lazy, as we might not need the data, if there are no controls to index
-                // - return root element, as XPath this is the node XPath expressions are relative to
-                lazy val dataRootElement: NodeInfo = {
-                    val dataClob = currentData.getClob("xml")
-                    val source = new StreamSource(dataClob.getCharacterStream)
-                    val document = TransformerUtils.readTinyTree(XPathCache.getGlobalConfiguration, source, false)
-                    document \\ * head
+            val workers = Executors.newFixedThreadPool(WorkerCount)
+            try {
+                // Documents being processed by workers, in the order they were read
+                val pending = mutable.Queue[Future[IndexedDocument]]()
+
+                val startTime = System.currentTimeMillis
+                var indexedCount = 0
+                var uncommittedCount = 0
+
+                def reportProgress(): Unit = {
+                    val elapsed = System.currentTimeMillis - startTime
+                    Logger.logInfo("", "reindex progress",
+                        "documents", indexedCount.toString,
+                        "elapsed (ms)", elapsed.toString,
+                        "documents per second", (if (elapsed > 0) indexedCount * 1000L / elapsed else indexedCount).toString)
                 }
 
-                // Extract and insert value for each indexed control
-                for (control ← indexedControls) {
-
-                    // Remove predicates from XPath expression; applies to:
-                    // - the [1] added by `Index.findIndexedControls` for the summary page;
-                    //   those will go away when the search will return multiple values per control
-                    // - in the FB form, the predicate for the language
-                    val xpath = XPathPredicateRegex.replaceAllIn(control.xpath, "")
-
-                    val values = XML.eval(dataRootElement, xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
-                    for ((value, position) ← values.zipWithIndex) {
-                        val insert = connection.prepareStatement(
-                            """insert into orbeon_i_control_text
-                              |           (data_id, username, app, form, control, pos, val)
-                              |    values (?, ?, ?, ?, ?, ?, ?)
-                            """.stripMargin)
-                        insert.setInt      (1, currentData.getInt("id"))
-                        insert.setString   (2, currentData.getString("username"))
-                        insert.setString   (3, app)
-                        insert.setString   (4, form)
-                        insert.setString   (5, control.name)
-                        insert.setInt      (6, position + 1)
-                        insert.setString   (7, truncateValue(provider, value.getStringValue))
-                        insert.execute()
+                // Add the oldest pending document to the batches, committing when enough documents are batched
+                def writeNextPending(): Unit = {
+                    val document = pending.dequeue().get
+                    val row = document.row
+
+                    if (resume) {
+                        deleteControlText.setString(1, row.documentId)
+                        deleteControlText.addBatch()
+                        deleteCurrent.setString(1, row.documentId)
+                        deleteCurrent.addBatch()
+                    }
+
+                    insertCurrent.setInt      (1, row.id)
+                    insertCurrent.setString   (2, row.documentId)
+                    insertCurrent.setTimestamp(3, row.created)
+                    insertCurrent.setTimestamp(4, row.lastModified)
+                    insertCurrent.setString   (5, row.username)
+                    insertCurrent.setString   (6, row.app)
+                    insertCurrent.setString   (7, row.form)
+                    insertCurrent.addBatch()
+
+                    for ((controlName, values) ← document.values; (value, position) ← values.zipWithIndex) {
+                        insertControlText.setInt      (1, row.id)
+                        insertControlText.setString   (2, row.username)
+                        insertControlText.setString   (3, row.app)
+                        insertControlText.setString   (4, row.form)
+                        insertControlText.setString   (5, controlName)
+                        insertControlText.setInt      (6, position + 1)
+                        insertControlText.setString   (7, truncateValue(provider, value))
+                        insertControlText.addBatch()
+                    }
+
+                    indexedCount += 1
+                    uncommittedCount += 1
+                    if (uncommittedCount == CommitInterval) {
+                        executeBatches()
+                        connection.commit()
+                        uncommittedCount = 0
+                        reportProgress()
                     }
                 }
 
-                // Pass current indexed controls to the next iteration
-                prevIndexedControls = Some(FormIndexedControls(app, form, indexedControls))
-            }
+                // Info on indexed controls for a given app/form
+                case class FormIndexedControls(app: String, form: String, indexedControls: Seq[IndexedControl])
+
+                // Go through each data document
+                // - we keep track of the indexed controls along in the iteration, and thus avoid recomputing them
+                var prevIndexedControls: Option[FormIndexedControls] = None
+                while (currentData.next()) {
+                    val app  = currentData.getString("app")
+                    val form = currentData.getString("form")
+
+                    // Get indexed controls for current app/form
+                    val indexedControls: Seq[IndexedControl] = prevIndexedControls match {
+                        case Some(FormIndexedControls(`app`, `form`, indexedControls)) ⇒
+                            // Use indexed controls from previous iteration
+                            indexedControls
+                        case _ ⇒
+                            // Compute indexed controls reading the form definition
+                            FormRunner.readPublishedForm(app, form) match {
+                                case None ⇒
+                                    Logger.logError("", s"Can't index documents for $app/$form as form definition can't be found")
+                                    Seq()
+                                case Some(formDefinition) ⇒
+                                    Index.findIndexedControls(formDefinition)
+                            }
+                    }
+
+                    val row = DataRow(
+                        id           = currentData.getInt      ("id"),
+                        documentId   = currentData.getString   ("document_id"),
+                        created      = currentData.getTimestamp("created"),
+                        lastModified = currentData.getTimestamp("last_modified"),
+                        username     = currentData.getString   ("username"),
+                        app          = app,
+                        form         = form
+                    )
+
+                    // Read data (XML) on this thread, as the result set can't be accessed concurrently
+                    // - we might not need the data, if there are no controls to index
+                    val xml = if (indexedControls.nonEmpty) Some(readClob(currentData.getClob("xml"))) else None
+
+                    // Parse data and extract values on a worker
+                    pending.enqueue(workers.submit(new Callable[IndexedDocument] {
+                        def call() = IndexedDocument(row, xml map (extractValues(_, indexedControls)) getOrElse Nil)
+                    }))
+
+                    // Limit the number of documents in memory
+                    if (pending.size >= MaxPendingDocuments)
+                        writeNextPending()
+
+                    // Pass current indexed controls to the next iteration
+                    prevIndexedControls = Some(FormIndexedControls(app, form, indexedControls))
+                }
+
+                while (pending.nonEmpty)
+                    writeNextPending()
+
+                executeBatches()
+                connection.commit()
+                reportProgress()
+            } finally
+                workers.shutdownNow()
+        }
+
+        RelationalUtils.withConnection { connection ⇒
+            RelationalUtils.withTransaction(connection)(reindex(connection))
         }
     }
 
@@ -178,3 +287,49 @@ class ReindexProcessor extends ProcessorImpl {
         }
     }
 }
+
+private object ReindexProcessor {
+
+    // Documents written to the index between two commits
+    val CommitInterval      = 500
+    // Documents read but not written to the index yet
+    val MaxPendingDocuments = 2 * CommitInterval
+    val WorkerCount         = Runtime.getRuntime.availableProcessors
+
+    private val XPathPredicateRegex = """\[[^\]]*\]""".r
+
+    // Prefixes used in Form Builder; prefixes in other documents, for now, are not supported
+    val FbNamespaceMapping = new NamespaceMapping(Map(
+        "xh" → XMLConstants.XHTML_NAMESPACE_URI,
+        "xf" → XFormsConstants.XFORMS_NAMESPACE_URI
+    ).asJava)
+
+    case class DataRow(id: Int, documentId: String, created: Timestamp, lastModified: Timestamp, username: String, app: String, form: String)
+
+    // Values of each indexed control
+    case class IndexedDocument(row: DataRow, values: Seq[(String, Seq[String])])
+
+    def readClob(clob: Clob) =
+        useAndClose(clob.getCharacterStream)(reader ⇒ NetUtils.readStreamAsString(reader))
+
+    def extractValues(xml: String, indexedControls: Seq[IndexedControl]): Seq[(String, Seq[String])] = {
+
+        // Return root element, as XPath this is the node XPath expressions are relative to
+        val dataRootElement: NodeInfo = {
+            val document = TransformerUtils.readTinyTree(XPathCache.getGlobalConfiguration, new StreamSource(new StringReader(xml)), false)
+            document \\ * head
+        }
+
+        for (control ← indexedControls) yield {
+
+            // Remove predicates from XPath expression; applies to:
+            // - the [1] added by `Index.findIndexedControls` for the summary page;
+            //   those will go away when the search will return multiple values per control
+            // - in the FB form, the predicate for the language
+            val xpath = XPathPredicateRegex.replaceAllIn(control.xpath, "")
+
+            val values = XML.eval(dataRootElement, xpath, FbNamespaceMapping).asInstanceOf[Seq[NodeInfo]]
+            control.name → (values map (_.getStringValue))
+        }
+    }
+}
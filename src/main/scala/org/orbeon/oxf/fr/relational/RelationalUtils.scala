@@ -19,18 +19,82 @@ import org.orbeon.oxf.externalcontext.ExternalContextOps._
 import javax.naming.{Context, InitialContext}
 import javax.sql.DataSource
 import org.orbeon.oxf.util.ScalaUtils._
-import org.orbeon.oxf.util.NetUtils
+import org.orbeon.oxf.util.{LoggerFactory, IndentedLogger, NetUtils}
+import scala.collection.mutable
+import scala.util.DynamicVariable
+import scala.util.control.NonFatal
 
 object RelationalUtils {
 
+    private val Logger = new IndentedLogger(LoggerFactory.createLogger(RelationalUtils.getClass), "")
+
+    // Statements prepared on a connection while `withConnection` runs, which are closed with the connection and counted
+    // for metrics
+    //
+    // NOTE: Statements are not reused, as the connection returns to the pool when `withConnection` completes. Drivers and
+    // pools which cache prepared statements per physical connection do so when they are configured to.
+    private class ConnectionScope(val datasource: String, val connection: Connection) {
+        val statements = mutable.ListBuffer[PreparedStatement]()
+    }
+    private val currentScope = new DynamicVariable[Option[ConnectionScope]](None)
+
+    // Connections are pooled by the data source configured in the container
     def withConnection[T](block: Connection ⇒ T): T = {
         // Get connection to the database
+        val datasource = NetUtils.getExternalContext.getRequest.getFirstHeader("orbeon-datasource").get
         val dataSource = {
-            val datasource = NetUtils.getExternalContext.getRequest.getFirstHeader("orbeon-datasource").get
             val jndiContext = new InitialContext().lookup("java:comp/env/jdbc").asInstanceOf[Context]
             jndiContext.lookup(datasource).asInstanceOf[DataSource]
         }
-        useAndClose(dataSource.getConnection)(block)
+        useAndClose(dataSource.getConnection) { connection ⇒
+            val scope = new ConnectionScope(datasource, connection)
+            try currentScope.withValue(Some(scope))(block(connection))
+            finally {
+                scope.statements foreach (_.close())
+                if (Logger.isDebugEnabled)
+                    Logger.logDebug("", "connection released",
+                        "datasource", datasource,
+                        "statements", scope.statements.size.toString)
+            }
+        }
+    }
+
+    /**
+     * Run a block in a transaction, which the block commits. If the block fails, the transaction is rolled back, and the
+     * exception thrown by the block is rethrown: a failure to roll back is only logged, so it doesn't hide the original
+     * exception. In all cases, the auto-commit mode of the connection is restored before it returns to the pool.
+     */
+    def withTransaction[T](connection: Connection)(block: ⇒ T): T = {
+
+        def logFailure(action: String)(body: ⇒ Unit) =
+            try body
+            catch { case NonFatal(t) ⇒ Logger.logError("", action + " failed", t) }
+
+        val previousAutoCommit = connection.getAutoCommit
+        connection.setAutoCommit(false)
+        val result =
+            try block
+            catch {
+                case t: Throwable ⇒
+                    logFailure("rollback")(connection.rollback())
+                    logFailure("restoring auto-commit")(connection.setAutoCommit(previousAutoCommit))
+                    throw t
+            }
+        connection.setAutoCommit(previousAutoCommit)
+        result
+    }
+
+    // Data source of the connection obtained with `withConnection`, if any
+    def currentDatasource: Option[String] = currentScope.value map (_.datasource)
+
+    /**
+     * Prepare a statement on a connection. If the connection was obtained with `withConnection`, the statement is closed
+     * and counted when the connection is released.
+     */
+    def prepareStatement(connection: Connection, sql: String): PreparedStatement = {
+        val statement = connection.prepareStatement(sql)
+        currentScope.value filter (_.connection eq connection) foreach (_.statements += statement)
+        statement
     }
 
     /**
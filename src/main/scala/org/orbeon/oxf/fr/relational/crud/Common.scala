@@ -14,14 +14,40 @@
 package org.orbeon.oxf.fr.relational.crud
 
 import java.sql.Connection
+import java.util.concurrent.ConcurrentHashMap
+import org.orbeon.oxf.properties.Properties
 import org.orbeon.oxf.util.ScalaUtils._
-import org.orbeon.oxf.fr.relational.{ForDocument, Specific, Next, Latest}
+import org.orbeon.oxf.fr.relational.{RelationalUtils, ForDocument, Specific, Next, Latest}
 
 trait Common extends RequestResponse {
 
-    def latestNonDeletedFormVersion(connection: Connection, app: String, form: String): Option[Int] = {
+    import Common._
+
+    // The cached version, if enabled, is only used when reading data, as it can be out of date
+    def latestNonDeletedFormVersion(connection: Connection, app: String, form: String, cached: Boolean): Option[Int] =
+        RelationalUtils.currentDatasource match {
+            case Some(datasource) if cached && versionCacheTTL > 0 ⇒
+                val key = (datasource, app, form)
+                val now = System.currentTimeMillis()
+                Option(LatestVersions.get(key)) filter (now - _.time < versionCacheTTL) match {
+                    case Some(entry) ⇒
+                        entry.version
+                    case None ⇒
+                        val version = readLatestNonDeletedFormVersion(connection, app, form)
+                        LatestVersions.put(key, VersionEntry(version, now))
+                        version
+                }
+            case _ ⇒
+                readLatestNonDeletedFormVersion(connection, app, form)
+        }
+
+    // Called once a form definition is committed, as this can change the latest version
+    def invalidateLatestFormVersion(datasource: String, app: String, form: String): Unit =
+        LatestVersions.remove((datasource, app, form))
+
+    private def readLatestNonDeletedFormVersion(connection: Connection, app: String, form: String): Option[Int] = {
         val maxVersion = {
-            val ps = connection.prepareStatement(
+            val ps = RelationalUtils.prepareStatement(connection,
                 """select max(form_version)
                   |  from orbeon_form_definition
                   | where (last_modified_time, app, form, form_version) in
@@ -49,11 +75,12 @@ trait Common extends RequestResponse {
      * of the form used to create a specific document. This function finds the specific form version corresponding to
      * the request.
      */
-    def requestedFormVersion(connection: Connection, req: Request): Int = {
-        def latest = latestNonDeletedFormVersion(connection, req.app, req.form)
+    def requestedFormVersion(connection: Connection, req: Request, forWrite: Boolean = false): Int = {
+        // Writes and new versions need the actual latest version, as a cached one can lead to a duplicate version
+        def latest(cached: Boolean) = latestNonDeletedFormVersion(connection, req.app, req.form, cached)
         request.version match {
-            case Latest         ⇒ latest.getOrElse(1)
-            case Next           ⇒ latest.map(_ + 1).getOrElse(1)
+            case Latest         ⇒ latest(cached = ! forWrite).getOrElse(1)
+            case Next           ⇒ latest(cached = false).map(_ + 1).getOrElse(1)
             case Specific(v)    ⇒ v
             case ForDocument(_) ⇒ ??? // NYI
         }
@@ -70,3 +97,15 @@ trait Common extends RequestResponse {
         ).flatten.mkString(", ")
 
 }
+
+private object Common {
+
+    // Latest form versions by data source, app and form, if enabled with a TTL. Every read of data for the latest
+    // version of a form needs it, so this saves most queries of summary and edit pages. Entries are removed when a form
+    // definition is stored on this server, and expire so that changes made through other servers are eventually seen.
+    case class VersionEntry(version: Option[Int], time: Long)
+    val LatestVersions = new ConcurrentHashMap[(String, String, String), VersionEntry]
+
+    def versionCacheTTL: Long =
+        Properties.instance.getPropertySet.getInteger("oxf.fr.persistence.relational.form-version-cache-ttl", 0).longValue
+}
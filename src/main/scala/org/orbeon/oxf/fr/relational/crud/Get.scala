@@ -26,7 +26,7 @@ trait Get extends RequestResponse with Common {
             val idCols = idColumns(request)
 
             val resultSet = {
-                val ps = connection.prepareStatement(
+                val ps = RelationalUtils.prepareStatement(connection,
                     s"""select
                       |    last_modified_time,
                       |    ${if (req.forAttachment) "file_content" else "t.xml xml"}
@@ -59,9 +59,12 @@ trait Get extends RequestResponse with Common {
             }
 
             if (resultSet.next()) {
-                val xml = resultSet.getClob("xml")
+                // Stream the content from the database, without materializing it
                 val response = NetUtils.getExternalContext.getResponse
-                NetUtils.copyStream(xml.getCharacterStream, response.getWriter)
+                if (req.forAttachment)
+                    NetUtils.copyStream(resultSet.getBinaryStream("file_content"), response.getOutputStream)
+                else
+                    NetUtils.copyStream(resultSet.getCharacterStream("xml"), response.getWriter)
             } else {
                 throw new HttpStatusCodeException(404)
             }
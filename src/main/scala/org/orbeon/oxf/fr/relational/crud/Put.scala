@@ -13,17 +13,19 @@
  */
 package org.orbeon.oxf.fr.relational.crud
 
-import java.io.ByteArrayOutputStream
+import java.io.{InputStream, InputStreamReader, OutputStreamWriter, File}
+import java.net.URI
 import java.sql
 import java.sql.{Timestamp, Connection}
 import javax.xml.transform.OutputKeys
 import javax.xml.transform.sax.SAXSource
 import javax.xml.transform.stream.StreamResult
+import org.orbeon.oxf.common.OXFException
 import org.orbeon.oxf.fr.relational._
 import org.orbeon.oxf.pipeline.api.PipelineContext
 import org.orbeon.oxf.processor.generator.RequestGenerator
 import org.orbeon.oxf.util.ScalaUtils._
-import org.orbeon.oxf.util.{StringBuilderWriter, NetUtils}
+import org.orbeon.oxf.util.NetUtils
 import org.orbeon.oxf.xml.{XMLUtils, TransformerUtils}
 import org.xml.sax.InputSource
 
@@ -35,7 +37,7 @@ trait Put extends RequestResponse with Common {
         val idCols = idColumns(req)
         val table = tableName(req)
         val resultSet = {
-            val ps = connection.prepareStatement(
+            val ps = RelationalUtils.prepareStatement(connection,
                 s"""select created ${req.forData.option(", username , groupname").mkString}
                    |  from $table
                    | where (last_modified_time, $idCols)
@@ -55,7 +57,7 @@ trait Put extends RequestResponse with Common {
             val position = Iterator.from(1)
             ps.setString(position.next(), req.app)
             ps.setString(position.next(), req.form)
-            ps.setInt(position.next(), requestedFormVersion(connection, req))
+            ps.setInt(position.next(), requestedFormVersion(connection, req, forWrite = true))
             if (req.forData)       ps.setString(position.next(), req.dataPart.get.documentId)
             if (req.forAttachment) ps.setString(position.next(), req.filename.get)
             ps.executeQuery()
@@ -77,7 +79,7 @@ trait Put extends RequestResponse with Common {
     def store(connection: Connection, req: Request, existingRow: Option[Row]): Unit = {
 
         val table = tableName(req)
-        val ps = connection.prepareStatement(
+        val ps = RelationalUtils.prepareStatement(connection,
             s"""insert into $table
                 (
                                                     created, last_modified_time, last_modified_by
@@ -103,54 +105,92 @@ trait Put extends RequestResponse with Common {
 
         val position = Iterator.from(1)
         val now = new Timestamp(System.currentTimeMillis())
-        val requestInputStream = {
-            val bodyURL = RequestGenerator.getRequestBody(PipelineContext.get)
-            NetUtils.uriToInputStream(bodyURL)
-        }
+        // The body is usually in a temporary file created by RequestGenerator, so it is streamed to the database
+        // rather than read into memory
+        val bodyURL = RequestGenerator.getRequestBody(PipelineContext.get)
+        val buffers = collection.mutable.ListBuffer[SpillBuffer]()
+        val requestStreams = collection.mutable.ListBuffer[InputStream]()
 
-        def requestBytes(): Array[Byte] = {
-            val os = new ByteArrayOutputStream
-            NetUtils.copyStream(requestInputStream, os)
-            os.toByteArray
+        // Streams passed to the statement are closed once it has run
+        def requestInputStream = {
+            val stream = NetUtils.uriToInputStream(bodyURL)
+            requestStreams += stream
+            stream
         }
 
-        def requestXML(): String = {
+        // Use the int-length overloads, as the long-length ones are JDBC 4 and not implemented by all drivers
+        def intLength(length: Long) =
+            if (length <= Int.MaxValue)
+                length.toInt
+            else
+                throw new OXFException("Request body of " + length + " bytes or characters is too large")
+
+        def setRequestBinaryStream(position: Int): Unit =
+            Option(bodyURL) filter (_.startsWith("file:")) map (url ⇒ new File(new URI(url)).length) match {
+                case Some(length) ⇒
+                    ps.setBinaryStream(position, requestInputStream, intLength(length))
+                case None ⇒
+                    // Drivers need the length of the stream upfront
+                    val buffer = new SpillBuffer
+                    buffers += buffer
+                    buffer.write(NetUtils.copyStream(requestInputStream, _))
+                    ps.setBinaryStream(position, buffer.inputStream, intLength(buffer.length))
+            }
+
+        def setRequestCharacterStream(position: Int): Unit = {
             val transformer = TransformerUtils.getXMLIdentityTransformer
             transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")
-            val writer = new StringBuilderWriter()
             val source = new SAXSource(XMLUtils.newXMLReader(XMLUtils.ParserConfiguration.PLAIN), new InputSource(requestInputStream))
-            transformer.transform(source, new StreamResult(writer))
-            writer.toString
-        }
 
-                                 ps.setTimestamp(position.next(), existingRow.map(_.created).getOrElse(now))
-                                 ps.setTimestamp(position.next(), now)
-                                 ps.setString(position.next(), requestUsername.getOrElse(null))
-                                 ps.setString(position.next(), req.app)
-                                 ps.setString(position.next(), req.form)
-                                 ps.setInt   (position.next(), requestedFormVersion(connection, req))
-        if (req.forData)         ps.setString(position.next(), req.dataPart.get.documentId)
-        if (req.forData)         ps.setString(position.next(), if (req.dataPart.get.isDraft) "Y" else "N")
-        if (req.forAttachment)   ps.setString(position.next(), req.filename.get)
-        if (req.forAttachment)   ps.setBytes (position.next(), requestBytes())
-        if (! req.forAttachment) ps.setString(position.next(), requestXML())
-        if (req.forData)         ps.setString(position.next(), existingRow.map(_.username .get).getOrElse(requestUsername .getOrElse(null)))
-        if (req.forData)         ps.setString(position.next(), existingRow.map(_.groupname.get).getOrElse(requestGroupname.getOrElse(null)))
+            // Serialize to a buffer, as the length of the character stream must be known upfront
+            val buffer = new SpillBuffer
+            buffers += buffer
+            val charCount = buffer.write { os ⇒
+                val writer = new SpillBuffer.CountingWriter(new OutputStreamWriter(os, "UTF-8"))
+                transformer.transform(source, new StreamResult(writer))
+                writer.flush()
+                writer.count
+            }
+            ps.setCharacterStream(position, new InputStreamReader(buffer.inputStream, "UTF-8"), intLength(charCount))
+        }
 
-        ps.executeUpdate()
+        try {
+                                     ps.setTimestamp(position.next(), existingRow.map(_.created).getOrElse(now))
+                                     ps.setTimestamp(position.next(), now)
+                                     ps.setString(position.next(), requestUsername.getOrElse(null))
+                                     ps.setString(position.next(), req.app)
+                                     ps.setString(position.next(), req.form)
+                                     ps.setInt   (position.next(), requestedFormVersion(connection, req, forWrite = true))
+            if (req.forData)         ps.setString(position.next(), req.dataPart.get.documentId)
+            if (req.forData)         ps.setString(position.next(), if (req.dataPart.get.isDraft) "Y" else "N")
+            if (req.forAttachment)   ps.setString(position.next(), req.filename.get)
+            if (req.forAttachment)   setRequestBinaryStream(position.next())
+            if (! req.forAttachment) setRequestCharacterStream(position.next())
+            if (req.forData)         ps.setString(position.next(), existingRow.map(_.username .get).getOrElse(requestUsername .getOrElse(null)))
+            if (req.forData)         ps.setString(position.next(), existingRow.map(_.groupname.get).getOrElse(requestGroupname.getOrElse(null)))
+            ps.executeUpdate()
+        } finally {
+            requestStreams foreach (stream ⇒ runQuietly(stream.close()))
+            buffers foreach (_.dispose())
+        }
     }
 
     def put(): Unit = {
-        RelationalUtils.withConnection { connection ⇒
-            val req = request
-            if (req.forData && ! req.version.isInstanceOf[Specific]) {
-                // When storing data, a form version must be provided
-                httpResponse.setStatus(400)
-            } else {
-                val existing = existingRow(connection, req)
-                store(connection, req, existing)
-                httpResponse.setStatus(201)
+        val req = request
+        val storedFormDatasource =
+            RelationalUtils.withConnection { connection ⇒
+                if (req.forData && ! req.version.isInstanceOf[Specific]) {
+                    // When storing data, a form version must be provided
+                    httpResponse.setStatus(400)
+                    None
+                } else {
+                    val existing = existingRow(connection, req)
+                    store(connection, req, existing)
+                    httpResponse.setStatus(201)
+                    if (req.forForm && ! req.forAttachment) RelationalUtils.currentDatasource else None
+                }
             }
-        }
+        // Only once the connection is released, so that a concurrent read can't cache the previous latest version again
+        storedFormDatasource foreach (invalidateLatestFormVersion(_, req.app, req.form))
     }
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.relational.crud
+
+import java.io._
+import org.apache.commons.io.output.DeferredFileOutputStream
+import org.orbeon.oxf.util.ScalaUtils._
+import scala.collection.mutable.ListBuffer
+
+/**
+ * Buffer kept in memory up to a threshold and in a temporary file beyond, so that content of unknown length can be
+ * passed to JDBC drivers with its length, without holding all of it in memory. The input streams handed out are
+ * closed when the buffer is disposed.
+ */
+class SpillBuffer(threshold: Int = SpillBuffer.DefaultThreshold) {
+
+    private val os      = new DeferredFileOutputStream(threshold, "orbeon-crud-", ".tmp", null)
+    private val streams = ListBuffer[InputStream]()
+
+    def write[T](body: OutputStream ⇒ T): T =
+        try body(os)
+        finally os.close()
+
+    // Length in bytes
+    def length = os.getByteCount
+
+    def inputStream: InputStream = {
+        val stream = if (os.isInMemory) new ByteArrayInputStream(os.getData) else new FileInputStream(os.getFile)
+        streams += stream
+        stream
+    }
+
+    // Temporary file, if the content didn't fit in memory
+    def file = if (os.isInMemory) None else Some(os.getFile)
+
+    // Close the streams first, as files can't be deleted while open on some platforms
+    def dispose(): Unit = {
+        streams foreach (stream ⇒ runQuietly(stream.close()))
+        streams.clear()
+        file foreach (_.delete())
+    }
+}
+
+object SpillBuffer {
+
+    val DefaultThreshold = 1024 * 1024
+
+    // Writer counting the characters written, for drivers which need the length of a character stream
+    class CountingWriter(writer: Writer) extends FilterWriter(writer) {
+        var count = 0L
+
+        override def write(c: Int): Unit = { super.write(c); count += 1 }
+        override def write(buffer: Array[Char], offset: Int, length: Int): Unit = { super.write(buffer, offset, length); count += length }
+        override def write(string: String, offset: Int, length: Int): Unit = { super.write(string, offset, length); count += length }
+    }
+}
@@ -43,6 +43,8 @@ import scala.util.control.NonFatal
 object InitUtils {
 
     private val CacheSizeProperty            = "oxf.cache.size"
+    private val CacheMaxBytesProperty        = "oxf.cache.max-bytes"
+    private val CacheMinComputeTimeProperty  = "oxf.cache.min-compute-time"
     private val ProcessorsProperty           = "oxf.pipeline.processors"
     private val DeprecatedProcessorsProperty = "oxf.prologue"
     private val DefaultProcessors            = "oxf:/processors.xml"
@@ -74,8 +76,13 @@ object InitUtils {
         var success = false
         try {
             // Set cache size
-            val cacheMaxSize = Properties.instance.getPropertySet.getInteger(CacheSizeProperty)
+            val propertySet = Properties.instance.getPropertySet
+            val cacheMaxSize = propertySet.getInteger(CacheSizeProperty)
             if (cacheMaxSize != null) ObjectCache.instance.setMaxSize(cacheMaxSize)
+            val cacheMaxBytes = propertySet.getInteger(CacheMaxBytesProperty)
+            if (cacheMaxBytes != null) ObjectCache.instance.setMaxBytes(cacheMaxBytes.longValue)
+            val cacheMinComputeTime = propertySet.getInteger(CacheMinComputeTimeProperty)
+            if (cacheMinComputeTime != null) ObjectCache.instance.setMinComputeTime(cacheMinComputeTime.longValue)
 
             // Start execution
             processor.reset(pipelineContext)
@@ -95,8 +95,11 @@ object SecureUtils {
                     cipher.init(Cipher.ENCRYPT_MODE, secretKey)
                     val params = cipher.getParameters
                     val iv = params.getParameterSpec(classOf[IvParameterSpec]).getIV
-                    // Prepend the IV to the ciphertext
-                    Base64.encode(iv ++ cipher.doFinal(bytes), false)
+                    // Prepend the IV to the ciphertext, encrypting directly after the IV to avoid copies
+                    val result = new Array[Byte](iv.length + cipher.getOutputSize(bytes.length))
+                    System.arraycopy(iv, 0, result, 0, iv.length)
+                    val length = iv.length + cipher.doFinal(bytes, 0, bytes.length, result, iv.length)
+                    Base64.encode(if (length == result.length) result else java.util.Arrays.copyOf(result, length), false)
             }
         }
 
@@ -105,18 +108,17 @@ object SecureUtils {
 
     def decryptIV(text: String, ivOption: Option[Array[Byte]]): Array[Byte] =
         withCipher { cipher ⇒
-            val (iv, message) =
-                ivOption match {
-                    case Some(iv) ⇒
-                        // The IV was passed
-                        (iv, Base64.decode(text))
-                    case None ⇒
-                        // The IV was prepended to the message
-                        Base64.decode(text).splitAt(AESIVSize)
-                }
-
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv))
-            cipher.doFinal(message)
+            val decoded = Base64.decode(text)
+            ivOption match {
+                case Some(iv) ⇒
+                    // The IV was passed
+                    cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv))
+                    cipher.doFinal(decoded)
+                case None ⇒
+                    // The IV was prepended to the message
+                    cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(decoded, 0, AESIVSize))
+                    cipher.doFinal(decoded, AESIVSize, decoded.length - AESIVSize)
+            }
         }
 
     // Compute a digest
@@ -20,10 +20,10 @@ import org.orbeon.saxon.style.AttributeValueTemplate
 import org.orbeon.saxon.expr.{XPathContextMajor, ExpressionTool, ExpressionVisitor, Expression}
 import org.orbeon.saxon.`type`.Type
 import org.orbeon.saxon.om._
-import java.util.{List ⇒ JList}
+import java.util.{List ⇒ JList, Map ⇒ JMap, ArrayList ⇒ JArrayList}
 import org.orbeon.oxf.xml.dom4j.{Dom4jUtils, ExtendedLocationData, LocationData}
 import org.orbeon.saxon.value.{Value, AtomicValue}
-import org.orbeon.oxf.common.OrbeonLocationException
+import org.orbeon.oxf.common.{ValidationException, OrbeonLocationException}
 import org.orbeon.saxon.Configuration
 import javax.xml.transform.{TransformerException, Source, URIResolver}
 import org.orbeon.oxf.resources.URLFactory
@@ -123,8 +123,51 @@ object XPath {
             compiledExpression: CompiledExpression,
             functionContext: FunctionContext,
             variableResolver: VariableResolver)
-            (implicit reporter: Reporter) = {
+            (implicit reporter: Reporter) =
+        withIterator(contextItems, contextPosition, compiledExpression, functionContext, variableResolver) { iterator ⇒
+            iterator.next() match {
+                case atomicValue: AtomicValue ⇒ Value.convertToJava(atomicValue)
+                case nodeInfo: NodeInfo       ⇒ nodeInfo
+                case null                     ⇒ null
+                case _                        ⇒ throw new IllegalStateException // Saxon guarantees that an Item is either AtomicValue or NodeInfo
+            }
+        }
+
+    // Return all the items, resolving variables from the given in-scope variables like XPathCache does
+    def evaluateKeepItems(
+            contextItems: JList[Item],
+            contextPosition: Int,
+            compiledExpression: CompiledExpression,
+            functionContext: FunctionContext,
+            variableToValueMap: JMap[String, ValueRepresentation])
+            (implicit reporter: Reporter): JList[Item] = {
+
+        val variableResolver = (variableName: StructuredQName, contextItem: Item) ⇒ {
+            val result = if (variableToValueMap ne null) variableToValueMap.get(variableName.getLocalName) else null
+            if (result eq null)
+                throw new ValidationException("Undeclared variable in XPath expression: $" + variableName.getClarkName, compiledExpression.locationData)
+            result
+        }
 
+        withIterator(contextItems, contextPosition, compiledExpression, functionContext, variableResolver) { iterator ⇒
+            val result = new JArrayList[Item]
+            var item = iterator.next()
+            while (item ne null) {
+                result.add(item)
+                item = iterator.next()
+            }
+            result
+        }
+    }
+
+    private def withIterator[T](
+            contextItems: JList[Item],
+            contextPosition: Int,
+            compiledExpression: CompiledExpression,
+            functionContext: FunctionContext,
+            variableResolver: VariableResolver)
+            (body: SequenceIterator ⇒ T)
+            (implicit reporter: Reporter): T =
         withEvaluation(compiledExpression) { xpathExpression ⇒
 
             val (contextItem, position) =
@@ -139,16 +182,9 @@ object XPath {
             xpathContext.getController.setUserData(classOf[ShareableXPathStaticContext].getName, "variableResolver", variableResolver)
 
             withFunctionContext(functionContext) {
-                val iterator = xpathExpression.iterate(dynamicContext)
-                iterator.next() match {
-                    case atomicValue: AtomicValue ⇒ Value.convertToJava(atomicValue)
-                    case nodeInfo: NodeInfo       ⇒ nodeInfo
-                    case null                     ⇒ null
-                    case _                        ⇒ throw new IllegalStateException // Saxon guarantees that an Item is either AtomicValue or NodeInfo
-                }
+                body(xpathExpression.iterate(dynamicContext))
             }
         }
-    }
 
     // Return a string, or null if the expression returned an empty sequence
     // TODO: Should always return a string!
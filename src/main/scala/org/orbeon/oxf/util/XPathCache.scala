@@ -14,12 +14,15 @@
 package org.orbeon.oxf.util
 
 import collection.JavaConverters._
+import java.lang.ref.SoftReference
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 import java.util.{List ⇒ JList, Map ⇒ JMap}
-import org.apache.commons.pool.{BasePoolableObjectFactory, ObjectPool}
-import org.orbeon.oxf.cache.InternalCacheKey
+import org.apache.commons.pool.{BaseObjectPool, BasePoolableObjectFactory, ObjectPool}
+import org.orbeon.oxf.cache.CacheKey
 import org.orbeon.oxf.cache.ObjectCache
 import org.orbeon.oxf.xml.dom4j.LocationData
-import org.orbeon.oxf.xml.NamespaceMapping
+import org.orbeon.oxf.xml.{XMLReceiverHelper, NamespaceMapping}
 import org.orbeon.saxon.Configuration
 import org.orbeon.saxon.functions.FunctionLibrary
 import org.orbeon.saxon.functions.FunctionLibraryList
@@ -38,7 +41,14 @@ object XPathCache {
 
     private val XPathCacheName = "cache.xpath"
     private val XPathCacheDefaultSize = 200
-    
+    private val Validity = 0L
+
+    private lazy val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
+
+    private val compileCount = new AtomicLong
+    private val borrowCount = new AtomicLong
+    private val borrowNanos = new AtomicLong
+
     private val Logger = LoggerFactory.createLogger(getClass)
     
     case class XPathContext(
@@ -357,54 +367,31 @@ object XPathCache {
             isAVT: Boolean,
             locationData: LocationData): PooledXPathExpression = {
         try {
-            // Find pool from cache
-            val validity = 0L
-            val cache = ObjectCache.instance(XPathCacheName, XPathCacheDefaultSize)
-            val cacheKeyString = new StringBuilder(xpathString)
-
-            if (functionLibrary ne null) {// This is ok
-                cacheKeyString.append('|')
-                cacheKeyString.append(functionLibrary.hashCode.toString)
-            }
-            // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
-            // to use it as part of the cache key.
-            if (namespaceMapping ne null) {
-                // NOTE: Hash is mandatory in NamespaceMapping
-                cacheKeyString.append('|')
-                cacheKeyString.append(namespaceMapping.hash)
-            }
+            val startTime = System.nanoTime
 
             // NOTE: Make sure to copy the values in the key set, as the set returned by the map keeps a pointer to the
             // Map! This can cause the XPath cache to keep a reference to variable values, which in turn can keep a
             // reference all the way to e.g. an XFormsContainingDocument.
+            // TODO: Put this in static state as this can be determined statically once and for all
             val variableNames = Option(variableToValueMap) map (_.keySet.asScala.toList) getOrElse List()
 
-            if (variableNames.size > 0) {
-                // There are some variables in scope. They must be part of the key
-                // TODO: Put this in static state as this can be determined statically once and for all
-                for (variableName ← variableNames) {
-                    cacheKeyString.append('|')
-                    cacheKeyString.append(variableName)
-                }
-            }
-
-            // Add this to the key as evaluating "name" as XPath or as AVT is very different!
-            cacheKeyString.append('|')
-            cacheKeyString.append(isAVT.toString)
-
             // TODO: Add baseURI to cache key (currently, baseURI is pretty much unused)
+            val cacheKey = new ExpressionCacheKey(xpathString, functionLibrary, namespaceMapping, variableNames, isAVT)
 
+            // Find pool from cache
             val pooledXPathExpression = {
-                val cacheKey = new InternalCacheKey("XPath Expression2", cacheKeyString.toString)
-                var pool = cache.findValid(cacheKey, validity).asInstanceOf[ObjectPool[PooledXPathExpression]]
+                var pool = cache.findValid(cacheKey, Validity).asInstanceOf[ExpressionPool]
                 if (pool eq null) {
                     pool = createXPathPool(configuration, xpathString, namespaceMapping, variableNames, functionLibrary, baseURI, isAVT, locationData)
-                    cache.add(cacheKey, validity, pool)
+                    cache.add(cacheKey, Validity, pool)
                 }
                 // Get object from pool
                 pool.borrowObject
             }
 
+            borrowCount.incrementAndGet()
+            borrowNanos.addAndGet(System.nanoTime - startTime)
+
             // Set context items and position
             pooledXPathExpression.setContextItems(contextItems, contextPosition)
 
@@ -417,6 +404,45 @@ object XPathCache {
         }
     }
 
+    // Key of a pool of compiled expressions
+    // The hash code is computed once as keys are created and looked up upon each evaluation.
+    private class ExpressionCacheKey(
+            private val xpathString: String,
+            functionLibrary: FunctionLibrary,
+            namespaceMapping: NamespaceMapping,
+            private val variableNames: List[String],
+            private val isAVT: Boolean) // evaluating "name" as XPath or as AVT is very different!
+        extends CacheKey {
+
+        setClazz(classOf[ExpressionCacheKey])
+
+        // The function library is identified by its hash only so the cache doesn't keep a reference to it
+        private val functionLibraryHash = Option(functionLibrary) map (_.hashCode)
+
+        // NOTE: Mike Kay confirms on 2007-07-04 that compilation depends on the namespace context, so we need
+        // to use it as part of the cache key.
+        // NOTE: Hash is mandatory in NamespaceMapping
+        private val namespaceHash = Option(namespaceMapping) map (_.hash)
+
+        override val hashCode = (xpathString, functionLibraryHash, namespaceHash, variableNames, isAVT).##
+
+        override def equals(other: Any) = other match {
+            case other: ExpressionCacheKey ⇒
+                hashCode            == other.hashCode            &&
+                xpathString         == other.xpathString         &&
+                isAVT               == other.isAVT               &&
+                functionLibraryHash == other.functionLibraryHash &&
+                namespaceHash       == other.namespaceHash       &&
+                variableNames       == other.variableNames
+            case _ ⇒ false
+        }
+
+        def toXML(helper: XMLReceiverHelper, validities: AnyRef) =
+            helper.element("xpath", Array("expression", xpathString, "avt", isAVT.toString))
+
+        override def toString = "ExpressionCacheKey[" + xpathString + "]"
+    }
+
     private def createXPathPool(
             xpathConfiguration: Configuration,
             xpathString: String,
@@ -425,17 +451,82 @@ object XPathCache {
             functionLibrary: FunctionLibrary,
             baseURI: String,
             isAVT: Boolean,
-            locationData: LocationData): ObjectPool[PooledXPathExpression] = {
+            locationData: LocationData): ExpressionPool = {
 
         // TODO: pool should have at least one hard reference
         val factory = new XPathCachePoolableObjectFactory(
             configurationOrDefault(xpathConfiguration), xpathString, namespaceMapping, variableNames,
             functionLibrary, baseURI, isAVT, locationData)
-        val pool = new SoftReferenceObjectPool(factory)
+        val pool = new ExpressionPool(factory)
         factory.pool = pool
         pool
     }
 
+    // Pool of compiled instances of a given expression
+    // Unlike SoftReferenceObjectPool, borrowing and returning don't take a lock, so that threads evaluating the same
+    // expressions don't contend. Idle expressions are softly referenced.
+    private class ExpressionPool(factory: XPathCachePoolableObjectFactory) extends BaseObjectPool[PooledXPathExpression] {
+
+        private val idle = new ConcurrentLinkedQueue[SoftReference[PooledXPathExpression]]
+        private val idleCount = new AtomicInteger
+        private val activeCount = new AtomicInteger
+
+        override def borrowObject(): PooledXPathExpression = {
+            var expression: PooledXPathExpression = null
+            var reference = idle.poll()
+            while ((expression eq null) && (reference ne null)) {
+                idleCount.decrementAndGet()
+                expression = reference.get
+                if (expression eq null)
+                    reference = idle.poll()
+            }
+
+            if (expression eq null) {
+                compileCount.incrementAndGet()
+                expression = factory.makeObject
+            }
+
+            activeCount.incrementAndGet()
+            expression
+        }
+
+        override def returnObject(expression: PooledXPathExpression): Unit = {
+            activeCount.decrementAndGet()
+            idleCount.incrementAndGet()
+            idle.offer(new SoftReference(expression))
+        }
+
+        override def invalidateObject(expression: PooledXPathExpression): Unit =
+            activeCount.decrementAndGet()
+
+        // Approximate, as idle expressions might have been collected
+        override def getNumIdle = idleCount.get
+        override def getNumActive = activeCount.get
+    }
+
+    // Cumulative statistics and current pool sizes
+    case class Statistics(
+        compileCount: Long,
+        borrowCount: Long,
+        averageBorrowNanos: Long,
+        poolCount: Int,
+        idleCount: Int,
+        activeCount: Int)
+
+    def statistics: Statistics = {
+        val pools = (cache.iterateCacheObjects.asScala collect { case pool: ExpressionPool ⇒ pool }).toList
+        val borrows = borrowCount.get
+
+        Statistics(
+            compileCount.get,
+            borrows,
+            if (borrows > 0) borrowNanos.get / borrows else 0,
+            pools.size,
+            pools.map(_.getNumIdle).sum,
+            pools.map(_.getNumActive).sum
+        )
+    }
+
     def createPoolableXPathExpression(
             independentContext: IndependentContext,
             xpathString: String,
@@ -17,6 +17,7 @@ import org.orbeon.oxf.pipeline.InitUtils._
 import org.orbeon.oxf.webapp.ProcessorService._
 import org.orbeon.oxf.pipeline.api.{PipelineContext, ProcessorDefinition}
 import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.xforms.state.StaticStateDiskStore
 
 // Servlet/portlet helper for processor definitions and services
 trait ServletPortlet {
@@ -44,6 +45,10 @@ trait ServletPortlet {
 
         // Run listener if needed
         processor foreach { case (processorPrefix, inputPrefix) ⇒ runInitDestroyListenerProcessor(_, _) }
+
+        // Restore persisted static states in the background if configured
+        StaticStateDiskStore.prewarm()
+
         Logger.info(logPrefix + " initialized.")
     }
 
@@ -58,8 +58,8 @@ class BindNode(val bindStaticId: String, item: Item, typeQName: QName) {
 
     def constraintsSatisfiedForLevel(level: ValidationLevel) = ! failedConstraints.contains(level)
 
-    def setRelevant(value: Boolean)            = this._relevant = value
-    def setReadonly(value: Boolean)            = this._readonly = value
+    def setRelevant(value: Boolean)            = if (value != _relevant) { _relevant = value; invalidateInherited() }
+    def setReadonly(value: Boolean)            = if (value != _readonly) { _readonly = value; invalidateInherited() }
     def setRequired(value: Boolean)            = this._required = value
 
     def setTypeValid(value: Boolean)           = this._typeValid = value
@@ -73,6 +73,9 @@ class BindNode(val bindStaticId: String, item: Item, typeQName: QName) {
 
     def typeValid       = _typeValid
     def valid           = _typeValid && _requiredValid && constraintsSatisfiedForLevel(ErrorLevel)
+
+    // Relevance and readonly-ness are inherited, so descendants of the node are impacted as well
+    private def invalidateInherited() = if (node ne null) InstanceData.invalidateInheritedMIPs(node)
 }
 
 object BindNode {
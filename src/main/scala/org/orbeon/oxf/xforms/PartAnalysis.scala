@@ -17,8 +17,9 @@ import org.orbeon.oxf.xforms.analysis.{ElementAnalysis, Metadata}
 import org.orbeon.oxf.xforms.event.EventHandler
 import org.orbeon.oxf.xml.dom4j.LocationData
 import java.util.{List ⇒ JList}
-import org.orbeon.oxf.xml.{XMLReceiverHelper, XMLUtils}
+import org.orbeon.oxf.xml.{NamespaceMapping, XMLReceiverHelper, XMLUtils}
 import org.orbeon.oxf.util.IndentedLogger
+import org.orbeon.oxf.util.XPath.CompiledExpression
 import org.dom4j.Element
 import org.orbeon.oxf.xforms.xbl.{Scope, XBLBindings}
 
@@ -53,6 +54,9 @@ trait PartAnalysis extends PartGlobalOps with PartStaticAnalysisOps {
 
     def dumpAnalysis()
 
+    // Binding expression compiled during static analysis for the given namespaces, or null
+    def getCompiledBinding(namespaceMapping: NamespaceMapping, xpathString: String): CompiledExpression
+
     // The element in our parent that created the current part
     def elementInParent = parent map (_.getControlAnalysis(startScope.fullPrefix.init)) // .init removes the trailing component separator
 }
\ No newline at end of file
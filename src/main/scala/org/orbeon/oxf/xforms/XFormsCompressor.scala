@@ -31,13 +31,17 @@ object XFormsCompressor {
     private val BUFFER_SIZE = 1024 * 8
     private val TRAILER_SIZE = 8
 
-    def compressBytes(bytesToEncode: Array[Byte], level: Int) = {
+    def compressBytes(bytesToEncode: Array[Byte], level: Int): Array[Byte] =
+        compress(_.write(bytesToEncode), level)
+
+    // Compress what the given function writes, without first collecting the uncompressed bytes
+    def compress(write: OutputStream ⇒ Unit, level: Int = Deflater.BEST_SPEED): Array[Byte] = {
         val deflater = deflaterPool.borrowObject
         try {
             deflater.setLevel(level)
             val os = new ByteArrayOutputStream
             val gzipOS = new DeflaterGZIPOutputStream(deflater, os, BUFFER_SIZE)
-            gzipOS.write(bytesToEncode)
+            write(gzipOS)
             gzipOS.close()
 
             os.toByteArray
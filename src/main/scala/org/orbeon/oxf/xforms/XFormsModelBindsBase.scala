@@ -44,6 +44,39 @@ abstract class XFormsModelBindsBase(model: XFormsModel) extends Logging {
 
     protected val singleNodeContextBinds = new JHashMap[String, RuntimeBind]
     protected val iterationsForContextNodeInfo = new JHashMap[Item, JList[RuntimeBind#BindIteration]]
+    protected val runtimeBindsByStaticId = new JHashMap[String, JList[RuntimeBind]]
+
+    // Calculate binds to evaluate in order, or None if all binds must be evaluated
+    protected def affectedCalculateBinds: Option[Seq[StaticBind]] =
+        for {
+            graph     ← staticModel.bindDependencyGraph
+            changeset ← dependencies.recalculateChangeset(staticModel)
+        } yield
+            graph.affectedCalculateBinds(changeset)
+
+    // Binds with computed MIPs to evaluate, or None if all binds must be evaluated
+    protected def affectedComputedBinds: Option[Seq[StaticBind]] =
+        for {
+            graph     ← staticModel.bindDependencyGraph
+            changeset ← dependencies.recalculateChangeset(staticModel)
+        } yield
+            graph.affectedComputedBinds(changeset)
+
+    // Iterate over all the runtime binds of the given static binds, in order, and for each one do the callback
+    protected def iterateStaticBinds(staticBinds: Seq[StaticBind], bindRunner: XFormsModelBinds.BindRunner): Unit =
+        for {
+            staticBind   ← staticBinds
+            runtimeBinds ← Option(runtimeBindsByStaticId.get(staticBind.staticId)).toList
+            runtimeBind  ← runtimeBinds.asScala
+            position     ← 1 to runtimeBind.nodeset.size
+        } locally {
+            try bindRunner.applyBind(runtimeBind, position)
+            catch {
+                case NonFatal(t) ⇒
+                    throw OrbeonLocationException.wrapException(t,
+                        new ExtendedLocationData(staticBind.locationData, "evaluating XForms binds", staticBind.element))
+            }
+        }
 
     protected def validateConstraint(bind: RuntimeBind, position: Int, invalidInstances: JSet[String]) {
 
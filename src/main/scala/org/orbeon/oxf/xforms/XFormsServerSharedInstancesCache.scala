@@ -14,9 +14,13 @@
 package org.orbeon.oxf.xforms
 
 import analysis.model.Instance
+import java.util.concurrent.TimeUnit.MILLISECONDS
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicLong
 import org.orbeon.oxf.cache.InternalCacheKey
 import org.orbeon.oxf.cache.ObjectCache
 import org.orbeon.oxf.util.IndentedLogger
+import org.orbeon.oxf.util.ScalaUtils._
 import org.orbeon.saxon.om.{VirtualNode, DocumentInfo}
 import XFormsInstance._
 
@@ -36,7 +40,29 @@ object XFormsServerSharedInstancesCache {
     }
 
     private case class InstanceContent(documentInfo: DocumentInfo) { require(! documentInfo.isInstanceOf[VirtualNode]) }
-    private case class CacheEntry(instanceContent: InstanceContent, timeToLive: Long, timestamp: Long = System.currentTimeMillis)
+    private case class CacheEntry(instanceContent: InstanceContent, timeToLive: Long, timestamp: Long = System.currentTimeMillis) {
+        def isExpired = timeToLive >= 0 && ((timestamp + timeToLive) < System.currentTimeMillis)
+    }
+
+    // Loads in progress, which concurrent requests for the same instance wait for instead of loading the instance again
+    private val pendingLoads = new ConcurrentHashMap[InternalCacheKey, FutureTask[DocumentInfo]]
+
+    // Keys of the instances being loaded by the current thread. Loading an instance can require the same instance, for
+    // example through a local submission to an XForms page which runs in the same thread: that load must not wait for
+    // itself.
+    private val keysLoadedByThread = new ThreadLocal[Set[InternalCacheKey]] {
+        override def initialValue() = Set.empty[InternalCacheKey]
+    }
+
+    private val loads     = new AtomicLong
+    private val waits     = new AtomicLong
+    private val staleHits = new AtomicLong
+
+    // Number of instances loaded, of requests which waited for another request to load an instance, and of requests
+    // served an expired instance while another request reloads it
+    def loadCount     = loads.get
+    def waitCount     = waits.get
+    def staleHitCount = staleHits.get
 
     // Try to find instance content in the cache but do not attempt to load it if not found
     def findContentOrNull(
@@ -44,7 +70,8 @@ object XFormsServerSharedInstancesCache {
             instance: Instance,
             instanceCaching: InstanceCaching,
             readonly: Boolean) =
-        find(instanceCaching)(indentedLogger) map (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) orNull
+        find(instanceCaching, XFormsProperties.isSharedInstancesCacheStaleWhileRevalidate)(indentedLogger) map
+            (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) orNull
 
     // Try to find instance content in the cache or load it
     def findContentOrLoad(
@@ -54,7 +81,27 @@ object XFormsServerSharedInstancesCache {
             readonly: Boolean,
             loader: Loader) = {
 
-        implicit val logger = indentedLogger
+        val instanceContent =
+            findOrLoad(
+                instanceCaching,
+                loader,
+                XFormsProperties.isSharedInstancesCacheStaleWhileRevalidate,
+                XFormsProperties.getSharedInstancesCacheMaxWait)(indentedLogger)
+
+        wrapDocumentInfo(instanceContent, readonly, instance.exposeXPathTypes)
+    }
+
+    // Find instance content in the cache or load it, once for concurrent requests
+    //
+    // Requests wait for the request loading the instance. If maxWaitMillis is positive, a request waiting for longer
+    // loads the instance itself. This is needed only if loading the instance requires an XForms page using the same
+    // instance which runs in another thread, for example when it is requested over HTTP, as that thread can't tell
+    // that the loading request waits for it.
+    private[xforms] def findOrLoad(
+            instanceCaching: InstanceCaching,
+            loader: Loader,
+            staleWhileRevalidate: Boolean,
+            maxWaitMillis: Long)(implicit logger: IndentedLogger): DocumentInfo = {
 
         // Add an entry to the cache
         def add(instanceContent: InstanceContent, timeToLive: Long) = {
@@ -67,25 +114,75 @@ object XFormsServerSharedInstancesCache {
             cache.add(cacheKey, ConstantValidity, CacheEntry(instanceContent, timeToLive))
         }
 
+        def statisticsPairs =
+            Seq("loads" → loadCount.toString, "waits" → waitCount.toString, "stale hits" → staleHitCount.toString)
+
         // Load and cache new instance content
-        def loadAndCache() = {
-            // Note that this method is not synchronized. Scenario: if the method is synchronized, the resource URI may
-            // reach an XForms page which itself needs to load a shared resource. The result would be a deadlock.
-            // Without synchronization, what can happen is that two concurrent requests load the same URI at the same
-            // time. In the worst case scenario, the results will be different, and the two requesting XForms instances
-            // will be different. The instance that is retrieved first will be stored in the cache for a very short
-            // amount of time, and the one retrieved last will win and be stored in the cache for a longer time.
-            debug("loading instance into cache", instanceCaching.debugPairs)
+        def loadAndCache(): DocumentInfo = {
+            debug("loading instance into cache", instanceCaching.debugPairs ++ statisticsPairs)
+            loads.incrementAndGet()
 
             val instanceContent = loader.load(instanceCaching.sourceURI, instanceCaching.handleXInclude)
             // NOTE: load() must always returns a TinyTree because we don't want to put in cache a mutable document
             assert(! instanceContent.isInstanceOf[VirtualNode], "load() must return a TinyTree")
 
             add(InstanceContent(instanceContent), instanceCaching.timeToLive)
-            Some(instanceContent)
+            instanceContent
+        }
+
+        // Load the instance unless another request is already loading it, in which case use the stale content if
+        // provided, or wait for that request
+        def loadOnce(stale: Option[DocumentInfo]): DocumentInfo = {
+            val cacheKey = createCacheKey(instanceCaching)
+            val pendingLoad = new FutureTask(new Callable[DocumentInfo] { def call() = loadAndCache() })
+
+            Option(pendingLoads.putIfAbsent(cacheKey, pendingLoad)) match {
+                case None ⇒
+                    val keysLoaded = keysLoadedByThread.get
+                    keysLoadedByThread.set(keysLoaded + cacheKey)
+                    try {
+                        pendingLoad.run()
+                        try pendingLoad.get
+                        catch { case e: ExecutionException ⇒ throw e.getCause }
+                    } finally {
+                        keysLoadedByThread.set(keysLoaded)
+                        pendingLoads.remove(cacheKey, pendingLoad)
+                    }
+                case Some(_) if stale.isDefined ⇒
+                    debug("using expired instance while it is reloaded", instanceCaching.debugPairs)
+                    staleHits.incrementAndGet()
+                    stale.get
+                case Some(_) if keysLoadedByThread.get(cacheKey) ⇒
+                    // Loading the instance requires the instance
+                    loadAndCache()
+                case Some(otherLoad) ⇒
+                    debug("waiting for instance being loaded", instanceCaching.debugPairs)
+                    waits.incrementAndGet()
+                    try {
+                        if (maxWaitMillis > 0)
+                            otherLoad.get(maxWaitMillis, MILLISECONDS)
+                        else
+                            otherLoad.get
+                    } catch {
+                        // Load it ourselves, as done without a concurrent load
+                        case e: TimeoutException   ⇒ loadAndCache()
+                        case e: ExecutionException ⇒ loadAndCache()
+                    }
+            }
         }
 
-        find(instanceCaching) orElse loadAndCache map (wrapDocumentInfo(_, readonly, instance.exposeXPathTypes)) get
+        findEntry(instanceCaching) match {
+            case Some(cacheEntry) if ! cacheEntry.isExpired ⇒
+                debug("found cached instance", instanceCaching.debugPairs)
+                cacheEntry.instanceContent.documentInfo
+            case Some(cacheEntry) ⇒
+                // The expired entry is replaced once the instance is reloaded
+                debug("cached instance expired", instanceCaching.debugPairs)
+                loadOnce(staleWhileRevalidate option cacheEntry.instanceContent.documentInfo)
+            case None ⇒
+                debug("cached instance not found", instanceCaching.debugPairs)
+                loadOnce(None)
+        }
     }
 
     // Remove the given entry from the cache if present
@@ -107,21 +204,27 @@ object XFormsServerSharedInstancesCache {
         debug("removed all instances", Seq("count" → count.toString))
     }
 
-    // Find instance content in cache
-    private def find(instanceCaching: InstanceCaching)(implicit logger: IndentedLogger) = {
-
+    // Find cache entry, expired or not
+    private def findEntry(instanceCaching: InstanceCaching) = {
         val cache = ObjectCache.instance(XFormsSharedInstancesCacheName, XFormsSharedInstancesCacheDefaultSize)
-        val cacheKey = createCacheKey(instanceCaching)
-
-        def isExpired(cacheEntry: CacheEntry) =
-            cacheEntry.timeToLive >= 0 && ((cacheEntry.timestamp + cacheEntry.timeToLive) < System.currentTimeMillis)
+        Option(cache.findValid(createCacheKey(instanceCaching), ConstantValidity).asInstanceOf[CacheEntry])
+    }
 
-        Option(cache.findValid(cacheKey, ConstantValidity).asInstanceOf[CacheEntry]) match {
-            case Some(cacheEntry) if isExpired(cacheEntry) ⇒
-                // Remove expired entry
-                debug("expiring cached instance", instanceCaching.debugPairs)
-                cache.remove(cacheKey)
-                None
+    // Find instance content in cache
+    //
+    // An expired entry is kept, as it is replaced once the instance is reloaded. With stale-while-revalidate, it is
+    // used while another request reloads it. Otherwise, the caller reloads it with findContentOrLoad().
+    private[xforms] def find(instanceCaching: InstanceCaching, staleWhileRevalidate: Boolean)(implicit logger: IndentedLogger) =
+        findEntry(instanceCaching) match {
+            case Some(cacheEntry) if cacheEntry.isExpired ⇒
+                if (staleWhileRevalidate && pendingLoads.containsKey(createCacheKey(instanceCaching))) {
+                    debug("using expired instance while it is reloaded", instanceCaching.debugPairs)
+                    staleHits.incrementAndGet()
+                    Some(cacheEntry.instanceContent.documentInfo)
+                } else {
+                    debug("cached instance expired", instanceCaching.debugPairs)
+                    None
+                }
             case Some(cacheEntry) ⇒
                 // Instance was found
                 debug("found cached instance", instanceCaching.debugPairs)
@@ -131,7 +234,6 @@ object XFormsServerSharedInstancesCache {
                 debug("cached instance not found", instanceCaching.debugPairs)
                 None
         }
-    }
 
     // Make key also depend on handleXInclude and on request body hash if present
     private def createCacheKey(instanceCaching: InstanceCaching): InternalCacheKey =
@@ -70,7 +70,7 @@ object XFormsSetindexAction {
                 
                 if (indentedLogger.isDebugEnabled)
                     indentedLogger.logDebug("xf:setindex", "setting index upon xf:setindex",
-                        "old index", repeatControl map (_.getIndex.toString) orNull,
+                        "old index", repeatControl map (_.getAbsoluteIndex.toString) orNull,
                         "new index", index.toString)
 
                 val focusedBefore = interpreter.containingDocument().getControls.getFocusedControl
@@ -82,7 +82,7 @@ object XFormsSetindexAction {
                 Focus.updateFocusWithEvents(focusedBefore)
                 
                 // However at this time return the index only for repeat controls as we don't have a generic way to figure this out yet
-                repeatControl map (_.getIndex) getOrElse -1
+                repeatControl map (_.getAbsoluteIndex) getOrElse -1
                 
             case _ ⇒
                 // "If there is a null search result for the target object and the source object is an XForms action such as
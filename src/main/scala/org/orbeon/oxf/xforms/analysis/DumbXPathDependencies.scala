@@ -13,8 +13,7 @@
  */
 package org.orbeon.oxf.xforms.analysis
 
-import org.orbeon.oxf.xforms.XFormsInstance
-import org.orbeon.oxf.xforms.XFormsModel
+import org.orbeon.oxf.xforms.{MapSet, XFormsInstance, XFormsModel}
 import org.orbeon.oxf.xforms.analysis.model.{StaticBind, Model}
 import org.orbeon.saxon.om.NodeInfo
 import org.orbeon.oxf.xforms.analysis.model.StaticBind.ValidationLevel
@@ -46,4 +45,5 @@ class DumbXPathDependencies extends XPathDependencies {
     def hasAnyCalculationBind(model: Model, instancePrefixedId: String) = true
     def hasAnyValidationBind(model: Model, instancePrefixedId: String) = true
     def requireModelMIPUpdate(model: Model, bind: StaticBind, mipName: String, level: ValidationLevel) = true
+    def recalculateChangeset(model: Model): Option[MapSet[String, String]] = None
 }
\ No newline at end of file
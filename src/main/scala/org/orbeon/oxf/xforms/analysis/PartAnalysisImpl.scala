@@ -14,8 +14,10 @@
 package org.orbeon.oxf.xforms.analysis
 
 import collection.JavaConverters._
+import java.util.concurrent.ConcurrentHashMap
 import org.orbeon.oxf.xforms.XFormsStaticStateImpl.StaticStateDocument
 import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.util.XPath.CompiledExpression
 import org.orbeon.saxon.dom4j.DocumentWrapper
 import org.dom4j.Element
 import org.orbeon.oxf.xforms._
@@ -60,7 +62,7 @@ class PartAnalysisImpl(
     partAnalysis ⇒
 
     def locationData = staticState.locationData
-    def getIndentedLogger = staticState.getIndentedLogger
+    def getIndentedLogger = PartModelAnalysis.currentWorkerLogger getOrElse staticState.getIndentedLogger
 
     private def iterator(start: Option[PartAnalysis]): Iterator[PartAnalysis] = new Iterator[PartAnalysis] {
 
@@ -84,6 +86,17 @@ class PartAnalysisImpl(
     def getProperty[T](propertyName: String) = staticStateDocument.getProperty[T](propertyName)
     val isExposeXPathTypes = getProperty[Boolean](P.EXPOSE_XPATH_TYPES_PROPERTY)
 
+    // Binding expressions compiled during static analysis, so that runtime evaluation doesn't compile them again. The
+    // binding is compiled as written, and variables are resolved upon evaluation, so the compiled expression only
+    // depends on the expression and its namespace mapping.
+    private val compiledBindings = new ConcurrentHashMap[(String, String), CompiledExpression]
+
+    def addCompiledBinding(namespaceMapping: NamespaceMapping, expression: CompiledExpression): Unit =
+        compiledBindings.putIfAbsent((namespaceMapping.hash, expression.string), expression)
+
+    def getCompiledBinding(namespaceMapping: NamespaceMapping, xpathString: String) =
+        compiledBindings.get((namespaceMapping.hash, xpathString))
+
     /**
      * Return the namespace mappings for a given element. If the element does not have an id, or if the mapping is not
      * cached, compute the mapping on the fly. Note that in this case, the resulting mapping is not added to the cache
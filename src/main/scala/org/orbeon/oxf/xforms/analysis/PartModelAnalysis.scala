@@ -16,6 +16,11 @@ package org.orbeon.oxf.xforms.analysis
 import collection.JavaConverters._
 import model.Model
 import collection.mutable.{LinkedHashMap, Buffer}
+import scala.collection.parallel.ForkJoinTaskSupport
+import scala.concurrent.forkjoin.ForkJoinPool
+import org.orbeon.oxf.pipeline.InitUtils.withPipelineContext
+import org.orbeon.oxf.util.IndentedLogger
+import org.orbeon.oxf.xforms.XFormsProperties
 import org.orbeon.oxf.xforms.event.EventHandlerImpl
 import org.orbeon.oxf.xforms.xbl.Scope
 
@@ -77,12 +82,17 @@ trait PartModelAnalysis extends TransientState {
             modelByInstancePrefixedId -= instance.prefixedId
     }
 
-    protected def analyzeModelsXPath() =
-        for {
-            (scope, models) ← modelsByScope
-            model ← models
-        } yield
-            model.analyzeXPath()
+    protected def analyzeModelsXPath(): Unit = {
+        val models = modelsByScope.values.flatten.toList
+
+        // The XPath analysis of a model doesn't depend on other models, so models can be analyzed concurrently
+        if (PartModelAnalysis.parallelism > 1 && models.size > 1) {
+            val parallelModels = models.par
+            parallelModels.tasksupport = PartModelAnalysis.taskSupport
+            parallelModels foreach (model ⇒ PartModelAnalysis.asWorker(staticState.getIndentedLogger)(model.analyzeXPath()))
+        } else
+            models foreach (_.analyzeXPath())
+    }
 
     override def freeTransientState() = {
         super.freeTransientState()
@@ -90,4 +100,24 @@ trait PartModelAnalysis extends TransientState {
         for (model ← modelsByPrefixedId.values)
             model.freeTransientState()
     }
-}
\ No newline at end of file
+}
+
+object PartModelAnalysis {
+    // Pool shared by all static analyses
+    private lazy val parallelism = XFormsProperties.getXPathAnalysisParallelism
+    private lazy val taskSupport = new ForkJoinTaskSupport(new ForkJoinPool(parallelism))
+
+    private val workerLogger = new ThreadLocal[IndentedLogger]
+
+    // Logger of the model analysis running in the current thread, if any
+    def currentWorkerLogger = Option(workerLogger.get)
+
+    // IndentedLogger is not thread-safe, so each worker logs with its own logger, and caches use the current
+    // PipelineContext, so each worker also runs with its own context
+    private def asWorker(logger: IndentedLogger)(body: ⇒ Unit): Unit = {
+        val previousLogger = workerLogger.get
+        workerLogger.set(new IndentedLogger(logger, new IndentedLogger.Indentation, logger.isDebugEnabled))
+        try withPipelineContext(_ ⇒ body)
+        finally workerLogger.set(previousLogger)
+    }
+}
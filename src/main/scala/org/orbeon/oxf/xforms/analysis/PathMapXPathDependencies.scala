@@ -128,6 +128,10 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
         def isMIPInitiallyDirty(mip: StaticBind#MIP) =
             mip.isValidateMIP && ! validateMIPsEvaluatedOnce || ! mip.isValidateMIP && ! calculateMIPsEvaluatedOnce
 
+        // The changeset can only be used once calculate MIPs have been evaluated and if there is no structural change
+        def recalculateChangesetOption =
+            if (calculateMIPsEvaluatedOnce && ! hasStructuralChanges) Some(recalculateChangeset) else None
+
         // TODO: Scenario that can break this:
         // recalculate → value change → xxf-value-changed → insert → calculateClean = false → recalculateDone → calculateClean = true
         // although following rebuild will set calculateClean = false, this is not right and might still lead to issues
@@ -472,6 +476,8 @@ class PathMapXPathDependencies(private val containingDocument: XFormsContainingD
     def hasAnyValidationBind(model: Model, instancePrefixedId: String) =
         ! model.figuredAllBindRefAnalysis || model.validationBindInstances.contains(instancePrefixedId)
 
+    def recalculateChangeset(model: Model) = getModelState(model.prefixedId).recalculateChangesetOption
+
     def requireModelMIPUpdate(model: Model, bind: StaticBind, mipName: String, level: ValidationLevel): Boolean = {
 
         // TODO: cache must store by MIP to optimize xf:bind/@ref over multiple nodes
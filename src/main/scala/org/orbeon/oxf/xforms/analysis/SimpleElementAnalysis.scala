@@ -15,9 +15,10 @@ package org.orbeon.oxf.xforms.analysis
 
 import collection.mutable.LinkedHashMap
 import org.dom4j.Element
-import org.orbeon.oxf.xforms.{XFormsUtils, XFormsConstants}
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsUtils, XFormsConstants}
 import org.orbeon.oxf.common.ValidationException
 import org.orbeon.oxf.xforms.xbl.Scope
+import org.orbeon.oxf.util.XPath
 import org.orbeon.oxf.util.XPath.CompiledExpression
 
 /**
@@ -95,7 +96,7 @@ class SimpleElementAnalysis(
                 ref match {
                     case Some(ref) ⇒
                         // New binding expression
-                        Some(analyzeXPath(getContextAnalysis, ref))
+                        Some(analyzeXPath(getContextAnalysis, inScopeVariables, compileBinding(ref)))
                     case None ⇒
                         // TODO: TEMP: Control does not have a binding. But return one anyway so that controls w/o their own binding also get updated.
                         getContextAnalysis
@@ -103,6 +104,13 @@ class SimpleElementAnalysis(
         }
     }
 
+    // Compile a binding expression once for both analysis and runtime evaluation
+    protected def compileBinding(ref: String): CompiledExpression = {
+        val compiledExpression = XPath.compileExpression(ref, namespaceMapping, locationData, XFormsContainingDocument.getFunctionLibrary, avt = false)
+        part.addCompiledBinding(namespaceMapping, compiledExpression)
+        compiledExpression
+    }
+
     // No value defined, leave this to subclasses
     protected def computeValueAnalysis: Option[XPathAnalysis] = None
 
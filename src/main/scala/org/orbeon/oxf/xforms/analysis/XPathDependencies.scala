@@ -13,8 +13,7 @@
  */
 package org.orbeon.oxf.xforms.analysis
 
-import org.orbeon.oxf.xforms.XFormsInstance
-import org.orbeon.oxf.xforms.XFormsModel
+import org.orbeon.oxf.xforms.{MapSet, XFormsInstance, XFormsModel}
 import org.orbeon.oxf.xforms.analysis.model.{StaticBind, Model}
 import org.orbeon.saxon.om.NodeInfo
 import org.orbeon.oxf.xforms.analysis.model.StaticBind.ValidationLevel
@@ -55,4 +54,7 @@ trait XPathDependencies {
     def hasAnyValidationBind(model: Model, instancePrefixedId: String): Boolean
 
     def requireModelMIPUpdate(model: Model, bind: StaticBind, mipName: String, level: ValidationLevel): Boolean
+
+    // Paths changed since the previous recalculate, if only MIPs depending on them need to be evaluated again
+    def recalculateChangeset(model: Model): Option[MapSet[String, String]]
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ import org.orbeon.oxf.xforms.analysis._
 import org.orbeon.oxf.xforms.xbl.Scope
 import org.orbeon.oxf.xforms.XFormsConstants._
 import org.orbeon.oxf.xforms.event.XFormsEvents._
+import scala.util.Try
 
 class RepeatControl(staticStateContext: StaticStateContext, element: Element, parent: Option[ElementAnalysis], preceding: Option[ElementAnalysis], scope: Scope)
     extends ContainerControl(staticStateContext, element, parent, preceding, scope)
@@ -31,6 +32,9 @@ class RepeatControl(staticStateContext: StaticStateContext, element: Element, pa
 
     val isAroundTableOrListElement = appearances(XXFORMS_SEPARATOR_APPEARANCE_QNAME)
 
-    override protected def externalEventsDef = super.externalEventsDef + XXFORMS_DND
+    // Number of iterations per page, if only one page of iterations is created at a time, and if it's a positive integer
+    val pageSize = Option(element.attributeValue(XXFORMS_PAGE_SIZE_QNAME)) flatMap (size ⇒ Try(size.trim.toInt).toOption) filter (_ > 0)
+
+    override protected def externalEventsDef = super.externalEventsDef + XXFORMS_DND ++ (pageSize map (_ ⇒ XXFORMS_REPEAT_PAGE))
     override val externalEvents              = externalEventsDef
 }
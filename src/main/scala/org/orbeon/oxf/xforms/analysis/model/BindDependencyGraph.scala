@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import collection.mutable
+import org.orbeon.oxf.util.{IndentedLogger, Logging}
+import org.orbeon.oxf.xforms.MapSet
+import org.orbeon.oxf.xforms.analysis.XPathAnalysis
+import Model._
+
+/**
+ * Dependencies between the binds of a model, built from the XPath analysis of the binds and of their MIPs.
+ *
+ * Calculate binds are sorted so that a bind comes after the calculate binds producing the values it depends on. This
+ * allows a recalculate to evaluate, in a single pass, only the binds reachable from the nodes which changed since the
+ * previous recalculate.
+ */
+class BindDependencyGraph private (
+        calculateBindsInOrder: Seq[StaticBind],
+        successors: collection.Map[StaticBind, Seq[StaticBind]],
+        calculateIndex: BindDependencyGraph.PathIndex,
+        computedIndex: BindDependencyGraph.PathIndex) {
+
+    // Calculate binds depending on the changed paths, directly or through other calculate binds, in topological order
+    def affectedCalculateBinds(changeset: MapSet[String, String]): Seq[StaticBind] = {
+
+        val affected = mutable.HashSet[StaticBind]()
+        val toVisit  = mutable.Stack[StaticBind](calculateIndex.binds(changeset): _*)
+
+        while (toVisit.nonEmpty) {
+            val bind = toVisit.pop()
+            if (affected.add(bind))
+                toVisit.pushAll(successors.getOrElse(bind, Nil))
+        }
+
+        calculateBindsInOrder filter affected
+    }
+
+    // Binds with relevant, readonly, required or custom MIPs which might depend on the changed paths, in document order
+    def affectedComputedBinds(changeset: MapSet[String, String]): Seq[StaticBind] =
+        computedIndex.binds(changeset)
+}
+
+object BindDependencyGraph extends Logging {
+
+    private val ComputedMIPNames = Set(Relevant.name, Readonly.name, Required.name)
+
+    // Binds depending on instance paths, plus binds which must always be considered
+    class PathIndex(byPath: collection.Map[(String, String), Seq[StaticBind]], always: Seq[StaticBind], order: StaticBind ⇒ Int) {
+
+        def bindsForPath(path: (String, String)) = byPath.getOrElse(path, Nil)
+
+        def binds(changeset: MapSet[String, String]): Seq[StaticBind] = {
+            val result = mutable.LinkedHashSet[StaticBind](always: _*)
+            for (path ← changeset; binds ← byPath.get(path))
+                result ++= binds
+            result.toList sortBy order
+        }
+    }
+
+    /**
+     * Build the graph for the given binds, in document order.
+     *
+     * Return None if the dependencies of a bind or calculate MIP couldn't be figured out, or if calculate binds depend
+     * on each other circularly. In that case, binds must all be evaluated in document order.
+     */
+    def apply(model: Model, binds: Seq[StaticBind])(implicit logger: IndentedLogger): Option[BindDependencyGraph] = {
+
+        val order = binds.zipWithIndex.toMap
+
+        def isKnown(analysis: XPathAnalysis) = analysis.figuredOutDependencies
+        def dependsOnOtherModel(analysis: XPathAnalysis) = analysis.dependentModels exists (_ != model.prefixedId)
+
+        // Paths which, when changed, cause the MIP to be evaluated again, see XPathAnalysis.intersectsValue
+        def mipPaths(analysis: XPathAnalysis) = analysis.valueDependentPaths.toList ::: analysis.returnablePaths.toList
+
+        // Changing a node also changes the string value of its ancestors, see PathMapXPathDependencies
+        def pathAndAncestors(path: (String, String)) = {
+            val (instance, fingerprints) = path
+            val steps = if (fingerprints.isEmpty) Nil else fingerprints.split('/').toList
+            (0 to steps.size).toList map (i ⇒ instance → (steps take i mkString "/"))
+        }
+
+        def buildIndex(mipsByBind: Seq[(StaticBind, Seq[StaticBind#XPathMIP])], alwaysBinds: Seq[StaticBind]) = {
+            val byPath = mutable.HashMap[(String, String), Seq[StaticBind]]()
+            val always = mutable.LinkedHashSet[StaticBind](alwaysBinds: _*)
+
+            for ((bind, mips) ← mipsByBind; mip ← mips) {
+                // With another model, dependencies are not reliably available, see PathMapXPathDependencies
+                if (! isKnown(mip.analysis) || dependsOnOtherModel(mip.analysis))
+                    always += bind
+
+                for (path ← mipPaths(mip.analysis); current = byPath.getOrElse(path, Nil) if ! current.contains(bind))
+                    byPath += path → (current :+ bind)
+            }
+
+            new PathIndex(byPath, always.toList, order)
+        }
+
+        val calculateBinds = binds filter (_.getCalculate ne null)
+        val calculateMIPs  = calculateBinds map (bind ⇒ bind → (bind.getMIPs(Calculate.name) collect { case mip: StaticBind#XPathMIP ⇒ mip }))
+
+        // Both the nodes set by calculate binds and the nodes they depend on must be known
+        val canOrder =
+            model.figuredAllBindRefAnalysis &&
+            (calculateBinds forall (_.getBindingAnalysis exists isKnown)) &&
+            (calculateMIPs forall { case (_, mips) ⇒ mips forall (mip ⇒ isKnown(mip.analysis)) })
+
+        if (! canOrder)
+            None
+        else {
+            val calculateIndex = buildIndex(calculateMIPs, Nil)
+
+            // A calculate bind precedes the calculate binds depending on the nodes it sets
+            val successors =
+                for (bind ← calculateBinds)
+                yield
+                    bind → {
+                        for {
+                            path      ← bind.getBindingAnalysis.get.returnablePaths.toList flatMap pathAndAncestors
+                            successor ← calculateIndex.bindsForPath(path)
+                            if successor ne bind
+                        } yield
+                            successor
+                    }.distinct
+
+            topologicalOrder(calculateBinds, successors.toMap, order) match {
+                case Right(calculateBindsInOrder) ⇒
+
+                    val computedMIPs =
+                        for (bind ← binds if bind.hasCalculateComputedMIPs)
+                        yield
+                            bind → (ComputedMIPNames.toList flatMap bind.getMIPs collect { case mip: StaticBind#XPathMIP ⇒ mip })
+
+                    // Custom MIPs are evaluated upon each recalculate
+                    val computedIndex = buildIndex(computedMIPs, binds filter (_.hasCustomMIPs))
+
+                    Some(new BindDependencyGraph(calculateBindsInOrder, successors.toMap, calculateIndex, computedIndex))
+
+                case Left(cycle) ⇒
+                    warn("circular dependency between calculate binds, recalculating all binds", Seq(
+                        "model" → model.prefixedId,
+                        "binds" → (cycle map (_.staticId) mkString " ")))
+                    None
+            }
+        }
+    }
+
+    // Kahn's algorithm, keeping document order between independent binds
+    // Return either the binds in order, or the binds which are part of or depend on a cycle
+    private def topologicalOrder(
+            binds: Seq[StaticBind],
+            successors: collection.Map[StaticBind, Seq[StaticBind]],
+            order: StaticBind ⇒ Int): Either[Seq[StaticBind], Seq[StaticBind]] = {
+
+        val inDegree = mutable.HashMap[StaticBind, Int](binds map (_ → 0): _*)
+        for ((_, targets) ← successors; target ← targets)
+            inDegree(target) += 1
+
+        val ready  = mutable.TreeSet[StaticBind]()(Ordering.by(order))
+        val result = mutable.ListBuffer[StaticBind]()
+
+        ready ++= binds filter (inDegree(_) == 0)
+
+        while (ready.nonEmpty) {
+            val bind = ready.head
+            ready -= bind
+            result += bind
+
+            for (successor ← successors.getOrElse(bind, Nil)) {
+                inDegree(successor) -= 1
+                if (inDegree(successor) == 0)
+                    ready += successor
+            }
+        }
+
+        if (result.size == binds.size)
+            Right(result.toList)
+        else
+            Left(binds filter (inDegree(_) > 0))
+    }
+}
@@ -60,6 +60,12 @@ class BindTree(val model: Model, bindElements: Seq[Element], val isCustomMIP: QN
 
     def hasBinds = topLevelBinds.nonEmpty
 
+    // All binds in document order, unlike bindsById which is in order of creation
+    def bindsInDocumentOrder: List[StaticBind] = {
+        def descendantsOrSelf(bind: StaticBind): List[StaticBind] = bind :: (bind.children.toList flatMap descendantsOrSelf)
+        topLevelBinds.toList flatMap descendantsOrSelf
+    }
+
     // Destroy the tree of binds
     def destroy(): Unit =
         bindsById.values foreach model.part.unmapScopeIds
@@ -110,6 +116,9 @@ class BindTree(val model: Model, bindElements: Seq[Element], val isCustomMIP: QN
         def variableAnalysis = bind.getBindingAnalysis
     }
 
+    // Dependencies between binds, if XPath analysis figured them out
+    var bindDependencyGraph: Option[BindDependencyGraph] = None
+
     // Whether we figured out all XPath ref analysis
     var figuredAllBindRefAnalysis = ! hasBinds // default value sets to true if no binds
 
@@ -127,6 +136,9 @@ class BindTree(val model: Model, bindElements: Seq[Element], val isCustomMIP: QN
             validationBindInstances.clear()
             // keep bindAnalysis as those can be used independently from each other
         }
+
+        // Build the dependency graph used for incremental recalculate
+        bindDependencyGraph = BindDependencyGraph(model, bindsInDocumentOrder)(model.logger)
     }
 
     def bindsToXML(helper: XMLReceiverHelper): Unit =
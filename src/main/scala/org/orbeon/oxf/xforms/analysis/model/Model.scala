@@ -257,6 +257,7 @@ trait ModelBinds {
     }
 
     def bindsById = bindTree().bindsById
+    def bindsInDocumentOrder = bindTree().bindsInDocumentOrder
     def bindsByName = bindTree().bindsByName
     def jBindsByName = bindTree().bindsByName.asJava
 
@@ -282,6 +283,7 @@ trait ModelBinds {
     def containsBind(bindId: String) = bindTree().bindIds(bindId)
 
     def figuredAllBindRefAnalysis = bindTree().figuredAllBindRefAnalysis
+    def bindDependencyGraph = bindTree().bindDependencyGraph
 
     def analyzeBindsXPath() = bindTree().analyzeBindsXPath()
     def bindsToXML(helper: XMLReceiverHelper) = bindTree().bindsToXML(helper)
@@ -31,6 +31,15 @@ class StaticBind(
 
     import StaticBind._
 
+    // Like MIPs, the binding is compiled right away, so that runtime binds reuse it even without XPath analysis
+    val compiledRef = ref map { ref ⇒
+        val compiledExpression = OrbeonXPath.compileExpression(ref, namespaceMapping, locationData, XFormsFunctionLibrary, avt = false)
+        part.addCompiledBinding(namespaceMapping, compiledExpression)
+        compiledExpression
+    }
+
+    override protected def compileBinding(ref: String) = compiledRef.get
+
     // Represent an individual MIP on an <xf:bind> element
     trait MIP {
         val id: String
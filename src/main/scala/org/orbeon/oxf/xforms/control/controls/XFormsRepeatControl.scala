@@ -27,15 +27,16 @@ import org.orbeon.oxf.xforms.action.actions.XFormsInsertAction
 import org.orbeon.oxf.xforms.event.events.XXFormsDndEvent
 import org.orbeon.oxf.xforms.event.events.XXFormsIndexChangedEvent
 import org.orbeon.oxf.xforms.event.events.XXFormsNodesetChangedEvent
+import org.orbeon.oxf.xforms.event.events.XXFormsRepeatPageEvent
 import org.orbeon.oxf.xforms.event.events.XXFormsSetindexEvent
 import org.orbeon.oxf.xforms.xbl.XBLContainer
-import org.orbeon.saxon.om.{NodeInfo, Item}
+import org.orbeon.saxon.om.{VirtualNode, NodeInfo, Item}
 import org.orbeon.oxf.xforms.XFormsConstants._
 import org.orbeon.oxf.util.Logging
 
 import control.controls.XFormsRepeatControl._
 import java.lang.{Integer ⇒ JInteger}
-import java.util.{ArrayList, Map ⇒ JMap, Collections}
+import java.util.{ArrayList, List ⇒ JList, Map ⇒ JMap, Collections}
 import collection.JavaConverters._
 import org.orbeon.oxf.xforms.BindingContext
 import collection.mutable.{ListBuffer, ArrayBuffer, LinkedHashMap}
@@ -61,6 +62,7 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
                 // NOTE: Don't use setIndex() as we don't want to cause initialLocal != currentLocal
                 val local = getCurrentLocal.asInstanceOf[XFormsRepeatControlLocal]
                 local.index = state.keyValues("index").toInt
+                state.keyValues.get("page") foreach (page ⇒ local.page = page.toInt)
                 true
             case None ⇒
                 false
@@ -226,6 +228,54 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
         // TODO: should dispatch xxforms-move instead of xforms-insert?
     }
 
+    // Relevant items before keeping only the current page, kept only if the repeat is paged
+    private var fullNodeset: JList[Item] = Collections.emptyList[Item]
+    private var fullSize = 0
+
+    // Current page, when the repeat is paged with xxf:page-size, kept within the number of pages
+    def getPage =
+        if (staticControl.pageSize.isDefined)
+            math.min(math.max(getCurrentLocal.asInstanceOf[XFormsRepeatControlLocal].page, 1), getPageCount)
+        else
+            1
+
+    def getPageCount =
+        staticControl.pageSize map (pageSize ⇒ math.max((fullSize + pageSize - 1) / pageSize, 1)) getOrElse 1
+
+    // Show another page of iterations. Only the iterations of the current page are created.
+    def setPage(page: Int): Unit =
+        if (staticControl.pageSize.isDefined && page != getPage) {
+            getLocalForUpdate.asInstanceOf[XFormsRepeatControlLocal].page = math.min(math.max(page, 1), getPageCount)
+            // Reevaluate the binding, which keeps only the items of the new page, and update iterations
+            updateSequenceForInsertDelete(null)
+        }
+
+    // Offset of the current page in the whole sequence
+    private def pageOffset = staticControl.pageSize map (_ * (getPage - 1)) getOrElse 0
+
+    // Index in the whole sequence, as returned by index(), so that it can be used with xf:insert and xf:delete
+    def getAbsoluteIndex = if (getIndex > 0) getIndex + pageOffset else getIndex
+
+    // Set the index from an index in the whole sequence, first showing the page containing that item
+    def setAbsoluteIndex(index: Int): Unit = staticControl.pageSize match {
+        case Some(pageSize) if index > 0 && fullSize > 0 ⇒
+            setPage((math.min(index, fullSize) - 1) / pageSize + 1)
+            setIndex(index - pageOffset)
+        case _ ⇒
+            setIndex(index)
+    }
+
+    // Page containing the last inserted item, if the repeat is paged and that item is on another page
+    private def pageOfLastInserted(insertedNodeInfos: Seq[NodeInfo]) =
+        for {
+            pageSize ← staticControl.pageSize
+            inserted ← Option(insertedNodeInfos)
+            position ← findNodeIndexes(inserted, fullNodeset.asScala).reverse find (_ != -1)
+            page = position / pageSize + 1
+            if page != getPage
+        } yield
+            page
+
     def isDnD = {
         val dndAttribute = element.attributeValue(XXFORMS_DND_QNAME)
         dndAttribute != null && dndAttribute != "none"
@@ -243,10 +293,24 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
         val items       = contextStack.getCurrentBindingContext.nodeset
         val allRelevant = items.asScala forall isRelevantItem
 
-        if (allRelevant)
-            contextStack.getCurrentBindingContext
-        else
-            contextStack.getCurrentBindingContext.copy(nodeset = items.asScala filter isRelevantItem asJava)
+        val relevantBindingContext =
+            if (allRelevant)
+                contextStack.getCurrentBindingContext
+            else
+                contextStack.getCurrentBindingContext.copy(nodeset = items.asScala filter isRelevantItem asJava)
+
+        fullSize    = relevantBindingContext.nodeset.size
+        fullNodeset = if (staticControl.pageSize.isDefined) relevantBindingContext.nodeset else Collections.emptyList[Item]
+
+        // Keep only the items of the current page
+        staticControl.pageSize match {
+            case Some(pageSize) if fullSize > pageSize ⇒
+                val from = (getPage - 1) * pageSize
+                val to   = math.min(from + pageSize, fullSize)
+                relevantBindingContext.copy(nodeset = new ArrayList[Item](relevantBindingContext.nodeset.subList(from, to)))
+            case _ ⇒
+                relevantBindingContext
+        }
     }
 
     def updateSequenceForInsertDelete(insertedNodeInfos: Seq[NodeInfo]): Unit = {
@@ -261,7 +325,7 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
         val oldRepeatNodeset = bindingContext.getNodeset.asScala
 
         // Set new binding context on the repeat control
-        locally {
+        def reevaluateBinding(): Unit = {
             // NOTE: here we just reevaluate against the parent; maybe we should reevaluate all the way down
             val contextStack = container.getContextStack
             if (bindingContext.parent eq null)
@@ -279,6 +343,14 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
             evaluateBindingAndValues(contextStack.getCurrentBindingContext, update = true)
         }
 
+        reevaluateBinding()
+
+        // If paged, show the page of the last inserted item, so that the index can point to it
+        pageOfLastInserted(insertedNodeInfos) foreach { page ⇒
+            getLocalForUpdate.asInstanceOf[XFormsRepeatControlLocal].page = page
+            reevaluateBinding()
+        }
+
         // Move things around and create new iterations if needed
         if (! Controls.compareNodesets(oldRepeatNodeset, bindingContext.getNodeset.asScala)) {
             // Update iterationsInitialStateIfNeeded()
@@ -564,19 +636,12 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
             }
         }
 
-    private def findNodeIndexes(nodeset1: Seq[Item], nodeset2: Seq[Item]) = {
-
-        val nodeset2Scala = nodeset2
-
-        def indexOfItem(otherItem: Item) =
-            nodeset2Scala indexWhere (XFormsUtils.compareItems(_, otherItem))
-
-        nodeset1 map indexOfItem toArray
-    }
-
-    // Serialize index
+    // Serialize index, and page if paged
     override def serializeLocal: JMap[String, String] =
-        Collections.singletonMap("index", Integer.toString(getIndex))
+        if (staticControl.pageSize.isDefined)
+            Map("index" → getIndex.toString, "page" → getPage.toString).asJava
+        else
+            Collections.singletonMap("index", Integer.toString(getIndex))
 
     // "4.3.7 The xforms-focus Event [...] Setting focus to a repeat container form control sets the focus to the
     // repeat object  associated with the repeat index"
@@ -590,8 +655,9 @@ class XFormsRepeatControl(container: XBLContainer, parent: XFormsControl, elemen
     override def computeRelevant = super.computeRelevant && getSize > 0
 
     override def performDefaultAction(event: XFormsEvent) = event match {
-        case e: XXFormsSetindexEvent ⇒ setIndex(e.index)
+        case e: XXFormsSetindexEvent ⇒ setAbsoluteIndex(e.index)
         case e: XXFormsDndEvent ⇒ doDnD(e)
+        case e: XXFormsRepeatPageEvent ⇒ e.page foreach setPage
         case _ ⇒ super.performDefaultAction(event)
     }
 
@@ -613,6 +679,7 @@ object XFormsRepeatControl {
 
     class XFormsRepeatControlLocal extends ControlLocalSupport.XFormsControlLocal {
         var index = -1
+        var page = 1
     }
 
     case class RefreshInfo(
@@ -686,6 +753,42 @@ object XFormsRepeatControl {
                 })
         }
     
+    // For each item of nodeset1, find the index of the first equal item in nodeset2, or -1
+    // Nodes are looked up in a hash index, so that matching large repeats remains linear. Atomic values, which are
+    // uncommon in repeats, are compared with each item of nodeset2.
+    def findNodeIndexes(nodeset1: Seq[Item], nodeset2: Seq[Item]): Array[Int] = {
+
+        val nodeIndexes = collection.mutable.HashMap[AnyRef, Int]()
+        for ((item, index) ← nodeset2.iterator.zipWithIndex; key ← nodeKey(item))
+            if (! nodeIndexes.contains(key))
+                nodeIndexes += key → index
+
+        def indexOfItem(otherItem: Item) =
+            nodeKey(otherItem) match {
+                case Some(key) ⇒ nodeIndexes.getOrElse(key, -1)
+                case None      ⇒ nodeset2 indexWhere (XFormsUtils.compareItems(_, otherItem))
+            }
+
+        nodeset1 map indexOfItem toArray
+    }
+
+    // Key with the same equality as XFormsUtils.compareItems for nodes
+    // Wrappers of mutable nodes are created as needed, so use the identity of the wrapped node. Other nodes have an
+    // hashCode consistent with isSameNodeInfo.
+    private def nodeKey(item: Item): Option[AnyRef] = item match {
+        case virtualNode: VirtualNode ⇒ Some(new IdentityKey(virtualNode.getUnderlyingNode))
+        case node: NodeInfo           ⇒ Some(node)
+        case _                        ⇒ None
+    }
+
+    private class IdentityKey(val underlying: AnyRef) {
+        override def hashCode = System.identityHashCode(underlying)
+        override def equals(other: Any) = other match {
+            case otherKey: IdentityKey ⇒ otherKey.underlying eq underlying
+            case _                     ⇒ false
+        }
+    }
+
     private def suffixForRepeats(indexes: collection.Map[String, Int], repeats: Seq[RepeatControl]) =
         repeats map (repeat ⇒ indexes(repeat.prefixedId)) mkString REPEAT_INDEX_SEPARATOR_STRING
     
@@ -38,6 +38,7 @@ object ClientEvents extends Logging {
     // Only a few events specify custom properties that can be set by the client
     private val AllStandardProperties =
         XXFormsDndEvent.StandardProperties        ++
+        XXFormsRepeatPageEvent.StandardProperties ++
         KeypressEvent.StandardProperties          ++
         XXFormsUploadDoneEvent.StandardProperties ++
         XXFormsLoadEvent.StandardProperties
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.event.events
+
+import org.orbeon.oxf.xforms.event.XFormsEvent
+import org.orbeon.oxf.xforms.event.XFormsEvent._
+import org.orbeon.oxf.xforms.event.XFormsEventTarget
+import org.orbeon.oxf.xforms.event.XFormsEvents._
+import scala.util.Try
+
+// Show the given page of iterations of a repeat with xxf:page-size
+class XXFormsRepeatPageEvent(target: XFormsEventTarget, properties: PropertyGetter)
+    extends XFormsEvent(XXFORMS_REPEAT_PAGE, target, properties, bubbles = false, cancelable = false) {
+
+    def this(target: XFormsEventTarget, page: Int) =
+        this(target, Map("page" → Option(page)))
+
+    // The page is a string when sent by the client or set with xf:property, and is ignored if it isn't an integer
+    def page = property[Any]("page") flatMap (page ⇒ Try(page.toString.trim.toInt).toOption)
+}
+
+object XXFormsRepeatPageEvent {
+    val StandardProperties = Map(XXFORMS_REPEAT_PAGE → Seq("page"))
+}
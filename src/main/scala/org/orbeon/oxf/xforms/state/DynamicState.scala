@@ -77,11 +77,17 @@ case class DynamicState(
 
     // Encode to a string representation
     def encodeToString(compress: Boolean, isForceEncryption: Boolean): String =
-        XFormsUtils.encodeBytes(
-            toByteArray(this),
-            compress,
-            isForceEncryption
-        )
+        if (compress)
+            XFormsUtils.encodeCompressedBytes(
+                XFormsCompressor.compress(writeToStream(this, _)), // stream to the compressor without intermediate copy
+                isForceEncryption
+            )
+        else
+            XFormsUtils.encodeBytes(
+                toByteArray(this),
+                false,
+                isForceEncryption
+            )
 
     // Encode to an XML representation (as of 2012-02-05, used only by unit tests)
     def toXML = {
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import org.orbeon.oxf.util.SecureUtils
+import sbinary.Operations._
+import XFormsOperations._
+import XFormsProtocols._
+
+// Change to a serialized instance
+sealed trait InstanceDelta { def effectiveId: String }
+case class UnchangedInstance(effectiveId: String) extends InstanceDelta
+case class ReplacedInstance(instance: InstanceState) extends InstanceDelta { def effectiveId = instance.effectiveId }
+
+// Digests of the parts of a stored dynamic state, which is all that is needed to find what changed in the next state.
+// This is kept with the document instead of the stored state itself.
+case class DynamicStateSummary(
+    sequence: Long,
+    annotatedTemplate: String,
+    lastAjaxResponse: String,
+    instances: Map[String, String],
+    controls: Map[String, String]
+)
+
+object DynamicStateSummary {
+
+    def apply(state: DynamicState): DynamicStateSummary =
+        apply(state, state.decodeInstances, state.decodeControls)
+
+    def apply(state: DynamicState, instances: List[InstanceState], controls: List[ControlState]): DynamicStateSummary =
+        DynamicStateSummary(
+            state.sequence,
+            state.annotatedTemplate map (t ⇒ digest(asByteArray(t))) getOrElse "",
+            digest(asByteArray(state.lastAjaxResponse)),
+            (instances map (i ⇒ i.effectiveId → digest(i))).toMap,
+            (controls  map (c ⇒ c.effectiveId → digest(c))).toMap
+        )
+
+    def digest(instance: InstanceState): String = digest(toByteArray(instance))
+    def digest(control: ControlState): String   = digest(toByteArray(control))
+
+    // Not the configurable hash algorithm, as this is only compared in memory
+    private def digest(bytes: Array[Byte]) = SecureUtils.digestBytes(bytes, "SHA1", "hex")
+}
+
+// Difference between two dynamic states of the same document. Small parts of the state are stored in full in the
+// header, while instances and controls only carry what changed.
+case class DynamicStateDiff(
+    header: DynamicState,                          // without template, Ajax response, instances and controls
+    annotatedTemplate: Option[Option[Seq[Byte]]],  // None if unchanged
+    lastAjaxResponse: Option[Seq[Byte]],           // None if unchanged
+    instances: List[InstanceDelta],
+    controlIds: List[String],                      // all controls in order
+    changedControls: List[ControlState]
+) {
+    def applyTo(previous: DynamicState): DynamicState = {
+
+        lazy val previousInstances = (previous.decodeInstances map (i ⇒ i.effectiveId → i)).toMap
+        lazy val previousControls  = (previous.decodeControls map (c ⇒ c.effectiveId → c)).toMap
+
+        val newInstances = instances map {
+            case UnchangedInstance(effectiveId) ⇒ previousInstances(effectiveId)
+            case ReplacedInstance(instance)     ⇒ instance
+        }
+
+        val changedControlsMap = (changedControls map (c ⇒ c.effectiveId → c)).toMap
+        val newControls = controlIds map (id ⇒ changedControlsMap.getOrElse(id, previousControls(id)))
+
+        header.copy(
+            annotatedTemplate = annotatedTemplate getOrElse previous.annotatedTemplate,
+            lastAjaxResponse  = lastAjaxResponse getOrElse previous.lastAjaxResponse,
+            instances         = toByteSeq(newInstances),
+            controls          = toByteSeq(newControls)
+        )
+    }
+}
+
+object DynamicStateDiff {
+
+    // Diff from the previous state, and summary of the next state, decoding the next state only once
+    def apply(previous: DynamicStateSummary, next: DynamicState): (DynamicStateDiff, DynamicStateSummary) = {
+
+        val nextInstances = next.decodeInstances
+        val nextControls  = next.decodeControls
+        val nextSummary   = DynamicStateSummary(next, nextInstances, nextControls)
+
+        val instanceDeltas = nextInstances map { instance ⇒
+            if (previous.instances.get(instance.effectiveId) == nextSummary.instances.get(instance.effectiveId))
+                UnchangedInstance(instance.effectiveId)
+            else
+                ReplacedInstance(instance)
+        }
+
+        val diff =
+            DynamicStateDiff(
+                next.copy(annotatedTemplate = None, lastAjaxResponse = Seq(), instances = Seq(), controls = Seq()),
+                if (nextSummary.annotatedTemplate == previous.annotatedTemplate) None else Some(next.annotatedTemplate),
+                if (nextSummary.lastAjaxResponse == previous.lastAjaxResponse) None else Some(next.lastAjaxResponse),
+                instanceDeltas,
+                nextControls map (_.effectiveId),
+                nextControls filterNot (c ⇒ previous.controls.get(c.effectiveId) == nextSummary.controls.get(c.effectiveId))
+            )
+
+        (diff, nextSummary)
+    }
+}
+
+// Head of a chain of diffs stored under a dynamic state key: the base is stored in full, followed by `length` diffs.
+// `sequence` is the sequence number of the state obtained by applying all the diffs.
+case class DynamicStateChainHead(baseSequence: Long, length: Int, sequence: Long)
+
+/**
+ * Store dynamic states as a base snapshot followed by a chain of diffs.
+ *
+ * The value stored under a dynamic state key is tagged: it either contains a full dynamic state, or the head of a
+ * chain. The base and the diffs of a chain are stored under keys derived from the dynamic state key. When the chain
+ * reaches its maximum length, when the previous state doesn't match the end of the chain, or when a part of the chain
+ * is missing, the chain is rebased.
+ *
+ * Appending only checks that the parts of the chain are present, without reading them. Stores which expire idle
+ * entries must therefore give the parts the lifetime of the head, see `partKeys`.
+ */
+object DynamicStateChain {
+
+    private val FullTag: Byte  = 0
+    private val ChainTag: Byte = 1
+
+    private val PartSeparator = '/'
+
+    private def baseKey(key: String, head: DynamicStateChainHead) = key + PartSeparator + head.baseSequence
+    private def diffKey(key: String, head: DynamicStateChainHead, index: Int) = baseKey(key, head) + PartSeparator + index
+
+    private def allKeys(key: String, head: DynamicStateChainHead) =
+        baseKey(key, head) +: (1 to head.length map (diffKey(key, head, _)))
+
+    private def tagged(tag: Byte, bytes: Array[Byte]) = {
+        val result = new Array[Byte](bytes.length + 1)
+        result(0) = tag
+        System.arraycopy(bytes, 0, result, 1, bytes.length)
+        result
+    }
+
+    private def untagged(bytes: Array[Byte]) = java.util.Arrays.copyOfRange(bytes, 1, bytes.length)
+
+    private def decodeHead(bytes: Array[Byte]) =
+        if (bytes(0) == ChainTag) Some(fromByteArray[DynamicStateChainHead](untagged(bytes))) else None
+
+    // Encode a full dynamic state to store under a dynamic state key
+    def encodeFull(state: DynamicState): Array[Byte] = tagged(FullTag, toByteArray(state))
+
+    // Whether the key is the key of the base or of a diff of a chain
+    def isPartKey(key: String) = key.indexOf(PartSeparator) != -1
+
+    // Keys of the base and diffs of the chain, given a value stored under a dynamic state key
+    def partKeys(key: String, value: Array[Byte]): Seq[String] =
+        decodeHead(value).toList flatMap (allKeys(key, _))
+
+    // Store the next state under the given key, as a diff from the previous state if possible, and return the number of
+    // bytes written and the summary of the next state
+    def store(
+            key: String,
+            previous: Option[DynamicStateSummary],
+            next: DynamicState,
+            maxLength: Int,
+            get: String ⇒ Option[Array[Byte]],
+            contains: String ⇒ Boolean,
+            put: (String, Array[Byte]) ⇒ Unit,
+            remove: String ⇒ Unit): (Int, DynamicStateSummary) = {
+
+        def putCounting(key: String, bytes: Array[Byte]) = { put(key, bytes); bytes.length }
+
+        def putHead(head: DynamicStateChainHead) = putCounting(key, tagged(ChainTag, toByteArray(head)))
+
+        val currentHead = get(key) flatMap decodeHead
+
+        (currentHead, previous) match {
+            case (Some(head), Some(previousSummary))
+                    if head.sequence == previousSummary.sequence && head.length < maxLength && (allKeys(key, head) forall contains) ⇒
+                // Append to the chain
+                val (diff, nextSummary) = DynamicStateDiff(previousSummary, next)
+                val newHead = head.copy(length = head.length + 1, sequence = next.sequence)
+                (putCounting(diffKey(key, newHead, newHead.length), toByteArray(diff)) + putHead(newHead), nextSummary)
+            case _ ⇒
+                // Rebase
+                currentHead foreach (allKeys(key, _) foreach remove)
+
+                val newHead = DynamicStateChainHead(next.sequence, 0, next.sequence)
+                (putCounting(baseKey(key, newHead), toByteArray(next)) + putHead(newHead), DynamicStateSummary(next))
+        }
+    }
+
+    // Find the state stored under a dynamic state key
+    def find(key: String, get: String ⇒ Option[Array[Byte]]): Option[DynamicState] =
+        get(key) flatMap { bytes ⇒
+            bytes(0) match {
+                case FullTag ⇒
+                    Some(fromByteArray[DynamicState](untagged(bytes)))
+                case ChainTag ⇒
+                    val head = fromByteArray[DynamicStateChainHead](untagged(bytes))
+
+                    // Return None if any part of the chain is missing
+                    val base  = get(baseKey(key, head)) map (fromByteArray[DynamicState](_))
+                    val diffs = 1 to head.length map (index ⇒ get(diffKey(key, head, index)) map (fromByteArray[DynamicStateDiff](_)))
+
+                    if (base.isDefined && diffs.forall(_.isDefined))
+                        Some(diffs.flatten.foldLeft(base.get)((state, diff) ⇒ diff.applyTo(state)))
+                    else
+                        None
+            }
+        }
+}
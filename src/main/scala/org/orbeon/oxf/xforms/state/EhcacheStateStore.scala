@@ -13,19 +13,62 @@
  */
 package org.orbeon.oxf.xforms.state
 
+import java.util.concurrent.ConcurrentLinkedQueue
 import org.orbeon.oxf.pipeline.api.ExternalContext
-import net.sf.ehcache.{Element ⇒ EhElement }
+import net.sf.ehcache.{Element ⇒ EhElement, Ehcache}
+import net.sf.ehcache.event.CacheEventListenerAdapter
 import org.orbeon.oxf.xforms._
 import org.orbeon.oxf.util.SecureUtils
 
 /**
  * XForms state cache based on Ehcache.
+ *
+ * Static states are kept in the StaticStateTable. Each UUID mapping in the cache holds a reference on its static state,
+ * which is taken when the mapping is put and released when the mapping is evicted, expires or is removed. Replacing
+ * a mapping keeps its reference, as a document always has the same static state.
  */
 object EhcacheStateStore extends XFormsStateStore {
 
     private val storeDebugName = "Ehcache"
 
-    private def stateCache = Caches.stateCache
+    private lazy val stateCache = {
+        val cache = Caches.stateCache
+        cache.getCacheEventNotificationService.registerListener(new CacheEventListenerAdapter {
+            override def notifyElementPut(cache: Ehcache, element: EhElement)     = retainStaticState(element)
+            override def notifyElementRemoved(cache: Ehcache, element: EhElement) = gone(element)
+            override def notifyElementExpired(cache: Ehcache, element: EhElement) = gone(element)
+            override def notifyElementEvicted(cache: Ehcache, element: EhElement) = gone(element)
+        })
+        cache
+    }
+
+    // Parts of chains whose head went away, removed outside of the cache listener
+    private val orphanedChainParts = new ConcurrentLinkedQueue[String]
+
+    private def gone(element: EhElement) = {
+        releaseStaticState(element)
+        (element.getObjectKey, element.getObjectValue) match {
+            case (key: String, bytes: Array[Byte]) if ! DynamicStateChain.isPartKey(key) ⇒
+                DynamicStateChain.partKeys(key, bytes) foreach orphanedChainParts.add
+            case _ ⇒
+        }
+    }
+
+    private def removeOrphanedChainParts() =
+        Iterator continually orphanedChainParts.poll() takeWhile (_ ne null) foreach (key ⇒ stateCache.remove(key))
+
+    private def retainStaticState(element: EhElement) =
+        mappingDigest(element) foreach StaticStateTable.retainExisting
+
+    private def releaseStaticState(element: EhElement) =
+        mappingDigest(element) foreach StaticStateTable.release
+
+    // Only UUID mappings hold references, and they are the only values of the form "digest:key"
+    private def mappingDigest(element: EhElement) =
+        element.getObjectValue match {
+            case keyString: String if keyString.contains(':') ⇒ Some(keyString.substring(0, keyString.indexOf(':')))
+            case _ ⇒ None
+        }
 
     def storeDocumentState(document: XFormsContainingDocument, session: ExternalContext.Session, isInitialState: Boolean) = {
 
@@ -41,12 +84,45 @@ object EhcacheStateStore extends XFormsStateStore {
         def addOrReplaceOne(key: String, value: java.io.Serializable) =
             stateCache.put(new EhElement(key, value))
 
-        // Mapping (UUID → static state key : dynamic state key
-        addOrReplaceOne(documentUUID, staticStateDigest + ":" + dynamicStateKey)
+        // Parts of a chain of diffs don't expire on their own, as appending to the chain doesn't access them. They are
+        // removed when the chain is rebased, or after their head goes away.
+        def addOrReplaceChainValue(key: String, bytes: Array[Byte]) = {
+            val element = new EhElement(key, bytes)
+            if (DynamicStateChain.isPartKey(key))
+                element.setEternal(true)
+            stateCache.put(element)
+        }
 
-        // Static and dynamic states
-        addOrReplaceOne(staticStateDigest, document.getStaticState.encodedState)
-        addOrReplaceOne(dynamicStateKey, DynamicState(document))
+        removeOrphanedChainParts()
+
+        // Mapping (UUID → static state key : dynamic state key). The listener takes the mapping's reference on the static
+        // state when the mapping is put, so hold a reference meanwhile to keep the static state in the table.
+        StaticStateTable.retain(staticStateDigest, document.getStaticState.encodedState)
+        try addOrReplaceOne(documentUUID, staticStateDigest + ":" + dynamicStateKey)
+        finally StaticStateTable.release(staticStateDigest)
+
+        // Dynamic state, stored as a diff from the previously stored state if enabled
+        val maxChainLength = XFormsProperties.getStateDeltaMaxChainLength
+        if (isInitialState || maxChainLength <= 0)
+            addOrReplaceOne(dynamicStateKey, DynamicState(document))
+        else {
+            val dynamicState = DynamicState(document)
+            val (bytesWritten, summary) =
+                DynamicStateChain.store(
+                    dynamicStateKey,
+                    Option(document.getStoredDynamicStateSummary),
+                    dynamicState,
+                    maxChainLength,
+                    findBytes,
+                    key ⇒ stateCache.isKeyInCache(key),
+                    addOrReplaceChainValue,
+                    key ⇒ stateCache.remove(key))
+
+            document.setStoredDynamicStateSummary(summary)
+
+            if (isDebugEnabled)
+                debug("stored dynamic state, " + bytesWritten + " bytes written.")
+        }
     }
 
     def findState(session: ExternalContext.Session, documentUUID: String, isInitialState: Boolean): XFormsState = {
@@ -54,11 +130,6 @@ object EhcacheStateStore extends XFormsStateStore {
         if (isDebugEnabled)
             debug("store size before finding: " + getCurrentSize + " entries.")
 
-        def findOne(key: String) = stateCache.get(key) match {
-            case element: EhElement ⇒ element.getObjectValue
-            case _ ⇒ null
-        }
-
         findOne(documentUUID) match {
             case keyString: String ⇒
                 // Found the keys, split into parts
@@ -70,9 +141,16 @@ object EhcacheStateStore extends XFormsStateStore {
                 // If isInitialState == true, force finding the initial state. Otherwise, use current state stored in mapping.
                 val dynamicStateKey = if (isInitialState) getDynamicStateKey(documentUUID, true) else parts(1)
 
-                // Gather values from cache for both keys and return state only if both are non-null
-                Stream(parts(0), dynamicStateKey) map findOne filter (_ ne null) match {
-                    case Stream(staticState: String, dynamicState: DynamicState) ⇒
+                // Dynamic state is stored either in full or as a chain of diffs
+                val dynamicStateOpt = findOne(dynamicStateKey) match {
+                    case dynamicState: DynamicState ⇒ Some(dynamicState)
+                    case _: Array[Byte]             ⇒ DynamicStateChain.find(dynamicStateKey, findBytes)
+                    case _                          ⇒ None
+                }
+
+                // Gather static state from table and dynamic state from cache and return state only if both are found
+                (StaticStateTable.findEncodedState(parts(0)), dynamicStateOpt) match {
+                    case (Some(staticState), Some(dynamicState)) ⇒
                         XFormsState(Some(parts(0)), staticState, dynamicState)
                     case _ ⇒ null
                 }
@@ -87,6 +165,16 @@ object EhcacheStateStore extends XFormsStateStore {
     def findStateCombined(staticStateDigest: String, dynamicStateUUID: String) = null
     def addStateCombined(staticStateDigest: String, dynamicStateUUID: String, xformsState: XFormsState, sessionId: String) = ()
 
+    private def findOne(key: String) = stateCache.get(key) match {
+        case element: EhElement ⇒ element.getObjectValue
+        case _ ⇒ null
+    }
+
+    private def findBytes(key: String) = findOne(key) match {
+        case bytes: Array[Byte] ⇒ Some(bytes)
+        case _ ⇒ None
+    }
+
     private def getDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
         documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
 
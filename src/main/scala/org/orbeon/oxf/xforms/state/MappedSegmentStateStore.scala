@@ -0,0 +1,439 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.{RandomAccessFile, File}
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.concurrent.{ThreadFactory, TimeUnit, Executors, ConcurrentHashMap}
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.pipeline.api.ExternalContext
+import org.orbeon.oxf.util.{IndentedLogger, SecureUtils}
+import org.orbeon.oxf.xforms._
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+import scala.util.control.NonFatal
+
+/**
+ * XForms state store keeping state bytes outside of the heap.
+ *
+ * Only a small index, mapping keys to locations, lives on the heap. The XFormsProtocols-encoded dynamic state and the
+ * mapping from document UUID to state keys are appended to MappedSegments. Static states are kept in the
+ * StaticStateTable, with one reference per stored document.
+ *
+ * Like with the Ehcache store, sizes are numbers of entries.
+ */
+object MappedSegmentStateStore extends XFormsStateStore {
+
+    private val storeDebugName = "Mapped segment"
+
+    private val CompactionIntervalSeconds = 10L
+
+    // Keys of mappings from document UUID to state keys
+    private val MappingKeyPrefix = "mapping:"
+
+    private lazy val segments = {
+        val segments =
+            new MappedSegments(
+                createDirectory(),
+                XFormsProperties.getStateStoreMappedSegmentSize,
+                XFormsProperties.getStateStoreMappedMaxSegments,
+                XFormsProperties.getStateStoreMappedMaxEntries,
+                evicted,
+                XFormsStateManager.getIndentedLogger)
+
+        // Segment files are meaningless once the JVM exits
+        Runtime.getRuntime.addShutdownHook(new Thread("Orbeon XForms state store cleanup") {
+            override def run() = segments.close()
+        })
+
+        segments
+    }
+
+    private def createDirectory() = {
+        val parent = Option(XFormsProperties.getStateStoreMappedDirectory) map (new File(_)) getOrElse new File(System.getProperty("java.io.tmpdir"))
+
+        // Use a directory specific to this JVM, as segments are meaningless to other JVMs
+        val dir = File.createTempFile("orbeon-xforms-state-", "", parent)
+        if (! dir.delete() || ! dir.mkdirs())
+            throw new OXFException("Unable to create state store directory: " + dir.getAbsolutePath)
+
+        debug("using directory " + dir.getAbsolutePath)
+        dir
+    }
+
+    // Background compaction
+    private lazy val compactor = {
+        val executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+            def newThread(runnable: Runnable) = {
+                val thread = new Thread(runnable, "Orbeon XForms state store compactor")
+                thread.setDaemon(true)
+                thread
+            }
+        })
+        executor.scheduleWithFixedDelay(new Runnable {
+            def run() =
+                try segments.compact()
+                catch { case NonFatal(t) ⇒ XFormsStateManager.getIndentedLogger.logError("", storeDebugName + " store: compaction failed", t) }
+        }, CompactionIntervalSeconds, CompactionIntervalSeconds, TimeUnit.SECONDS)
+        executor
+    }
+
+    def storeDocumentState(document: XFormsContainingDocument, session: ExternalContext.Session, isInitialState: Boolean) = {
+
+        assert(document.getStaticState.isServerStateHandling)
+
+        compactor // make sure compaction is started
+
+        if (isDebugEnabled)
+            debug("store size before storing: " + getCurrentSize + " entries.")
+
+        val documentUUID = document.getUUID
+        val staticStateDigest = document.getStaticState.digest
+        val dynamicStateKey = getDynamicStateKey(documentUUID, isInitialState)
+
+        // Dynamic state, stored as a diff from the previously stored state if enabled
+        val maxChainLength = XFormsProperties.getStateDeltaMaxChainLength
+        if (isInitialState || maxChainLength <= 0)
+            segments.put(dynamicStateKey, DynamicStateChain.encodeFull(DynamicState(document)))
+        else {
+            val dynamicState = DynamicState(document)
+            val (bytesWritten, summary) =
+                DynamicStateChain.store(
+                    dynamicStateKey,
+                    Option(document.getStoredDynamicStateSummary),
+                    dynamicState,
+                    maxChainLength,
+                    segments.find,
+                    segments.contains,
+                    (key, bytes) ⇒ segments.put(key, bytes),
+                    segments.remove)
+
+            document.setStoredDynamicStateSummary(summary)
+
+            if (isDebugEnabled)
+                debug("stored dynamic state, " + bytesWritten + " bytes written.")
+        }
+
+        // Each mapping holds one reference on the static state: retain first so the static state is present as soon
+        // as the mapping is, and release if the mapping already existed
+        StaticStateTable.retain(staticStateDigest, document.getStaticState.encodedState)
+
+        // Mapping (UUID → static state key : dynamic state key) is written last so it never points to missing keys
+        if (segments.put(MappingKeyPrefix + documentUUID, (staticStateDigest + ":" + dynamicStateKey).getBytes("UTF-8")))
+            StaticStateTable.release(staticStateDigest)
+    }
+
+    def findState(session: ExternalContext.Session, documentUUID: String, isInitialState: Boolean): XFormsState = {
+
+        if (isDebugEnabled)
+            debug("store size before finding: " + getCurrentSize + " entries.")
+
+        segments.find(MappingKeyPrefix + documentUUID) match {
+            case Some(keyBytes) ⇒
+                // Found the keys, split into parts
+                val parts = new String(keyBytes, "UTF-8") split ':'
+
+                assert(parts.size == 2)
+                assert(parts(0).length == SecureUtils.HexIdLength)   // static state key is an hex hash
+
+                // If isInitialState == true, force finding the initial state. Otherwise, use current state stored in mapping.
+                val dynamicStateKey = if (isInitialState) getDynamicStateKey(documentUUID, true) else parts(1)
+
+                // Return state only if both are found
+                (StaticStateTable.findEncodedState(parts(0)), DynamicStateChain.find(dynamicStateKey, segments.find)) match {
+                    case (Some(staticState), Some(dynamicState)) ⇒
+                        XFormsState(Some(parts(0)), staticState, dynamicState)
+                    case _ ⇒ null
+                }
+
+            case None ⇒ null
+        }
+    }
+
+    def getMaxSize = segments.maxEntries.toLong
+    def getCurrentSize = segments.size.toLong
+
+    def findStateCombined(staticStateDigest: String, dynamicStateUUID: String) = null
+    def addStateCombined(staticStateDigest: String, dynamicStateUUID: String, xformsState: XFormsState, sessionId: String) = ()
+
+    // Release the static state referenced by an evicted mapping
+    private def evicted(key: String, value: Array[Byte]): Unit =
+        if (key startsWith MappingKeyPrefix)
+            StaticStateTable.release(new String(value, "UTF-8") takeWhile (_ != ':'))
+
+    private def getDynamicStateKey(documentUUID: String, isInitialState: Boolean) =
+        documentUUID + (if (isInitialState) "-I" else "-C") // key is different for initial vs. subsequent state
+
+    private def isDebugEnabled = XFormsStateManager.getIndentedLogger.isDebugEnabled
+
+    private def debug(message: String) =
+        XFormsStateManager.getIndentedLogger.logDebug("", storeDebugName + " store: " + message)
+}
+
+/**
+ * Key/value records appended to fixed-size, memory-mapped segment files.
+ *
+ * Segments which mostly hold overwritten records are compacted with compact(). When a new segment would exceed the
+ * maximum number of segments, the live records of the oldest segment are copied to the new segment before the oldest
+ * segment is dropped. Only records which don't fit, oldest first, are evicted, like an LRU cache would evict them. When
+ * there are more than the maximum number of entries, the oldest segments are dropped with their entries.
+ *
+ * Appending, updating the index and dropping segments happen under the write lock, and reads under the read lock, so
+ * a record is never read from a dropped segment. Dropped segments are deleted and their buffer is released, so the JVM
+ * can unmap them upon garbage collection. onEvict is called once the write lock is released.
+ */
+private[state] class MappedSegments(
+        directory: File,
+        segmentSize: Int,
+        maxSegments: Int,
+        val maxEntries: Int,
+        onEvict: (String, Array[Byte]) ⇒ Unit,
+        logger: IndentedLogger) {
+
+    import MappedSegments._
+
+    // Location of a record's value in a segment
+    private case class Location(segment: Segment, offset: Int, length: Int, keyLength: Int) {
+        def recordLength = RecordHeaderSize + keyLength + length
+        def read() = segment.read(offset, length)
+    }
+
+    private class Segment(val id: Long) {
+
+        val file = new File(directory, "segment-" + id)
+
+        // Released when the segment is deleted
+        private var buffer = {
+            val raf = new RandomAccessFile(file, "rw")
+            try raf.getChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize)
+            finally raf.close() // the mapping remains valid after the channel is closed
+        }
+
+        // Written under the write lock only
+        @volatile private var position = 0
+
+        val liveBytes = new AtomicLong
+
+        def used = position
+
+        def delete(): Unit = {
+            buffer = null
+            if (! file.delete())
+                logger.logWarning("", "state store: unable to delete segment file " + file.getAbsolutePath)
+        }
+
+        // Record layout: key length, key, value length, value
+        def append(key: Array[Byte], value: Array[Byte]): Option[Location] =
+            if (position + RecordHeaderSize + key.length + value.length > segmentSize)
+                None
+            else {
+                val view = buffer.duplicate()
+                view.position(position)
+                view.putInt(key.length)
+                view.put(key)
+                view.putInt(value.length)
+                view.put(value)
+
+                val location = Location(this, position + RecordHeaderSize + key.length, value.length, key.length)
+                position = view.position()
+                liveBytes.addAndGet(location.recordLength)
+                Some(location)
+            }
+
+        def read(offset: Int, length: Int) = {
+            val view = buffer.duplicate()
+            view.position(offset)
+            val bytes = new Array[Byte](length)
+            view.get(bytes)
+            bytes
+        }
+
+        // Iterate over all records in the segment as (key, location)
+        def records: Iterator[(String, Location)] = {
+            val view = buffer.duplicate()
+            val end = position
+            view.position(0)
+            new Iterator[(String, Location)] {
+                def hasNext = view.position() < end
+                def next() = {
+                    val keyBytes = new Array[Byte](view.getInt)
+                    view.get(keyBytes)
+                    val valueLength = view.getInt
+                    val valueOffset = view.position()
+                    view.position(valueOffset + valueLength)
+                    (new String(keyBytes, "UTF-8"), Location(Segment.this, valueOffset, valueLength, keyBytes.length))
+                }
+            }
+        }
+
+        // Records which the index still points to
+        def liveRecords = records filter { case (key, location) ⇒ index.get(key) == location }
+    }
+
+    private val index = new ConcurrentHashMap[String, Location]
+
+    private val lock = new ReentrantReadWriteLock
+    private val segmentIds = new AtomicLong
+    @volatile private var segments = Vector.empty[Segment] // oldest first, last is the active segment
+
+    // Entries evicted under the write lock, to pass to onEvict once the lock is released
+    private val pendingEvictions = ListBuffer[(String, Array[Byte])]()
+
+    def size = index.size
+    def segmentFiles = segments map (_.file)
+
+    def find(key: String) = withReadLock {
+        Option(index.get(key)) map (_.read())
+    }
+
+    def contains(key: String) =
+        index.containsKey(key)
+
+    def remove(key: String): Unit = withWriteLock {
+        Option(index.remove(key)) foreach release
+    }
+
+    // Return whether there was a previous value
+    def put(key: String, value: Array[Byte]): Boolean = {
+
+        val keyBytes = key.getBytes("UTF-8")
+        if (RecordHeaderSize + keyBytes.length + value.length > segmentSize)
+            throw new OXFException("State of " + value.length + " bytes exceeds the state store segment size")
+
+        withWriteLock {
+            val previous = Option(index.put(key, append(keyBytes, value)))
+            previous foreach release
+
+            if (index.size > maxEntries)
+                evictEntries()
+
+            previous.isDefined
+        }
+    }
+
+    // Copy live records of sparse segments to the active segment, then delete them
+    def compact(): Unit = {
+        val candidates = segments.dropRight(1) filter (s ⇒ s.liveBytes.get < s.used * CompactionThreshold)
+
+        // One segment at a time, so that the write lock is not held for long
+        for (segment ← candidates)
+            withWriteLock {
+                // A candidate might have been dropped by a rollover in the meanwhile
+                if (segments contains segment) {
+                    for ((key, location) ← segment.liveRecords.toList)
+                        copy(key, location, append(key.getBytes("UTF-8"), location.read()))
+
+                    dropSegment(segment)
+                }
+            }
+    }
+
+    // Delete all the segments, without evicting their entries
+    def close(): Unit = withWriteLock {
+        index.clear()
+        segments foreach (_.delete())
+        segments = Vector.empty
+        directory.delete()
+    }
+
+    private def withReadLock[T](body: ⇒ T): T = {
+        lock.readLock.lock()
+        try body
+        finally lock.readLock.unlock()
+    }
+
+    private def withWriteLock[T](body: ⇒ T): T = {
+        lock.writeLock.lock()
+        val (result, evicted) =
+            try {
+                val result  = body
+                val evicted = pendingEvictions.toList
+                pendingEvictions.clear()
+                (result, evicted)
+            } finally
+                lock.writeLock.unlock()
+
+        // A failing listener must not prevent other entries from being evicted
+        for ((key, value) ← evicted)
+            try onEvict(key, value)
+            catch { case NonFatal(t) ⇒ logger.logError("", "state store: failed to evict " + key, t) }
+
+        result
+    }
+
+    // Append to the active segment, rolling over to a new segment if needed
+    // NOTE: Called under the write lock.
+    private def append(keyBytes: Array[Byte], value: Array[Byte]): Location =
+        segments.lastOption flatMap (_.append(keyBytes, value)) getOrElse
+            newSegment(RecordHeaderSize + keyBytes.length + value.length).append(keyBytes, value).get
+
+    // Create a new active segment, leaving at least the given room in it
+    private def newSegment(room: Int) = {
+        val segment = new Segment(segmentIds.incrementAndGet())
+        val oldest  = if (segments.size >= maxSegments) segments.headOption else None
+
+        segments :+= segment
+
+        // Keep the most recent live records of the oldest segment which fit, and evict the others
+        for (dropped ← oldest) {
+            val liveRecords = dropped.liveRecords.toList
+            val keptSizes   = liveRecords.reverse.scanLeft(0)(_ + _._2.recordLength).tail
+            val kept        = liveRecords.reverse zip keptSizes takeWhile (_._2 <= segmentSize - room) map (_._1)
+
+            for ((key, location) ← kept.reverse)
+                copy(key, location, segment.append(key.getBytes("UTF-8"), location.read()).get)
+
+            dropSegment(dropped)
+        }
+
+        segment
+    }
+
+    // Point the index to the copy, unless the entry was updated or removed in the meanwhile
+    private def copy(key: String, location: Location, copy: Location) =
+        if (index.replace(key, location, copy))
+            release(location)
+        else
+            release(copy)
+
+    private def release(location: Location) =
+        location.segment.liveBytes.addAndGet(- location.recordLength)
+
+    // Drop the oldest segments until there are no more than the maximum number of entries, keeping the active segment
+    private def evictEntries() =
+        while (index.size > maxEntries && segments.size > 1)
+            dropSegment(segments.head)
+
+    // NOTE: Called under the write lock.
+    private def dropSegment(segment: Segment) = {
+        segments = segments filterNot (_ eq segment)
+
+        // Evict entries which still point to the segment
+        for (entry ← index.entrySet.asScala if entry.getValue.segment eq segment)
+            if (index.remove(entry.getKey, entry.getValue))
+                pendingEvictions += entry.getKey → entry.getValue.read()
+
+        segment.delete()
+        logger.logDebug("", "state store: dropped segment " + segment.id)
+    }
+}
+
+private[state] object MappedSegments {
+    // Compact segments whose live records take less than this fraction of the segment
+    val CompactionThreshold = 0.5
+
+    val RecordHeaderSize = 8 // key length and value length as ints
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io._
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ThreadFactory, Executors}
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.pipeline.InitUtils.withPipelineContext
+import org.orbeon.oxf.resources.ResourceManagerWrapper
+import org.orbeon.oxf.util.{IndentedLogger, Logging}
+import org.orbeon.oxf.xforms.{XFormsStaticStateImpl, XFormsProperties, XFormsStaticState}
+import scala.util.control.NonFatal
+
+/**
+ * Persistent store of encoded static states, keyed by digest, so that static states survive JVM restarts.
+ *
+ * Analysed static states can't be persisted as such, but their encoded form contains the extracted static state
+ * document and the annotated template, from which the static state can be restored without reading the input again.
+ * States can also be restored in the background when the web application starts, so that the first requests find
+ * them analysed.
+ */
+object StaticStateDiskStore extends Logging {
+
+    private implicit def logger = XFormsStateManager.getIndentedLogger
+
+    private lazy val files =
+        Option(XFormsProperties.getStaticStateCacheDirectory) filter (_.nonEmpty) map (new File(_)) filter { dir ⇒
+            val usable = dir.isDirectory || dir.mkdirs()
+            if (! usable)
+                warn("unable to create static state directory, not persisting static states", Seq("directory" → dir.getAbsolutePath))
+            usable
+        } map
+            (new StaticStateFiles(_, XFormsProperties.getStaticStateCacheDirectoryMaxFiles, logger))
+
+    // Files are written in the background so as to not delay responses
+    private lazy val writer = Executors.newSingleThreadExecutor(new ThreadFactory {
+        def newThread(runnable: Runnable) = {
+            val thread = new Thread(runnable, "Orbeon XForms static state writer")
+            thread.setDaemon(true)
+            thread
+        }
+    })
+
+    private val prewarmStarted = new AtomicBoolean(false)
+
+    def isEnabled = files.isDefined
+
+    // Persist the static state if not already present
+    def store(staticState: XFormsStaticState): Unit =
+        for (files ← files if ! files.contains(staticState.digest)) {
+
+            val digest       = staticState.digest
+            val encodedState = staticState.encodedState
+            val includes     = staticState.topLevelPart.metadata.bindingIncludes.toList
+
+            background {
+                try files.write(digest, encodedState, includes)
+                catch { case NonFatal(t) ⇒ warn("unable to persist static state", Seq("digest" → digest, "error" → t.toString)) }
+            }
+        }
+
+    // Restore the static state with the given digest, if present and up to date
+    def findStaticState(digest: String): Option[XFormsStaticState] =
+        files flatMap (_.restore(digest))
+
+    // Called when the web application starts: restore the most recently persisted static states in the background if
+    // configured, only once even if several servlets or portlets start
+    def prewarm(): Unit =
+        for (files ← files if XFormsProperties.isStaticStateCachePrewarm && prewarmStarted.compareAndSet(false, true))
+            background {
+                files.prewarm(XFormsProperties.getStaticStateCacheSize)
+            }
+
+    private def background(body: ⇒ Unit) =
+        writer.execute(new Runnable { def run() = body })
+}
+
+/**
+ * Static state files in a directory.
+ *
+ * Each file holds a format version, the product version, the XBL bindings and includes the static state depends on
+ * with their last modification dates, and the encoded static state. A file which doesn't match the current versions,
+ * or whose dependencies have changed, is deleted when read. The directory is bounded: after each write, the least
+ * recently written files beyond maxFiles are deleted, as well as temporary files left by interrupted writes.
+ *
+ * Methods which write files must only be called from a single thread.
+ */
+private[state] class StaticStateFiles(directory: File, maxFiles: Int, logger: IndentedLogger) extends Logging {
+
+    import StaticStateFiles._
+
+    private implicit def indentedLogger = logger
+
+    private def file(digest: String) = new File(directory, digest + FileSuffix)
+
+    private def listFiles(suffix: String) =
+        Option(directory.listFiles) map (_.toList) getOrElse Nil filter (_.getName.endsWith(suffix))
+
+    def contains(digest: String) = file(digest).exists
+
+    // Digests of the persisted static states, most recently written first
+    def digests =
+        listFiles(FileSuffix) sortBy (- _.lastModified) map (f ⇒ f.getName.substring(0, f.getName.length - FileSuffix.length))
+
+    def write(digest: String, encodedState: String, includes: List[String]): Unit = {
+
+        // Write to a temporary file first so that readers never see a partial file
+        val tempFile = File.createTempFile(digest, TempFileSuffix, directory)
+        try {
+            val os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))
+            try {
+                os.writeInt(FormatVersion)
+                os.writeUTF(Version.VersionNumber)
+
+                os.writeInt(includes.size)
+                for (include ← includes) {
+                    os.writeUTF(include)
+                    os.writeLong(lastModified(include))
+                }
+
+                val bytes = encodedState.getBytes("UTF-8")
+                os.writeInt(bytes.length)
+                os.write(bytes)
+            } finally
+                os.close()
+
+            if (! tempFile.renameTo(file(digest)))
+                tempFile.delete()
+            else
+                debug("persisted static state", Seq("digest" → digest))
+        } catch {
+            case NonFatal(t) ⇒
+                tempFile.delete()
+                throw t
+        }
+
+        bound()
+    }
+
+    // Delete leftover temporary files and the least recently written files beyond maxFiles
+    def bound(): Unit = {
+        listFiles(TempFileSuffix) foreach (_.delete())
+
+        for (digest ← digests drop maxFiles) {
+            debug("deleting persisted static state beyond maximum number of files", Seq("digest" → digest))
+            file(digest).delete()
+        }
+    }
+
+    // Encoded static state with the given digest, if present and up to date
+    def read(digest: String): Option[String] = {
+        val file = this.file(digest)
+        if (! file.exists)
+            None
+        else {
+            val encodedState =
+                try {
+                    val is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+                    try {
+                        def includesUpToDate =
+                            (1 to is.readInt() map (_ ⇒ (is.readUTF(), is.readLong())) toList) forall
+                                { case (include, modified) ⇒ lastModified(include) == modified }
+
+                        if (is.readInt() == FormatVersion && is.readUTF() == Version.VersionNumber && includesUpToDate) {
+                            val bytes = new Array[Byte](is.readInt())
+                            is.readFully(bytes)
+                            Some(new String(bytes, "UTF-8"))
+                        } else
+                            None
+                    } finally
+                        is.close()
+                } catch {
+                    case NonFatal(t) ⇒
+                        warn("unable to read persisted static state", Seq("file" → file.getName, "error" → t.toString))
+                        None
+                }
+
+            // Outdated or unreadable
+            if (encodedState.isEmpty) {
+                debug("deleting outdated persisted static state", Seq("file" → file.getName))
+                file.delete()
+            }
+
+            encodedState
+        }
+    }
+
+    def restore(digest: String): Option[XFormsStaticState] =
+        read(digest) map { encodedState ⇒
+            debug("restoring persisted static state", Seq("digest" → digest))
+            XFormsStaticStateImpl.restore(Some(digest), encodedState)
+        }
+
+    // Restore the most recently written static states into the StaticStateTable, unless already there
+    def prewarm(maxCount: Int): Unit = {
+        bound()
+        for (digest ← digests take maxCount if StaticStateTable.getStaticState(digest) eq null)
+            try withPipelineContext(_ ⇒ restore(digest) foreach StaticStateTable.putStaticState)
+            catch {
+                case NonFatal(t) ⇒ warn("unable to restore persisted static state", Seq("digest" → digest, "error" → t.toString))
+            }
+    }
+}
+
+private object StaticStateFiles {
+
+    val FormatVersion  = 1
+    val FileSuffix     = ".static-state"
+    val TempFileSuffix = ".tmp"
+
+    // -1 if the resource is missing, so that a later change is detected
+    def lastModified(path: String) =
+        try ResourceManagerWrapper.instance.lastModified(path, false)
+        catch { case NonFatal(_) ⇒ -1L }
+}
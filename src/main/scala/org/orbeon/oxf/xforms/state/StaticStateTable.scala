@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicLong, AtomicInteger}
+import java.util.concurrent.locks.ReentrantLock
+import org.orbeon.oxf.cache.{CacheTypeStatistics, CacheStatistics}
+import org.orbeon.oxf.util.Logging
+import org.orbeon.oxf.xforms.{XFormsProperties, XFormsStaticState}
+import scala.annotation.tailrec
+import scala.collection.JavaConverters._
+
+/**
+ * Table of static states shared by XFormsStaticStateCache and the state stores.
+ *
+ * Each static state is kept once, keyed by digest, with its encoded form and, when available, its analysed form.
+ * State stores hold a reference on the digest for each document they store, and an entry is never evicted while it is
+ * referenced. Unreferenced entries are evicted least recently used first when the table goes over its entry count or
+ * byte budget. Only the encoded state is counted in the byte budget.
+ *
+ * An entry is evicted by first marking it dead, which atomically moves its reference count from 0 to -1. A dead entry
+ * can't be retained anymore, so retaining it instead creates a new entry.
+ */
+object StaticStateTable extends Logging {
+
+    private val Dead = -1
+
+    private implicit def logger = XFormsStateManager.getIndentedLogger
+
+    private class Entry(val digest: String, val encodedState: String) {
+        val references = new AtomicInteger
+        @volatile var staticState: Option[XFormsStaticState] = None
+        @volatile var lastAccess = System.nanoTime
+
+        def bytes = encodedState.length * 2L
+        def touch() = lastAccess = System.nanoTime
+    }
+
+    private val entries = new ConcurrentHashMap[String, Entry]
+    private val currentBytes = new AtomicLong
+    private val evictionLock = new ReentrantLock
+
+    private val hitCount = new AtomicInteger
+    private val missCount = new AtomicInteger
+    private val addCount = new AtomicInteger
+    private val evictionCount = new AtomicInteger
+
+    private def maxEntries = XFormsProperties.getStaticStateCacheSize
+    private def maxBytes = XFormsProperties.getStaticStateCacheMaxBytes
+
+    // Add an analysed static state
+    def putStaticState(staticState: XFormsStaticState): Unit = {
+        val entry = getOrCreate(staticState.digest, staticState.encodedState)
+        entry.staticState = Some(staticState)
+        entry.touch()
+    }
+
+    // Find an analysed static state, or null
+    def getStaticState(digest: String): XFormsStaticState = {
+        val entryOpt = Option(entries.get(digest))
+        entryOpt flatMap (_.staticState) match {
+            case Some(staticState) ⇒
+                hitCount.incrementAndGet()
+                entryOpt.get.touch()
+                staticState
+            case None ⇒
+                missCount.incrementAndGet()
+                null
+        }
+    }
+
+    // Find an encoded static state
+    def findEncodedState(digest: String): Option[String] =
+        Option(entries.get(digest)) map { entry ⇒ entry.touch(); entry.encodedState }
+
+    // Add a reference to the static state, creating the entry if needed
+    def retain(digest: String, encodedState: String): Unit = {
+        @tailrec def tryRetain(): Unit = {
+            val entry = getOrCreate(digest, encodedState)
+            if (! tryIncrement(entry)) {
+                // The entry is being evicted: make sure it's gone and try again with a new entry
+                entries.remove(digest, entry)
+                tryRetain()
+            }
+        }
+        tryRetain()
+    }
+
+    // Add a reference to a static state which the caller already holds a reference on
+    def retainExisting(digest: String): Unit =
+        if (! (Option(entries.get(digest)) exists tryIncrement))
+            warn("unable to retain static state not referenced by caller", Seq("digest" → digest))
+
+    // Remove a reference to the static state, making it eligible for eviction when no references are left. This is
+    // called while evicting state store entries, so an unbalanced release is logged instead of failing the eviction.
+    def release(digest: String): Unit =
+        Option(entries.get(digest)) foreach { entry ⇒
+            @tailrec def decrement(): Option[Int] = {
+                val current = entry.references.get
+                if (current <= 0)
+                    None
+                else if (entry.references.compareAndSet(current, current - 1))
+                    Some(current - 1)
+                else
+                    decrement()
+            }
+
+            decrement() match {
+                case Some(0) ⇒ tryEvictOverflow()
+                case Some(_) ⇒
+                case None    ⇒ warn("unbalanced release of static state", Seq("digest" → digest))
+            }
+        }
+
+    @tailrec private def tryIncrement(entry: Entry): Boolean = {
+        val current = entry.references.get
+        if (current == Dead)
+            false
+        else if (entry.references.compareAndSet(current, current + 1))
+            true
+        else
+            tryIncrement(entry)
+    }
+
+    def getCurrentBytes = currentBytes.get
+    def getPinnedCount = entries.values.asScala count (_.references.get > 0)
+
+    // NOTE: Unlike with other caches, statistics are global and not per pipeline
+    val statistics = new CacheStatistics {
+        def getMaxSize = maxEntries
+        def getCurrentSize = entries.size
+        def getHitCount = hitCount.get
+        def getMissCount = missCount.get
+        def getAddCount = addCount.get
+        def getExpirationCount = evictionCount.get
+        def getMaxBytes = maxBytes.toLong
+        def getCurrentBytes = currentBytes.get
+        def getTypeStatistics = Collections.emptyMap[String, CacheTypeStatistics]
+    }
+
+    private def getOrCreate(digest: String, encodedState: String) =
+        Option(entries.get(digest)) getOrElse {
+            val newEntry = new Entry(digest, encodedState)
+            Option(entries.putIfAbsent(digest, newEntry)) getOrElse {
+                currentBytes.addAndGet(newEntry.bytes)
+                addCount.incrementAndGet()
+                tryEvictOverflow()
+                newEntry
+            }
+        }
+
+    // Evict least recently used unreferenced entries while over budget. Only one thread evicts at a time.
+    private def tryEvictOverflow(): Unit =
+        if (isOverBudget && evictionLock.tryLock())
+            try {
+                val candidates = entries.values.asScala filter (_.references.get == 0) map (e ⇒ (e, e.lastAccess))
+
+                // Only remove entries marked dead, so that a concurrent retain can't use an entry being removed
+                for ((entry, _) ← candidates.toList sortBy (_._2) if isOverBudget)
+                    if (entry.references.compareAndSet(0, Dead)) {
+                        // A concurrent retain might have removed the dead entry already
+                        entries.remove(entry.digest, entry)
+                        currentBytes.addAndGet(- entry.bytes)
+                        evictionCount.incrementAndGet()
+                    }
+            } finally
+                evictionLock.unlock()
+
+    private def isOverBudget = entries.size > maxEntries || currentBytes.get > maxBytes
+}
@@ -24,6 +24,7 @@ import sbinary._
 import org.dom4j.{Namespace, QName, Document}
 import sbinary.Operations._
 import org.orbeon.oxf.xforms.InstanceCaching
+import scala.collection.mutable.WrappedArray
 
 object XFormsOperations {
 
@@ -33,7 +34,22 @@ object XFormsOperations {
         toByteArray(t).toSeq
 
     def fromByteSeq[T: Reads](bytes: Seq[Byte]): T =
-        fromByteArray(bytes.toArray) // TODO: inefficient copy to array → implement Input instead
+        fromByteArray(asByteArray(bytes))
+
+    // Byte sequences are normally created by toByteSeq and wrap an array, in which case the array is used without copy
+    // NOTE: The resulting array must not be modified.
+    def asByteArray(bytes: Seq[Byte]): Array[Byte] = bytes match {
+        case wrapped: WrappedArray.ofByte ⇒ wrapped.array
+        case _                            ⇒ bytes.toArray
+    }
+
+    // Write directly to a stream, without creating an intermediate byte array
+    def writeToStream[T: Writes](t: T, os: OutputStream): Unit = {
+        // Buffer as sbinary writes byte by byte
+        val bufferedOS = new BufferedOutputStream(os)
+        write(new JavaOutput(bufferedOS), t)
+        bufferedOS.flush()
+    }
 }
 
 object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLongUTF {
@@ -44,7 +60,7 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
     }
 
     class JavaInputStream(input: Input) extends InputStream {
-        def read() = input.readByte
+        def read() = input.readByte & 0xff
         override def read(b: Array[Byte], off: Int, len: Int) = input.readTo(b, off, len)
     }
 
@@ -58,8 +74,22 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
             new ObjectInputStream(new JavaInputStream(input)).readObject.asInstanceOf[T]
     }
 
-    implicit object DynamicStateFormat extends SerializableFormat[DynamicState]
-    implicit object SAXStoreFormat extends SerializableFormat[SAXStore]
+    // SAXStore has its own compact encoding, which is much smaller and faster than Java serialization
+    implicit object SAXStoreFormat extends Format[SAXStore] {
+
+        def writes(output: Output, saxStore: SAXStore) = {
+            val os = new DataOutputStream(new BufferedOutputStream(new JavaOutputStream(output)))
+            saxStore.writeCompact(os)
+            os.flush()
+        }
+
+        // NOTE: Don't buffer the input as the buffer might read past the end of the SAXStore
+        def reads(input: Input) = {
+            val saxStore = new SAXStore
+            saxStore.readCompact(new DataInputStream(new JavaInputStream(input)))
+            saxStore
+        }
+    }
 
     implicit object Dom4jFormat extends Format[Document] {
         def writes(output: Output, document: Document) = {
@@ -134,6 +164,136 @@ object XFormsProtocols extends StandardTypes with StandardPrimitives with JavaLo
         }
     }
 
+    implicit object InstanceDeltaFormat extends Format[InstanceDelta] {
+
+        def writes(output: Output, delta: InstanceDelta) = delta match {
+            case UnchangedInstance(effectiveId) ⇒ write[Byte](output, 0); write(output, effectiveId)
+            case ReplacedInstance(instance)     ⇒ write[Byte](output, 1); write(output, instance)
+        }
+
+        def reads(in: Input) = read[Byte](in) match {
+            case 0 ⇒ UnchangedInstance(read[String](in))
+            case 1 ⇒ ReplacedInstance(read[InstanceState](in))
+        }
+    }
+
+    // Serialized byte sequences are written with their length
+    private def writeBytes(output: Output, bytes: Seq[Byte]) {
+        write(output, bytes.size)
+        output.writeAll(XFormsOperations.asByteArray(bytes))
+    }
+
+    private def readBytes(in: Input): Seq[Byte] = {
+        val bytes = new Array[Byte](read[Int](in))
+        in.readFully(bytes)
+        bytes.toSeq
+    }
+
+    private def writeOptionalBytes(output: Output, bytes: Option[Seq[Byte]]) {
+        write(output, bytes.isDefined)
+        bytes foreach (writeBytes(output, _))
+    }
+
+    private def readOptionalBytes(in: Input) =
+        if (read[Boolean](in)) Some(readBytes(in)) else None
+
+    private def toLists(pairs: Seq[(String, Seq[String])]) = pairs.toList map { case (k, v) ⇒ (k, v.toList) }
+
+    // Dynamic state fields other than the template, the last Ajax response, instances and controls
+    private def writeHeader(output: Output, state: DynamicState) {
+        write(output, state.uuid)
+        write(output, state.sequence)
+        write(output, state.deploymentType)
+        write(output, state.requestContextPath)
+        write(output, state.requestPath)
+        write(output, toLists(state.requestHeaders))
+        write(output, toLists(state.requestParameters))
+        write(output, state.containerType)
+        write(output, state.containerNamespace)
+        writeBytes(output, state.pathMatchers)
+        write(output, state.focusedControl)
+        writeBytes(output, state.pendingUploads)
+    }
+
+    private def readHeader(in: Input) =
+        DynamicState(
+            read[String](in),
+            read[Long](in),
+            read[Option[String]](in),
+            read[Option[String]](in),
+            read[Option[String]](in),
+            read[List[(String, List[String])]](in),
+            read[List[(String, List[String])]](in),
+            read[Option[String]](in),
+            read[Option[String]](in),
+            readBytes(in),
+            read[Option[String]](in),
+            readBytes(in),
+            None,
+            Seq(),
+            Seq(),
+            Seq()
+        )
+
+    // Dynamic state fields are written one by one, as Java serialization of the case class is slow and verbose
+    implicit object DynamicStateFormat extends Format[DynamicState] {
+
+        def writes(output: Output, state: DynamicState) {
+            writeHeader(output, state)
+            writeOptionalBytes(output, state.annotatedTemplate)
+            writeBytes(output, state.lastAjaxResponse)
+            writeBytes(output, state.instances)
+            writeBytes(output, state.controls)
+        }
+
+        def reads(in: Input) =
+            readHeader(in).copy(
+                annotatedTemplate = readOptionalBytes(in),
+                lastAjaxResponse  = readBytes(in),
+                instances         = readBytes(in),
+                controls          = readBytes(in)
+            )
+    }
+
+    implicit object DynamicStateDiffFormat extends Format[DynamicStateDiff] {
+
+        def writes(output: Output, diff: DynamicStateDiff) {
+
+            // Header, without the parts which are part of the diff
+            writeHeader(output, diff.header)
+
+            // Diff
+            write(output, diff.annotatedTemplate.isDefined)
+            diff.annotatedTemplate foreach (writeOptionalBytes(output, _))
+            writeOptionalBytes(output, diff.lastAjaxResponse)
+            write(output, diff.instances)
+            write(output, diff.controlIds)
+            write(output, diff.changedControls)
+        }
+
+        def reads(in: Input) =
+            DynamicStateDiff(
+                readHeader(in),
+                if (read[Boolean](in)) Some(readOptionalBytes(in)) else None,
+                readOptionalBytes(in),
+                read[List[InstanceDelta]](in),
+                read[List[String]](in),
+                read[List[ControlState]](in)
+            )
+    }
+
+    implicit object DynamicStateChainHeadFormat extends Format[DynamicStateChainHead] {
+
+        def writes(output: Output, head: DynamicStateChainHead) {
+            write(output, head.baseSequence)
+            write(output, head.length)
+            write(output, head.sequence)
+        }
+
+        def reads(in: Input) =
+            DynamicStateChainHead(read[Long](in), read[Int](in), read[Long](in))
+    }
+
     implicit object QNameFormat extends Format[QName] {
         def writes(out: Output, value: QName) {
             write(out, value.getName)
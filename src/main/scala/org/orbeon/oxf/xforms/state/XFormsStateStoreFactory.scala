@@ -14,9 +14,18 @@
 package org.orbeon.oxf.xforms.state
 
 import org.orbeon.oxf.pipeline.api.ExternalContext
-
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.orbeon.oxf.common.OXFException
 
 object XFormsStateStoreFactory {
-    // Use Ehcache state store
-    def instance(externalContext: ExternalContext): XFormsStateStore = EhcacheStateStore
-}
\ No newline at end of file
+
+    private lazy val store =
+        XFormsProperties.getStateStore match {
+            case XFormsProperties.STATE_STORE_EHCACHE_VALUE ⇒ EhcacheStateStore
+            case XFormsProperties.STATE_STORE_MAPPED_VALUE  ⇒ MappedSegmentStateStore
+            case other ⇒ throw new OXFException("Invalid state store: " + other)
+        }
+
+    // Use the state store configured with oxf.xforms.state.store (Ehcache by default)
+    def instance(externalContext: ExternalContext): XFormsStateStore = store
+}
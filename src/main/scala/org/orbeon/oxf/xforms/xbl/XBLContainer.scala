@@ -339,7 +339,8 @@ trait ContainerResolver {
                     case _ ⇒ None
                 }
 
-            repeatControl map (_.getIndex)
+            // With xxf:page-size, the index is relative to the whole sequence, not to the current page
+            repeatControl map (_.getAbsoluteIndex)
         }
 
         def fromStaticRepeat = {
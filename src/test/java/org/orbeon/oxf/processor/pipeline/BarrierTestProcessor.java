@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.*;
+import org.orbeon.oxf.xml.XMLReceiver;
+import org.orbeon.oxf.xml.XMLReceiverHelper;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thread-safe test processor which waits for another instance to be read at the same time, and outputs whether that
+ * happened.
+ */
+public class BarrierTestProcessor extends ProcessorImpl implements ThreadSafeProcessor {
+
+    private static final CyclicBarrier barrier = new CyclicBarrier(2);
+
+    public BarrierTestProcessor() {
+        addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+    }
+
+    public ProcessorOutput createOutput(String name) {
+        final ProcessorOutput output = new ProcessorOutputImpl(BarrierTestProcessor.this, name) {
+            public void readImpl(PipelineContext context, XMLReceiver xmlReceiver) {
+                boolean concurrent;
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                    concurrent = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    concurrent = false;
+                } catch (BrokenBarrierException e) {
+                    concurrent = false;
+                } catch (TimeoutException e) {
+                    concurrent = false;
+                }
+                if (! concurrent)
+                    barrier.reset();
+
+                final XMLReceiverHelper helper = new XMLReceiverHelper(xmlReceiver);
+                helper.startDocument();
+                helper.element("branch", new String[] { "concurrent", Boolean.toString(concurrent) });
+                helper.endDocument();
+            }
+        };
+        addOutput(name, output);
+        return output;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.processor.pipeline;
+
+import org.orbeon.oxf.pipeline.api.PipelineContext;
+import org.orbeon.oxf.processor.ProcessorImpl;
+import org.orbeon.oxf.processor.ProcessorInputOutputInfo;
+import org.orbeon.oxf.processor.ProcessorOutput;
+import org.orbeon.oxf.xml.XMLReceiver;
+import org.orbeon.oxf.xml.XMLReceiverHelper;
+
+/**
+ * Test processor which is not marked as thread-safe, and outputs whether it runs on a pipeline worker.
+ */
+public class ThreadTestProcessor extends ProcessorImpl {
+
+    public ThreadTestProcessor() {
+        addOutputInfo(new ProcessorInputOutputInfo(OUTPUT_DATA));
+    }
+
+    public ProcessorOutput createOutput(String name) {
+        final ProcessorOutput output = new ProcessorOutputImpl(ThreadTestProcessor.this, name) {
+            public void readImpl(PipelineContext context, XMLReceiver xmlReceiver) {
+                final boolean worker = Thread.currentThread().getName().startsWith(PipelineWorkers.THREAD_NAME_PREFIX);
+
+                final XMLReceiverHelper helper = new XMLReceiverHelper(xmlReceiver);
+                helper.startDocument();
+                helper.element("thread", new String[] { "worker", Boolean.toString(worker) });
+                helper.endDocument();
+            }
+        };
+        addOutput(name, output);
+        return output;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import java.util.concurrent.locks.ReentrantLock
+import java.lang.{Long ⇒ JLong}
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class ConcurrentMemoryCacheImplTest extends AssertionsForJUnit {
+
+    private def key(i: Int) = new InternalCacheKey("test", i.toString)
+
+    private val Validity: JLong = 42L
+
+    @Test def validity(): Unit = {
+        val cache = new ConcurrentMemoryCacheImpl("test", 10)
+
+        cache.add(key(1), Validity, "one")
+
+        assert("one" === cache.findValid(key(1), Validity))
+        assert("one" === cache.findValid(key(1), 41L: JLong))
+        assert(null  eq  cache.findValid(key(1), 43L: JLong))
+        assert(null  eq  cache.findValid(key(2), Validity))
+
+        // Replace existing entry
+        cache.add(key(1), 43L: JLong, "uno")
+        assert("uno" === cache.findValid(key(1), 43L: JLong))
+        assert(1 === cache.getCurrentSize)
+
+        // Take removes the entry
+        assert("uno" === cache.takeValid(key(1), 43L: JLong))
+        assert(null  eq  cache.takeValid(key(1), 43L: JLong))
+        assert(0 === cache.getCurrentSize)
+    }
+
+    @Test def evictLeastRecentlyAccessed(): Unit = {
+        val cache = new ConcurrentMemoryCacheImpl("test", 100)
+
+        for (i ← 1 to 100)
+            cache.add(key(i), Validity, i)
+
+        // Access the oldest entry so it becomes the most recent
+        Thread.sleep(1)
+        assert(1 === cache.findValid(key(1), Validity))
+
+        cache.add(key(101), Validity, 101)
+
+        assert(cache.getCurrentSize <= 100)
+        assert(1   === cache.findValid(key(1), Validity))
+        assert(101 === cache.findValid(key(101), Validity))
+        assert(null eq cache.findValid(key(2), Validity))
+    }
+
+    @Test def evictionLock(): Unit = {
+        val cache = new ConcurrentMemoryCacheImpl("test", 1)
+
+        var evicted = false
+        val locked = new ReentrantLock
+        val cacheable = new Cacheable {
+            def added() = ()
+            def removed() = ()
+            def getEvictionLock = locked
+            def evicted() = evicted = true
+        }
+
+        cache.add(key(1), Validity, cacheable)
+
+        // Lock held by another thread prevents eviction
+        val lockingThread = new Thread { override def run() = locked.lock() }
+        lockingThread.start()
+        lockingThread.join()
+
+        cache.add(key(2), Validity, "two")
+        assert(! evicted)
+        assert(2 === cache.getCurrentSize)
+        assert(cacheable eq cache.findValid(key(1), Validity))
+    }
+
+    @Test def concurrentTake(): Unit = {
+        val cache = new ConcurrentMemoryCacheImpl("test", 1000)
+
+        for (i ← 1 to 1000)
+            cache.add(key(i), Validity, i)
+
+        // Each entry is taken exactly once even when threads compete
+        val taken = (1 to 4).par flatMap { _ ⇒
+            1 to 1000 flatMap (i ⇒ Option(cache.takeValid(key(i), Validity)))
+        }
+
+        assert((1 to 1000) === taken.seq.map(_.asInstanceOf[Int]).sorted)
+        assert(0 === cache.getCurrentSize)
+    }
+}
@@ -15,6 +15,7 @@ package org.orbeon.oxf.cache
 
 import org.scalatest.junit.AssertionsForJUnit
 import org.junit.Test
+import org.orbeon.oxf.xml.SAXStore
 import java.util.concurrent.locks.{ReentrantLock, Lock}
 import collection.JavaConversions._
 import concurrent.{Await, Future}
@@ -219,4 +220,45 @@ class MemoryCacheTest extends AssertionsForJUnit {
         assert(range === keysAsInts)
         assert(range === values)
     }
-}
\ No newline at end of file
+
+    def saxStore(characterCount: Int) = {
+        val store = new SAXStore
+        store.startDocument()
+        store.characters(Array.fill(characterCount)('a'), 0, characterCount)
+        store.endDocument()
+        store
+    }
+
+    @Test def testByteBudgetEvicts() {
+        val cache = new MemoryCacheImpl("test", 10)
+        cache.setMaxBytes(20000)
+
+        // The fifth object doesn't fit in the budget with the four others
+        for (i ← 1 to 5)
+            cache.add(Key("o" + i), VALIDITY, saxStore(4500))
+
+        assert(cache.getCurrentSize === 4)
+        assert(cache.findValid(Key("o1"), VALIDITY) eq null)
+        assert(cache.findValid(Key("o5"), VALIDITY) ne null)
+    }
+
+    @Test def testAdmission() {
+        val cache = new MemoryCacheImpl("test", 10)
+        cache.setMaxBytes(20000)
+        cache.setMinComputeTime(1000)
+
+        // Object too large for the budget
+        cache.add(Key("large"), VALIDITY, saxStore(6000))
+        assert(cache.findValid(Key("large"), VALIDITY) eq null)
+
+        // Object computed too fast
+        cache.add(Key("cheap"), VALIDITY, saxStore(10), 1000L)
+        assert(cache.findValid(Key("cheap"), VALIDITY) eq null)
+
+        // Object with unknown compute time
+        cache.add(Key("unknown"), VALIDITY, saxStore(10))
+        assert(cache.findValid(Key("unknown"), VALIDITY) ne null)
+
+        assert(cache.getCurrentSize === 1)
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.cache
+
+import org.dom4j.DocumentHelper
+import org.junit.Test
+import org.orbeon.oxf.resources.ResourceManagerWrapper
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xml.{XMLUtils, TransformerUtils}
+import org.scalatest.junit.AssertionsForJUnit
+
+class ObjectSizesTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    // The size of a document doesn't depend on its shape, and very deep documents don't exhaust the call stack
+    @Test def deepDocument(): Unit = {
+
+        val Elements = 100000
+
+        val deep = DocumentHelper.createDocument
+        (1 to Elements).foldLeft(deep.addElement("root"))((parent, _) ⇒ parent.addElement("e"))
+
+        val flat = DocumentHelper.createDocument
+        val root = flat.addElement("root")
+        for (_ ← 1 to Elements)
+            root.addElement("e")
+
+        assert(ObjectSizes.approximateSize(deep) === ObjectSizes.approximateSize(flat))
+    }
+
+    // Objects reachable more than once are counted once
+    @Test def measuredSizeOfArrays(): Unit = {
+        assert(ObjectSizes.measuredSize(new Array[Long](10)) === 16 + 10 * 8)
+
+        val string = "abc"
+        val stringSize = 24 + 24
+        assert(ObjectSizes.measuredSize(string) === stringSize)
+        assert(ObjectSizes.measuredSize(Array[AnyRef](string, string)) === 24 + stringSize)
+    }
+
+    // Compare the memory actually used by the two representations of real configurations
+    @Test def tinyTreeSmallerThanDom4j(): Unit = {
+        for (path ← Seq("processors.xml", "config/properties-xforms.xml")) {
+            val document = ResourceManagerWrapper.instance.getContentAsDOM4J(path, XMLUtils.ParserConfiguration.PLAIN, false)
+            val tinyTree = TransformerUtils.dom4jToTinyTree(XPathCache.getGlobalConfiguration, document, false)
+
+            val dom4jSize    = ObjectSizes.measuredSize(document)
+            val tinyTreeSize = ObjectSizes.measuredSize(tinyTree)
+
+            assert(tinyTreeSize > 0)
+            assert(tinyTreeSize < dom4jSize, path + ": TinyTree " + tinyTreeSize + " bytes, dom4j " + dom4jSize + " bytes")
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.relational
+
+import java.lang.reflect.{Method, InvocationHandler, Proxy}
+import java.sql.{SQLException, Connection}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.mutable.ListBuffer
+
+class RelationalUtilsTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    // Connection recording calls, failing on rollback if requested
+    private class TestConnection(failRollback: Boolean) {
+
+        var autoCommit = true
+        val calls = ListBuffer[String]()
+
+        val connection = Proxy.newProxyInstance(getClass.getClassLoader, Array(classOf[Connection]), new InvocationHandler {
+            def invoke(proxy: AnyRef, method: Method, args: Array[AnyRef]): AnyRef = {
+                calls += method.getName
+                method.getName match {
+                    case "getAutoCommit" ⇒ java.lang.Boolean.valueOf(autoCommit)
+                    case "setAutoCommit" ⇒ autoCommit = args(0).asInstanceOf[java.lang.Boolean].booleanValue; null
+                    case "rollback" if failRollback ⇒ throw new SQLException("rollback failed")
+                    case _ ⇒ null
+                }
+            }
+        }).asInstanceOf[Connection]
+    }
+
+    @Test def commitsWithoutRollback(): Unit = {
+        val test = new TestConnection(failRollback = false)
+
+        val result = RelationalUtils.withTransaction(test.connection) {
+            assert(! test.autoCommit)
+            test.connection.commit()
+            42
+        }
+
+        assert(result === 42)
+        assert(test.autoCommit)
+        assert(! (test.calls contains "rollback"))
+    }
+
+    // The original exception is thrown even if the rollback fails
+    @Test def failedRollbackKeepsOriginalException(): Unit =
+        for (failRollback ← Seq(false, true)) {
+            val test = new TestConnection(failRollback)
+
+            val thrown = intercept[IllegalStateException] {
+                RelationalUtils.withTransaction(test.connection) {
+                    throw new IllegalStateException("original")
+                }
+            }
+
+            assert(thrown.getMessage === "original")
+            assert(test.calls contains "rollback")
+            assert(test.autoCommit)
+        }
+}
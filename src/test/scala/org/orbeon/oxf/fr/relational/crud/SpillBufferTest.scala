@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.fr.relational.crud
+
+import java.io.{IOException, StringWriter}
+import org.apache.commons.io.IOUtils
+import org.junit.Test
+import org.scalatest.junit.AssertionsForJUnit
+
+class SpillBufferTest extends AssertionsForJUnit {
+
+    private val Threshold = 16
+
+    private def bufferWith(content: Array[Byte]) = {
+        val buffer = new SpillBuffer(Threshold)
+        buffer.write(_.write(content))
+        buffer
+    }
+
+    @Test def keptInMemoryUpToThreshold(): Unit = {
+        val content = Array.fill[Byte](Threshold)(1)
+        val buffer  = bufferWith(content)
+
+        assert(buffer.file === None)
+        assert(buffer.length === content.length)
+        assert(IOUtils.toByteArray(buffer.inputStream) === content)
+        buffer.dispose()
+    }
+
+    @Test def spilledToFileBeyondThreshold(): Unit = {
+        val content = Array.tabulate[Byte](Threshold * 4)(_.toByte)
+        val buffer  = bufferWith(content)
+
+        val file = buffer.file.get
+        assert(file.exists)
+        assert(buffer.length === content.length)
+
+        val in = buffer.inputStream
+        assert(IOUtils.toByteArray(buffer.inputStream) === content)
+
+        // Disposing closes the streams handed out and deletes the file
+        buffer.dispose()
+        assert(! file.exists)
+        intercept[IOException] {
+            in.read()
+        }
+    }
+
+    @Test def countingWriterCountsCharacters(): Unit = {
+        val writer = new SpillBuffer.CountingWriter(new StringWriter)
+
+        writer.write('a')
+        writer.write("bcdé€")
+        writer.write("xyz", 1, 2)
+        writer.write(Array('1', '2', '3', '4'), 1, 2)
+        writer.append("𝄞") // one code point, two chars
+
+        assert(writer.count === 1 + 5 + 2 + 2 + 2)
+    }
+}
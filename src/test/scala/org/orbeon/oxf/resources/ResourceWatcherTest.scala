@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2012 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources
+
+import java.io.{FileOutputStream, File}
+import java.util.concurrent.{TimeUnit, LinkedBlockingQueue}
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.{After, Test}
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.JavaConverters._
+
+class ResourceWatcherTest extends AssertionsForJUnit {
+
+    private val LongInterval = "3600000"
+
+    private val directory = {
+        val dir = File.createTempFile("resource-watcher-test-", "")
+        dir.delete()
+        dir.mkdirs()
+        dir
+    }
+
+    private def props(watch: Boolean = true, minReloadInterval: String = LongInterval) =
+        Map(
+            FilesystemResourceManagerFactory.SANDBOX_DIRECTORY_PROPERTY → directory.getAbsolutePath,
+            "oxf.resources.common.watch"                               → watch.toString,
+            "oxf.resources.common.watch.poll-interval"                 → LongInterval,
+            "oxf.resources.common.min-reload-interval"                 → minReloadInterval
+        ).asJava
+
+    private def newManager(watch: Boolean, minReloadInterval: String = LongInterval) =
+        new FilesystemResourceManagerImpl(props(watch, minReloadInterval))
+
+    // Write the file with a distinct modification date
+    private def write(path: String, lastModified: Long): File = {
+        val file = new File(directory, path)
+        file.getParentFile.mkdirs()
+        val os = new FileOutputStream(file)
+        try os.write(lastModified.toString.getBytes("UTF-8"))
+        finally os.close()
+        file.setLastModified(lastModified)
+        file
+    }
+
+    private def eventually(timeoutMillis: Long)(condition: ⇒ Boolean) = {
+        val deadline = System.currentTimeMillis + timeoutMillis
+        while (! condition && System.currentTimeMillis < deadline)
+            Thread.sleep(20)
+        condition
+    }
+
+    @After def deleteDirectory(): Unit = {
+        def delete(file: File): Unit = {
+            Option(file.listFiles) foreach (_ foreach delete)
+            file.delete()
+        }
+        delete(directory)
+    }
+
+    @Test(timeout = 60000) def notifiesChangedFiles(): Unit = {
+        val changes = new LinkedBlockingQueue[String]
+        val watcher = new ResourceWatcher(new ResourceWatcher.Listener {
+            def changed(key: String): Unit = changes.add(key)
+        })
+
+        val file = write("a.txt", 1000000000000L)
+        assert(watcher.watch("/a.txt", file))
+
+        write("b.txt", 1000000000000L)
+        write("a.txt", 1000000010000L)
+
+        assert(changes.poll(30, TimeUnit.SECONDS) === "/a.txt")
+    }
+
+    @Test(timeout = 60000) def watchedChangesAreSeenBeforePollInterval(): Unit = {
+        val manager = newManager(watch = true)
+
+        write("a.txt", 1000000000000L)
+        assert(manager.lastModified("/a.txt", false) === 1000000000000L)
+
+        write("a.txt", 1000000010000L)
+        assert(eventually(30000)(manager.lastModified("/a.txt", false) == 1000000010000L))
+    }
+
+    @Test def pollsWhenNotWatching(): Unit = {
+        val manager = newManager(watch = false, minReloadInterval = "0")
+
+        write("a.txt", 1000000000000L)
+        assert(manager.lastModified("/a.txt", false) === 1000000000000L)
+
+        write("a.txt", 1000000010000L)
+        assert(manager.lastModified("/a.txt", false) === 1000000010000L)
+    }
+
+    @Test def pollsWhenDirectoryCantBeWatched(): Unit = {
+        val manager = newManager(watch = true, minReloadInterval = "0")
+
+        // The directory doesn't exist yet, so it can't be watched and the resource falls back to polling
+        assert(manager.lastModified("/missing/a.txt", true) === -1L)
+
+        write("missing/a.txt", 1000000000000L)
+        assert(manager.lastModified("/missing/a.txt", true) === 1000000000000L)
+    }
+
+    @Test def changeDuringCheckIsNotCached(): Unit = {
+        val checks  = new AtomicInteger
+        val manager = new FilesystemResourceManagerImpl(props()) {
+            override def lastModifiedImpl(key: String, doNotThrowResourceNotFound: Boolean) = {
+                checks.incrementAndGet()
+                changed(key)
+                super.lastModifiedImpl(key, doNotThrowResourceNotFound)
+            }
+        }
+
+        write("a.txt", 1000000000000L)
+        manager.lastModified("/a.txt", false)
+        manager.lastModified("/a.txt", false)
+
+        assert(checks.get === 2)
+    }
+
+    @Test def changeOfOtherResourceDuringCheckIsCached(): Unit = {
+        val checks  = new AtomicInteger
+        val manager = new FilesystemResourceManagerImpl(props()) {
+            override def lastModifiedImpl(key: String, doNotThrowResourceNotFound: Boolean) = {
+                checks.incrementAndGet()
+                changed("/b.txt")
+                super.lastModifiedImpl(key, doNotThrowResourceNotFound)
+            }
+        }
+
+        write("a.txt", 1000000000000L)
+        manager.lastModified("/a.txt", false)
+        manager.lastModified("/a.txt", false)
+
+        assert(checks.get === 1)
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.resources.handler
+
+import org.junit.Test
+import org.orbeon.oxf.properties.Properties
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+
+class HTTPURLConnectionTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    import HTTPURLConnection._
+
+    // The shared pool is configured from the properties, and requests don't wait forever for a connection
+    @Test def poolSettings(): Unit = {
+        val propertySet = Properties.instance.getPropertySet
+
+        assert(propertySet.getInteger(MAX_CONNECTIONS_PER_ROUTE_PROPERTY, 100).intValue === getMaxConnectionsPerRoute)
+        assert(propertySet.getInteger(MAX_TOTAL_CONNECTIONS_PROPERTY, 500).intValue    === getMaxTotalConnections)
+        assert(getMaxConnectionsPerRoute <= getMaxTotalConnections)
+
+        assert(propertySet.getInteger(CONNECTION_REQUEST_TIMEOUT_PROPERTY, 30000).longValue === getConnectionRequestTimeoutMillis)
+        assert(getConnectionRequestTimeoutMillis > 0)
+    }
+}
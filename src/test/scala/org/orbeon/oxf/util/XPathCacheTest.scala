@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.util
+
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.saxon.om.Item
+import org.scalatest.junit.AssertionsForJUnit
+
+class XPathCacheTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private def evaluate(xpathString: String) =
+        XPathCache.evaluateAsString(null: Item, xpathString, null, null, null, null, null, null, null)
+
+    @Test def reuseCompiledExpressions(): Unit = {
+        val xpathString = "string-length('reuse') + 1"
+
+        assert("6" === evaluate(xpathString))
+        val compileCount = XPathCache.statistics.compileCount
+
+        for (_ ← 1 to 10)
+            assert("6" === evaluate(xpathString))
+
+        assert(compileCount === XPathCache.statistics.compileCount)
+    }
+
+    @Test def concurrentEvaluations(): Unit = {
+        val results = (1 to 1000).par map (i ⇒ evaluate(i + " * 2"))
+
+        assert((1 to 1000 map (i ⇒ (i * 2).toString)) === results.seq)
+
+        // All expressions are back in their pool
+        assert(0 === XPathCache.statistics.activeCount)
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import org.dom4j.Element
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+import org.scalatest.junit.AssertionsForJUnit
+
+class InstanceDataTest extends DocumentTestBase with AssertionsForJUnit {
+
+    // Deep instance with a bind node on each element
+    private def deepInstance(depth: Int) = {
+        val document = Dom4jUtils.createDocument
+        val wrapper  = new DocumentWrapper(document, null, XPathCache.getGlobalConfiguration)
+
+        val elements = Iterator.iterate(document.addElement("e0"): Element)(_.addElement("e")).take(depth).toList
+        val bindNodes = elements map (e ⇒ new BindNode("bind", wrapper.wrap(e), null))
+
+        InstanceData.invalidateInheritedMIPs(wrapper)
+        (elements, bindNodes)
+    }
+
+    // Walk up the ancestors, as done before inherited MIPs were memoized
+    private def expected(element: Element, bindNodes: Map[Element, BindNode]) = {
+        val ancestors = Iterator.iterate(element)(_.getParent).takeWhile(_ ne null).toList
+        (ancestors forall (bindNodes(_).relevant), ancestors exists (bindNodes(_).readonly))
+    }
+
+    @Test def inheritedMIPsFollowChanges(): Unit = {
+        val (elements, bindNodes) = deepInstance(50)
+        val bindNodesByElement = (elements zip bindNodes).toMap
+        val random = new scala.util.Random(0)
+
+        for (_ ← 1 to 200) {
+            val bindNode = bindNodes(random.nextInt(bindNodes.size))
+            if (random.nextBoolean())
+                bindNode.setRelevant(! bindNode.relevant)
+            else
+                bindNode.setReadonly(! bindNode.readonly)
+
+            // Query from the bottom, then from the top, to exercise memoized ancestors and descendants
+            for (element ← elements.reverse ++ elements)
+                assert((InstanceData.getInheritedRelevant(element), InstanceData.getInheritedReadonly(element)) === expected(element, bindNodesByElement))
+        }
+    }
+
+    @Test def inheritedMIPsAfterMove(): Unit = {
+        val (elements, bindNodes) = deepInstance(3)
+        val List(root, middle, leaf) = elements
+
+        bindNodes(1).setRelevant(false)
+        assert(! InstanceData.getInheritedRelevant(leaf))
+
+        // Move the leaf out of the non-relevant element, as an insert or delete would do
+        leaf.detach()
+        root.add(leaf)
+        InstanceData.invalidateInheritedMIPs(root)
+        assert(InstanceData.getInheritedRelevant(leaf))
+        assert(! InstanceData.getInheritedRelevant(middle))
+    }
+}
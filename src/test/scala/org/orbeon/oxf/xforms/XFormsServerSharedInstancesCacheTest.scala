@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms
+
+import XFormsServerSharedInstancesCache._
+import java.util.UUID
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xml.TransformerUtils
+import org.orbeon.saxon.om.DocumentInfo
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.JavaConverters._
+
+class XFormsServerSharedInstancesCacheTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private implicit val logger = ResourceManagerTestBase.newIndentedLogger
+
+    // Caching information for an instance which is not in the cache yet
+    private def newInstanceCaching(timeToLive: Long = -1) =
+        InstanceCaching.fromValues(timeToLive, false, "http://example.org/" + UUID.randomUUID, null)
+
+    private def newDocument(value: String) =
+        TransformerUtils.stringToTinyTree(XPathCache.getGlobalConfiguration, "<value>" + value + "</value>", false, false)
+
+    private def loader(body: ⇒ DocumentInfo) = new Loader {
+        def load(instanceSourceURI: String, handleXInclude: Boolean) = body
+    }
+
+    private def findOrLoad(instanceCaching: InstanceCaching, loader: Loader, maxWaitMillis: Long = 0) =
+        XFormsServerSharedInstancesCache.findOrLoad(instanceCaching, loader, staleWhileRevalidate = true, maxWaitMillis = maxWaitMillis)
+
+    private def withExecutor[T](threads: Int)(body: ExecutorService ⇒ T) = {
+        val executor = Executors.newFixedThreadPool(threads)
+        try body(executor)
+        finally executor.shutdownNow()
+    }
+
+    @Test(timeout = 10000) def loadsOnceForConcurrentRequests(): Unit =
+        withExecutor(8) { executor ⇒
+
+            val instanceCaching = newInstanceCaching()
+            val document        = newDocument("loaded")
+            val loadCount       = new AtomicInteger
+            val barrier         = new CyclicBarrier(8)
+
+            // Waiting requests don't give up on a slow load
+            val slowLoader = loader {
+                loadCount.incrementAndGet()
+                Thread.sleep(3000)
+                document
+            }
+
+            val tasks =
+                for (_ ← 1 to 8)
+                yield new Callable[DocumentInfo] {
+                    def call() = { barrier.await(); findOrLoad(instanceCaching, slowLoader) }
+                }
+
+            val results = executor.invokeAll(tasks.asJava).asScala map (_.get)
+
+            assert(loadCount.get === 1)
+            assert(results forall (_ eq document))
+        }
+
+    @Test(timeout = 10000) def servesExpiredInstanceWhileReloading(): Unit =
+        withExecutor(1) { executor ⇒
+
+            val instanceCaching = newInstanceCaching(timeToLive = 1)
+            val expired         = newDocument("expired")
+            val reloaded        = newDocument("reloaded")
+            val reloadStarted   = new CountDownLatch(1)
+            val reloadDone      = new CountDownLatch(1)
+
+            assert(findOrLoad(instanceCaching, loader(expired)) eq expired)
+            Thread.sleep(10)
+
+            val reload = executor.submit(new Callable[DocumentInfo] {
+                def call() = findOrLoad(instanceCaching, loader {
+                    reloadStarted.countDown()
+                    reloadDone.await()
+                    reloaded
+                })
+            })
+
+            // While the instance is reloaded, other requests get the expired instance without loading it
+            reloadStarted.await()
+            assert(findOrLoad(instanceCaching, loader(fail("must not load"))) eq expired)
+            assert(find(instanceCaching, staleWhileRevalidate = true) === Some(expired))
+
+            reloadDone.countDown()
+            assert(reload.get eq reloaded)
+        }
+
+    // An expired instance is kept, but not used until a request reloads it
+    @Test def findKeepsExpiredInstance(): Unit = {
+
+        val instanceCaching = newInstanceCaching(timeToLive = 1)
+        val expired         = newDocument("expired")
+        val reloaded        = newDocument("reloaded")
+
+        assert(findOrLoad(instanceCaching, loader(expired)) eq expired)
+        Thread.sleep(10)
+
+        assert(find(instanceCaching, staleWhileRevalidate = true) === None)
+        assert(find(instanceCaching, staleWhileRevalidate = false) === None)
+
+        // Reloading uses the expired entry
+        val staleHits = staleHitCount
+        val reloader  = loader {
+            assert(findOrLoad(instanceCaching, loader(fail("must not load"))) eq expired)
+            reloaded
+        }
+        assert(findOrLoad(instanceCaching, reloader) eq reloaded)
+        assert(staleHitCount === staleHits + 1)
+    }
+
+    @Test def loadsInstanceRequiredToLoadItself(): Unit = {
+
+        val instanceCaching = newInstanceCaching()
+        val outer           = newDocument("outer")
+        val inner           = newDocument("inner")
+
+        // Loading requires the same instance in the same thread, as with a local submission to an XForms page
+        val reentrantLoader = loader {
+            assert(findOrLoad(instanceCaching, loader(inner)) eq inner)
+            outer
+        }
+
+        assert(findOrLoad(instanceCaching, reentrantLoader) eq outer)
+    }
+
+    @Test(timeout = 10000) def loadsInstanceRequiredToLoadItselfFromAnotherThread(): Unit =
+        withExecutor(1) { executor ⇒
+
+            val instanceCaching = newInstanceCaching()
+            val outer           = newDocument("outer")
+            val inner           = newDocument("inner")
+
+            // Loading requires the same instance from another thread, as with a request to an XForms page over HTTP,
+            // which stops waiting after the maximum wait
+            val reentrantLoader = loader {
+                val innerLoad = executor.submit(new Callable[DocumentInfo] {
+                    def call() = findOrLoad(instanceCaching, loader(inner), maxWaitMillis = 100)
+                })
+                assert(innerLoad.get eq inner)
+                outer
+            }
+
+            assert(findOrLoad(instanceCaching, reentrantLoader) eq outer)
+        }
+}
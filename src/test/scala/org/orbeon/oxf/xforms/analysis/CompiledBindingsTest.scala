@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.junit.{Assume, Test}
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.scaxon.XML._
+import org.scalatest.junit.AssertionsForJUnit
+import scala.xml.Elem
+
+class CompiledBindingsTest extends DocumentTestBase with AssertionsForJUnit {
+
+    private def form(xpathAnalysis: Boolean): Elem =
+        <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                 xmlns:xf="http://www.w3.org/2002/xforms"
+                 xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+            <xh:head>
+                <xf:model id="model" xxf:xpath-analysis={xpathAnalysis.toString}>
+                    <xf:instance id="instance">
+                        <values><a>2</a><b/></values>
+                    </xf:instance>
+                    <xf:bind id="b-bind" ref="b" calculate="../a * 2"/>
+                </xf:model>
+            </xh:head>
+            <xh:body>
+                <xf:input id="a-input" ref="a"/>
+            </xh:body>
+        </xh:html>
+
+    // Binds compile their binding when the static state is created, and runtime binds evaluate that expression
+    @Test def bindRefsCompiledOnce(): Unit = {
+        setupDocument(form(xpathAnalysis = false))
+
+        val part = document.getStaticState.topLevelPart
+        val bind = part.getModel("model").bindsById("b-bind")
+
+        assert(bind.compiledRef.isDefined)
+        assert(part.getCompiledBinding(bind.namespaceMapping, "b") eq bind.compiledRef.get)
+
+        assert((instance("instance").get.rootElement \ "b" map (_.stringValue)) === Seq("4"))
+    }
+
+    // Controls compile their binding during XPath analysis
+    @Test def controlRefsCompiledByAnalysis(): Unit = {
+        Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+        setupDocument(form(xpathAnalysis = true))
+
+        val part  = document.getStaticState.topLevelPart
+        val input = part.getControlAnalysis("a-input").asInstanceOf[SimpleElementAnalysis]
+
+        assert(part.getCompiledBinding(input.namespaceMapping, "a") ne null)
+        assert(getControlValue("a-input") === "2")
+    }
+}
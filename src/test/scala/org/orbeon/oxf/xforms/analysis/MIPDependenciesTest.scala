@@ -170,5 +170,47 @@ class MIPDependenciesTest extends DocumentTestBase with AssertionsForJUnit {
         }
     }
 
+    @Test def calculateBindsInDependencyOrder() {
+        Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+        // Binds are in reverse dependency order, so a single recalculate only works if binds are sorted
+        this setupDocument
+            <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+                     xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+                <xh:head>
+                    <xf:model xxf:xpath-analysis="true">
+                        <xf:instance id="instance">
+                            <values>
+                                <a>1</a>
+                                <b/>
+                                <c/>
+                                <d/>
+                            </values>
+                        </xf:instance>
+                        <xf:bind ref="d" relevant="instance()/c > 10"/>
+                        <xf:bind ref="c" calculate="instance()/b * 2"/>
+                        <xf:bind ref="b" calculate="instance()/a + 1"/>
+                    </xf:model>
+                </xh:head>
+                <xh:body>
+                    <xf:input id="a" ref="a"/>
+                    <xf:output id="c" ref="c"/>
+                    <xf:input id="d" ref="d"/>
+                </xh:body>
+            </xh:html>
+
+        assert("4" === getControlValue("c"))
+        assert(! isRelevant("d"))
+
+        setControlValue("a", "5")
+        assert("12" === getControlValue("c"))
+        assert(isRelevant("d"))
+
+        setControlValue("a", "2")
+        assert("6" === getControlValue("c"))
+        assert(! isRelevant("d"))
+    }
+
     // TODO: more tests
 }
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis
+
+import org.junit.{Assume, Test}
+import org.orbeon.oxf.common.Version
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.scaxon.XML._
+import org.scalatest.junit.AssertionsForJUnit
+
+class ParallelModelAnalysisTest extends DocumentTestBase with AssertionsForJUnit {
+
+    val ModelCount = 8
+
+    @Test def analyzeModelsConcurrently(): Unit = {
+        Assume.assumeTrue(Version.isPE) // only test this feature if we are the PE version
+
+        // The unit tests properties enable parallel analysis
+        assert(XFormsProperties.getXPathAnalysisParallelism > 1)
+
+        setupDocument(
+            <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xf="http://www.w3.org/2002/xforms"
+                     xmlns:xxf="http://orbeon.org/oxf/xml/xforms">
+                <xh:head>{
+                    for (i ← 1 to ModelCount)
+                    yield
+                        <xf:model id={"model" + i} xxf:xpath-analysis="true">
+                            <xf:instance id={"instance" + i}>
+                                <values><a>{i}</a><b/></values>
+                            </xf:instance>
+                            <xf:bind ref="b" calculate="../a * 2"/>
+                        </xf:model>
+                }</xh:head>
+                <xh:body/>
+            </xh:html>
+        )
+
+        val part = document.getStaticState.topLevelPart
+
+        for (i ← 1 to ModelCount) {
+            assert(part.getModel("model" + i).figuredAllBindRefAnalysis)
+            assert((instance("instance" + i).get.rootElement \ "b" map (_.stringValue)) === Seq((i * 2).toString))
+        }
+
+        // Workers don't leave their logger behind
+        assert(PartModelAnalysis.currentWorkerLogger === None)
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.analysis.model
+
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+class BindTreeTest extends DocumentTestBase with AssertionsForJUnit {
+
+    // The dependency graph is built from binds in document order
+    @Test def bindsInDocumentOrder(): Unit = {
+        setupDocument(
+            <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xf="http://www.w3.org/2002/xforms">
+                <xh:head>
+                    <xf:model id="model">
+                        <xf:instance id="instance">
+                            <values><a><a1/><a2/></a><b><b1/></b><c/></values>
+                        </xf:instance>
+                        <xf:bind id="a" ref="a">
+                            <xf:bind id="a1" ref="a1">
+                                <xf:bind id="a1-self" ref="."/>
+                            </xf:bind>
+                            <xf:bind id="a2" ref="a2"/>
+                        </xf:bind>
+                        <xf:bind id="b" ref="b">
+                            <xf:bind id="b1" ref="b1"/>
+                        </xf:bind>
+                        <xf:bind id="c" ref="c"/>
+                    </xf:model>
+                </xh:head>
+                <xh:body/>
+            </xh:html>
+        )
+
+        val model = document.getStaticState.topLevelPart.getModel("model")
+
+        assert((model.bindsInDocumentOrder map (_.staticId)) === List("a", "a1", "a1-self", "a2", "b", "b1", "c"))
+        assert(model.bindsInDocumentOrder.toSet === model.bindsById.values.toSet)
+    }
+}
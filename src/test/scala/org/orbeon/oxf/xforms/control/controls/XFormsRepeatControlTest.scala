@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.control.controls
+
+import XFormsRepeatControl.findNodeIndexes
+import org.junit.Test
+import org.orbeon.oxf.test.DocumentTestBase
+import org.orbeon.oxf.util.XPathCache
+import org.orbeon.oxf.xforms.action.XFormsAPI._
+import org.orbeon.oxf.xforms.event.Dispatch
+import org.orbeon.oxf.xforms.event.events.XXFormsRepeatPageEvent
+import org.orbeon.oxf.xforms.state.{DynamicState, XFormsState}
+import org.orbeon.oxf.xforms.{XFormsContainingDocument, XFormsUtils}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.orbeon.oxf.xml.dom4j.Dom4jUtils
+import org.orbeon.saxon.dom4j.DocumentWrapper
+import org.orbeon.saxon.om.Item
+import org.orbeon.saxon.value.{Int64Value, StringValue}
+import org.orbeon.scaxon.XML._
+import org.scalatest.junit.AssertionsForJUnit
+
+class XFormsRepeatControlTest extends DocumentTestBase with AssertionsForJUnit {
+
+    private def expectedIndexes(nodeset1: Seq[Item], nodeset2: Seq[Item]) =
+        nodeset1 map (item ⇒ nodeset2 indexWhere (XFormsUtils.compareItems(_, item)))
+
+    private def rows(count: Int) = {
+        val document = Dom4jUtils.createDocument
+        val root = document.addElement("rows")
+        val elements = 1 to count map (_ ⇒ root.addElement("row"))
+        (new DocumentWrapper(document, null, XPathCache.getGlobalConfiguration), elements)
+    }
+
+    @Test def matchNodesAndValues(): Unit = {
+        val (wrapper, elements) = rows(5)
+
+        // Wrap nodes again, as a new evaluation of the repeat sequence would
+        val oldItems: Seq[Item] = (elements map wrapper.wrap) :+ StringValue.makeStringValue("a") :+ Int64Value.makeIntegerValue(1)
+        val newItems: Seq[Item] = Seq(
+            wrapper.wrap(elements(3)),
+            Int64Value.makeIntegerValue(1),
+            wrapper.wrap(elements(0)),
+            StringValue.makeStringValue("b"),
+            wrapper.wrap(elements(0)),
+            wrapper.wrap(elements(4)).getParent
+        )
+
+        assert(expectedIndexes(newItems, oldItems) === findNodeIndexes(newItems, oldItems).toSeq)
+        assert(expectedIndexes(oldItems, newItems) === findNodeIndexes(oldItems, newItems).toSeq)
+    }
+
+    @Test def matchLargeRepeats(): Unit = {
+        for (count ← Seq(100, 1000, 50000)) {
+            val (wrapper, elements) = rows(count)
+
+            // Remove every other row and reverse
+            val oldItems = elements map wrapper.wrap
+            val newItems = elements.zipWithIndex collect { case (element, index) if index % 2 == 0 ⇒ wrapper.wrap(element) } reverse
+
+            val oldIndexes = findNodeIndexes(newItems, oldItems)
+            val newIndexes = findNodeIndexes(oldItems, newItems)
+
+            assert(oldIndexes.toSeq === (newItems.indices map (i ⇒ count - 1 - (count - 1) % 2 - 2 * i)))
+            assert(newIndexes.count(_ != -1) === newItems.size)
+        }
+    }
+
+    // Seven items shown three at a time
+    private def setupPagedDocument() =
+        this setupDocument
+            <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+                     xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xxf="http://orbeon.org/oxf/xml/xforms"
+                     xmlns:ev="http://www.w3.org/2001/xml-events">
+                <xh:head>
+                    <xf:model id="model" xxf:state-handling="client">
+                        <xf:instance id="items">
+                            <items><item>1</item><item>2</item><item>3</item><item>4</item><item>5</item><item>6</item><item>7</item></items>
+                        </xf:instance>
+                        <xf:setindex   ev:event="set-index-2"     repeat="r" index="2"/>
+                        <xf:setindex   ev:event="set-index-5"     repeat="r" index="5"/>
+                        <xf:insert     ev:event="insert-at-index" ref="item" at="index('r')" position="after"/>
+                        <xf:insert     ev:event="insert-at-end"   ref="item" at="last()" position="after"/>
+                        <xf:delete     ev:event="delete-at-index" ref="item" at="index('r')"/>
+                    </xf:model>
+                </xh:head>
+                <xh:body>
+                    <xf:repeat id="r" ref="item" xxf:page-size="3">
+                        <xf:output id="o" value="."/>
+                    </xf:repeat>
+                </xh:body>
+            </xh:html>
+
+    private def repeat(doc: XFormsContainingDocument) = doc.getObjectByEffectiveId("r").asInstanceOf[XFormsRepeatControl]
+    private def items = instance("items").get.rootElement \ "item" map (_.stringValue)
+
+    @Test def pageChanges(): Unit = {
+        val doc = setupPagedDocument()
+        withContainingDocument(doc) {
+            assert(repeat(doc).getPage === 1)
+            assert(repeat(doc).getPageCount === 3)
+            assert(repeat(doc).children.size === 3)
+
+            Dispatch.dispatchEvent(new XXFormsRepeatPageEvent(repeat(doc), 3))
+            assert(repeat(doc).getPage === 3)
+            assert(repeat(doc).children.size === 1)
+
+            // Invalid pages are ignored, and pages out of range show the closest page
+            Dispatch.dispatchEvent(new XXFormsRepeatPageEvent(repeat(doc), Map("page" → Some("foo"))))
+            assert(repeat(doc).getPage === 3)
+            Dispatch.dispatchEvent(new XXFormsRepeatPageEvent(repeat(doc), 0))
+            assert(repeat(doc).getPage === 1)
+            assert(repeat(doc).children.size === 3)
+        }
+    }
+
+    @Test def indexIsAbsoluteAcrossPages(): Unit = {
+        val doc = setupPagedDocument()
+        withContainingDocument(doc) {
+
+            // Setting the index shows the page containing it
+            dispatch("set-index-5", "model")
+            assert(repeat(doc).getPage === 2)
+            assert(repeat(doc).getIndex === 2)
+            assert(repeat(doc).getAbsoluteIndex === 5)
+
+            // index() is absolute, so insert and delete act on the item at the index
+            dispatch("insert-at-index", "model")
+            assert(items === Seq("1", "2", "3", "4", "5", "7", "6", "7"))
+            assert(repeat(doc).getAbsoluteIndex === 6)
+
+            dispatch("delete-at-index", "model")
+            assert(items === Seq("1", "2", "3", "4", "5", "6", "7"))
+
+            // Inserting on another page shows that page, with the index on the inserted item
+            dispatch("set-index-2", "model")
+            assert(repeat(doc).getPage === 1)
+            dispatch("insert-at-end", "model")
+            assert(repeat(doc).getPage === 3)
+            assert(repeat(doc).getAbsoluteIndex === 8)
+        }
+    }
+
+    @Test def pageRestoredWithState(): Unit = {
+        val doc = setupPagedDocument()
+        val state = withContainingDocument(doc) {
+            dispatch("set-index-5", "model")
+            XFormsState(None, doc.getStaticState.encodedState, DynamicState(doc))
+        }
+
+        val restored = new XFormsContainingDocument(state, false)
+        withContainingDocument(restored) {
+            assert(repeat(restored).getPage === 2)
+            assert(repeat(restored).children.size === 3)
+            assert(repeat(restored).getAbsoluteIndex === 5)
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import collection.mutable
+import org.junit.Test
+import org.orbeon.oxf.util.URLRewriterUtils.PathMatcher
+import org.scalatest.junit.AssertionsForJUnit
+import sbinary.Operations._
+import XFormsOperations._
+import XFormsProtocols._
+
+class DynamicStateDiffTest extends AssertionsForJUnit {
+
+    private val FieldCount = 2000
+
+    private def content(values: Int ⇒ String) =
+        (1 to FieldCount) map (i ⇒ "<field-" + i + ">" + values(i) + "</field-" + i + ">") mkString ("<form>", "", "</form>")
+
+    private def state(sequence: Long, values: Int ⇒ String, visited: Set[Int]) = {
+        val instances = List(
+            InstanceState("fr-form-instance", "fr-form-model", Right(content(values)), readonly = false, modified = true, valid = true),
+            InstanceState("fr-resources", "fr-form-model", Right("<resources/>"), readonly = true, modified = false, valid = true)
+        )
+        val controls = (1 to FieldCount map (i ⇒ ControlState("control-" + i, visited(i), Map("value" → values(i))))).toList
+
+        DynamicState("uuid", sequence, None, None, None, Seq(), Seq(), None, None,
+            toByteSeq(List[PathMatcher]()), None, toByteSeq(Set[String]()), None, Seq(), toByteSeq(instances), toByteSeq(controls))
+    }
+
+    // Each update changes a single field, like a user typing in a large form
+    private val states = 0 to 20 map (n ⇒ state(n + 1, i ⇒ if (i <= n) "changed-" + i else "", (1 to n).toSet))
+
+    @Test def diffRoundtrip(): Unit = {
+        for (Seq(previous, next) ← states.sliding(2)) {
+            val (diff, nextSummary) = DynamicStateDiff(DynamicStateSummary(previous), next)
+            val restored = fromByteArray[DynamicStateDiff](toByteArray(diff)).applyTo(previous)
+
+            assert(next.decodeInstances === restored.decodeInstances)
+            assert(next.decodeControls  === restored.decodeControls)
+            assert(next === restored)
+            assert(nextSummary === DynamicStateSummary(next))
+
+            // Only what changed is carried
+            assert((diff.instances collect { case ReplacedInstance(instance) ⇒ instance.effectiveId }) === List("fr-form-instance"))
+            assert(diff.changedControls.size === 1)
+        }
+    }
+
+    private def storeNext(
+            store: mutable.Map[String, Array[Byte]],
+            previous: Option[DynamicState],
+            next: DynamicState,
+            maxLength: Int = 8,
+            get: Option[String ⇒ Option[Array[Byte]]] = None) =
+        DynamicStateChain.store("key", previous map (DynamicStateSummary(_)), next, maxLength, get getOrElse store.get, store.contains, store.put, store.remove)
+
+    @Test def chainRoundtripAndBytesWritten(): Unit = {
+
+        val MaxChainLength = 8
+        val store = mutable.Map[String, Array[Byte]]()
+
+        var fullBytes  = 0
+        var chainBytes = 0
+
+        for (Seq(previous, next) ← states.sliding(2)) {
+            val (bytesWritten, summary) = storeNext(store, Some(previous), next, MaxChainLength)
+
+            fullBytes  += DynamicStateChain.encodeFull(next).length
+            chainBytes += bytesWritten
+
+            assert(summary === DynamicStateSummary(next))
+            assert(Some(next) === DynamicStateChain.find("key", store.get))
+        }
+
+        // Rebasing removes the previous base and diffs: one head, one base and the diffs since the last rebase
+        assert(store.size <= MaxChainLength + 2)
+
+        // Storing diffs writes less than storing full states
+        assert(chainBytes < fullBytes)
+
+        // A previous state which doesn't match the end of the chain causes a rebase
+        storeNext(store, Some(states(0)), states(1), MaxChainLength)
+        assert(Some(states(1)) === DynamicStateChain.find("key", store.get))
+    }
+
+    @Test def chainPartsCheckedWithoutReadingAndRebasedWhenMissing(): Unit = {
+
+        val store    = mutable.Map[String, Array[Byte]]()
+        val accessed = mutable.Set[String]()
+
+        def get(key: String) = { accessed += key; store.get(key) }
+
+        storeNext(store, None, states(0))
+        storeNext(store, Some(states(0)), states(1))
+        storeNext(store, Some(states(1)), states(2))
+
+        // Appending only reads the head
+        accessed.clear()
+        storeNext(store, Some(states(2)), states(3), get = Some(get))
+        assert(accessed === Set("key"))
+
+        // The parts of the chain can be found from the head, so that stores can remove them with the head
+        val parts = store.keySet - "key"
+        assert(parts.size === 4)
+        assert(DynamicStateChain.partKeys("key", store("key")).toSet === parts)
+        assert(parts forall DynamicStateChain.isPartKey)
+        assert(! DynamicStateChain.isPartKey("key"))
+
+        // If a part of the chain is gone, the next store rebases instead of appending to a broken chain
+        store.remove(parts.toList.sorted.head)
+        assert(None === DynamicStateChain.find("key", store.get))
+        storeNext(store, Some(states(3)), states(4))
+        assert(Some(states(4)) === DynamicStateChain.find("key", store.get))
+    }
+}
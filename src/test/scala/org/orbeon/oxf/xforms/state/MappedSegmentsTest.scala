@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.File
+import org.junit.{After, Test}
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.mutable.ListBuffer
+
+class MappedSegmentsTest extends AssertionsForJUnit {
+
+    // With 2-character keys, a segment holds 4 records
+    private val SegmentSize = 256
+    private val ValueSize   = 50
+
+    private val directory = {
+        val dir = File.createTempFile("mapped-segments-test-", "")
+        dir.delete()
+        dir.mkdirs()
+        dir
+    }
+
+    private val evicted = ListBuffer[String]()
+
+    private def newSegments(
+            maxSegments: Int,
+            maxEntries: Int = Int.MaxValue,
+            onEvict: (String, Array[Byte]) ⇒ Unit = (key, value) ⇒ evicted synchronized { evicted += key }) =
+        new MappedSegments(
+            directory,
+            SegmentSize,
+            maxSegments,
+            maxEntries,
+            onEvict,
+            ResourceManagerTestBase.newIndentedLogger)
+
+    private def value(i: Int) = Array.fill[Byte](ValueSize)(i.toByte)
+    private def key(i: Int)   = "k" + i % 10
+
+    @After def deleteDirectory(): Unit =
+        if (directory.exists) {
+            directory.listFiles foreach (_.delete())
+            directory.delete()
+        }
+
+    @Test def putFindRemove(): Unit = {
+        val segments = newSegments(maxSegments = 2)
+
+        assert(! segments.put("k1", value(1)))
+        assert(segments.put("k1", value(2)))
+        assert(segments.find("k1").get === value(2))
+        assert(segments.size === 1)
+
+        segments.remove("k1")
+        assert(segments.find("k1") === None)
+        assert(segments.size === 0)
+
+        intercept[OXFException] {
+            segments.put("k2", new Array[Byte](SegmentSize))
+        }
+    }
+
+    @Test def keepsLiveRecordsOfDroppedSegment(): Unit = {
+        val segments = newSegments(maxSegments = 2)
+
+        // The first record is never overwritten, so it is live in the oldest segment when that segment is dropped
+        segments.put("k0", value(0))
+        for (i ← 1 to 50)
+            segments.put("k1", value(i))
+
+        assert(segments.find("k0").get === value(0))
+        assert(segments.find("k1").get === value(50))
+        assert(segments.segmentFiles.size <= 2)
+        assert(evicted.isEmpty)
+    }
+
+    @Test def evictsRecordsWhichDontFit(): Unit = {
+        val segments = newSegments(maxSegments = 2)
+
+        // 10 distinct live records don't fit in 2 segments of 4 records
+        for (i ← 0 until 10)
+            segments.put(key(i), value(i))
+
+        val present = 0 until 10 map key filter (segments.find(_).isDefined)
+
+        assert(segments.segmentFiles.size === 2)
+        assert(segments.size === present.size)
+        assert(present.size <= 8)
+        assert(present contains key(9))
+        assert((present ++ evicted).sorted === (0 until 10 map key))
+        assert(segments.segmentFiles forall (_.exists))
+        assert(directory.listFiles.size === 2)
+    }
+
+    @Test def evictsBeyondMaxEntries(): Unit = {
+        val MaxEntries = 5
+        val segments = newSegments(maxSegments = 10, maxEntries = MaxEntries)
+
+        for (i ← 0 until 10) {
+            segments.put(key(i), value(i))
+            assert(segments.size <= MaxEntries)
+        }
+
+        assert(segments.find(key(9)).get === value(9))
+        assert(evicted.nonEmpty)
+        assert(segments.size + evicted.size === 10)
+    }
+
+    @Test def compactsSparseSegments(): Unit = {
+        val segments = newSegments(maxSegments = 10)
+
+        segments.put("k0", value(0))
+        for (i ← 1 to 20)
+            segments.put("k1", value(i))
+
+        val sparseFiles = segments.segmentFiles.init
+        assert(sparseFiles.size > 1)
+
+        segments.compact()
+
+        assert(segments.segmentFiles.size <= 2)
+        assert(sparseFiles forall (! _.exists))
+        assert(segments.find("k0").get === value(0))
+        assert(segments.find("k1").get === value(20))
+        assert(evicted.isEmpty)
+    }
+
+    @Test def failingEvictionStillDropsSegments(): Unit = {
+        var attempts = 0
+        val segments = newSegments(maxSegments = 2, onEvict = (key, value) ⇒ { attempts += 1; throw new IllegalStateException })
+
+        for (i ← 0 until 10)
+            segments.put(key(i), value(i))
+
+        assert(attempts > 0)
+        assert(segments.find(key(9)).get === value(9))
+        assert(directory.listFiles.size === 2)
+    }
+
+    @Test def closeDeletesSegmentFiles(): Unit = {
+        val segments = newSegments(maxSegments = 10)
+
+        for (i ← 0 until 10)
+            segments.put(key(i), value(i))
+
+        assert(directory.listFiles.size > 1)
+
+        segments.close()
+
+        assert(segments.size === 0)
+        assert(! directory.exists)
+        assert(evicted.isEmpty)
+    }
+
+    // Readers never see a record of a segment dropped by a concurrent writer
+    @Test def concurrentReadsAndWrites(): Unit = {
+        val segments = newSegments(maxSegments = 2)
+
+        val writer = new Thread {
+            override def run() =
+                for (i ← 0 until 2000)
+                    segments.put(key(i), value(i))
+        }
+        writer.start()
+
+        while (writer.isAlive)
+            for (i ← 0 until 10; found ← segments.find(key(i)))
+                assert(found forall (_ == found(0)))
+
+        writer.join()
+        assert(segments.find(key(1999)).get === value(1999))
+    }
+}
@@ -101,6 +101,10 @@ class SerializationTest extends DocumentTestBase with AssertionsForJUnit {
 
         val deserialized = fromByteSeq[DynamicState](serializedBytes)
         assert(serialized === deserialized)
+
+        // String encodings, with and without streaming to the compressor
+        for (compress ← Seq(true, false); encrypt ← Seq(true, false))
+            assert(serialized === DynamicState(serialized.encodeToString(compress, encrypt)))
     }
 
     @Test def template() {
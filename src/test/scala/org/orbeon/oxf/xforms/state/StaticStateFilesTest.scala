@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.io.{FileOutputStream, File}
+import org.dom4j.Document
+import org.junit.{After, Test}
+import org.orbeon.oxf.test.{ResourceManagerTestBase, DocumentTestBase}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+
+class StaticStateFilesTest extends DocumentTestBase with AssertionsForJUnit {
+
+    private val simpleDoc: Document =
+        <xh:html xmlns:xf="http://www.w3.org/2002/xforms"
+                 xmlns:xh="http://www.w3.org/1999/xhtml">
+            <xh:head>
+                <xf:model>
+                    <xf:instance id="instance">
+                        <value>0</value>
+                    </xf:instance>
+                </xf:model>
+            </xh:head>
+            <xh:body>
+                <xf:input id="input" ref="instance()"/>
+            </xh:body>
+        </xh:html>
+
+    private val directory = {
+        val dir = File.createTempFile("static-state-files-test-", "")
+        dir.delete()
+        dir.mkdirs()
+        dir
+    }
+
+    private def newFiles(maxFiles: Int = 10) =
+        new StaticStateFiles(directory, maxFiles, ResourceManagerTestBase.newIndentedLogger)
+
+    private def fileNames = directory.listFiles.map(_.getName).toSet
+
+    @After def deleteDirectory(): Unit = {
+        directory.listFiles foreach (_.delete())
+        directory.delete()
+    }
+
+    @Test def writeRead(): Unit = {
+        val files = newFiles()
+
+        assert(! files.contains("d1"))
+        assert(files.read("d1") === None)
+
+        files.write("d1", "state1", List("/missing-include.xml"))
+
+        assert(files.contains("d1"))
+        assert(files.read("d1") === Some("state1"))
+        assert(files.digests === List("d1"))
+    }
+
+    @Test def deletesOutdatedFiles(): Unit = {
+        val files = newFiles()
+
+        val os = new FileOutputStream(new File(directory, "d1.static-state"))
+        try os.write(Array[Byte](0, 0, 0, 42))
+        finally os.close()
+
+        assert(files.read("d1") === None)
+        assert(! files.contains("d1"))
+    }
+
+    @Test def boundsNumberOfFiles(): Unit = {
+        val files = newFiles(maxFiles = 2)
+        val now   = System.currentTimeMillis
+
+        for ((digest, age) ← Seq("d1" → 3, "d2" → 2)) {
+            files.write(digest, "state", Nil)
+            new File(directory, digest + ".static-state").setLastModified(now - age * 10000)
+        }
+
+        // Left by an interrupted write
+        new File(directory, "d4.tmp").createNewFile()
+
+        files.write("d3", "state", Nil)
+
+        assert(files.digests === List("d3", "d2"))
+        assert(fileNames === Set("d3.static-state", "d2.static-state"))
+    }
+
+    @Test def prewarmRestoresStaticStates(): Unit = {
+        val encodedState = setupDocument(simpleDoc).getStaticState.encodedState
+
+        // Digest not otherwise used, so the state can only come from the file
+        val digest = "static-state-files-test-" + System.nanoTime
+        val files  = newFiles()
+        files.write(digest, encodedState, Nil)
+
+        assert(StaticStateTable.getStaticState(digest) eq null)
+        files.prewarm(10)
+
+        val restored = StaticStateTable.getStaticState(digest)
+        assert(restored ne null)
+        assert(restored.digest === digest)
+        assert(restored.topLevelPart.getControlAnalysis("input") ne null)
+    }
+}
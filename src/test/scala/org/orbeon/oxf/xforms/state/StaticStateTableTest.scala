@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.util.concurrent.{TimeUnit, Executors, Callable}
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xforms.XFormsProperties
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.JavaConverters._
+
+class StaticStateTableTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    // Retained entries must stay available while other threads cause evictions
+    @Test def retainedEntriesAreNeverEvicted(): Unit = {
+
+        val Threads    = 8
+        val Iterations = 20000
+        val MaxEntries = XFormsProperties.getStaticStateCacheSize
+
+        val executor = Executors.newFixedThreadPool(Threads)
+        try {
+            val tasks =
+                for (thread ← 0 until Threads)
+                yield new Callable[Int] {
+                    def call() = {
+                        var missing = 0
+                        for (i ← 0 until Iterations) {
+                            // Few digests shared by all threads, so that retains race with evictions of the same entries,
+                            // and enough digests overall to keep the table over budget
+                            val digest = "digest" + (i * (thread + 1)) % (MaxEntries * 2)
+                            StaticStateTable.retain(digest, "state" + digest)
+                            if (StaticStateTable.findEncodedState(digest) != Some("state" + digest))
+                                missing += 1
+                            StaticStateTable.release(digest)
+                        }
+                        missing
+                    }
+                }
+
+            val missing = executor.invokeAll(tasks.asJava).asScala map (_.get)
+            assert(missing.sum === 0)
+            assert(StaticStateTable.getPinnedCount === 0)
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+        }
+    }
+
+    // Releases happen while evicting store entries, so an unbalanced release must not fail
+    @Test def unbalancedReleaseIsIgnored(): Unit = {
+        val pinned = StaticStateTable.getPinnedCount
+
+        StaticStateTable.retain("unbalanced", "state")
+        StaticStateTable.release("unbalanced")
+        StaticStateTable.release("unbalanced")
+
+        StaticStateTable.retain("unbalanced", "state")
+        assert(StaticStateTable.findEncodedState("unbalanced") === Some("state"))
+        assert(StaticStateTable.getPinnedCount === pinned + 1)
+        StaticStateTable.release("unbalanced")
+    }
+
+    @Test def retainExisting(): Unit = {
+        val pinned = StaticStateTable.getPinnedCount
+
+        StaticStateTable.retain("existing", "state")
+        StaticStateTable.retainExisting("existing")
+        StaticStateTable.release("existing")
+        assert(StaticStateTable.getPinnedCount === pinned + 1)
+        StaticStateTable.release("existing")
+        assert(StaticStateTable.getPinnedCount === pinned)
+
+        // Not referenced by the caller, so nothing to retain
+        StaticStateTable.retainExisting("missing")
+        assert(StaticStateTable.findEncodedState("missing") === None)
+    }
+}
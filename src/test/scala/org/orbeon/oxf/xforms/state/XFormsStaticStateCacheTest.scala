@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.state
+
+import java.util.UUID
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+import org.orbeon.oxf.common.OXFException
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.xforms.{XFormsStaticState, XFormsStaticStateImpl}
+import org.orbeon.oxf.xml.Dom4j.elemToDocument
+import org.scalatest.junit.AssertionsForJUnit
+import scala.collection.JavaConverters._
+
+class XFormsStaticStateCacheTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private val cache  = XFormsStaticStateCache.instance
+    private val logger = ResourceManagerTestBase.newIndentedLogger
+
+    // Static state with a digest which is not in the cache yet
+    private def newStaticState = {
+        val (_, staticState) = XFormsStaticStateImpl.createFromDocument(
+            <xh:html xmlns:xh="http://www.w3.org/1999/xhtml"
+                     xmlns:xf="http://www.w3.org/2002/xforms">
+                <xh:head>
+                    <xh:title>{UUID.randomUUID.toString}</xh:title>
+                    <xf:model id="model">
+                        <xf:instance id="instance"><value/></xf:instance>
+                    </xf:model>
+                </xh:head>
+                <xh:body/>
+            </xh:html>
+        )
+        staticState
+    }
+
+    private def creator(body: ⇒ XFormsStaticState) = new Callable[XFormsStaticState] {
+        def call() = body
+    }
+
+    @Test(timeout = 10000) def createsOnceForConcurrentRequests(): Unit = {
+
+        val Threads     = 8
+        val staticState = newStaticState
+        val creations   = new AtomicInteger
+        val barrier     = new CyclicBarrier(Threads)
+
+        val executor = Executors.newFixedThreadPool(Threads)
+        try {
+            val tasks =
+                for (thread ← 0 until Threads)
+                yield new Callable[XFormsStaticState] {
+                    def call() = {
+                        barrier.await()
+                        cache.findOrCreateDocument(staticState.digest, false, logger, creator {
+                            creations.incrementAndGet()
+                            // Leave time for the other threads to find the pending creation
+                            Thread.sleep(200)
+                            staticState
+                        })
+                    }
+                }
+
+            val results = executor.invokeAll(tasks.asJava).asScala map (_.get)
+
+            // Threads which came after the creation completed find the state in the cache instead
+            assert(creations.get === 1)
+            assert(results forall (_ eq staticState))
+            assert(cache.getDocument(staticState.digest) eq staticState)
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+        }
+    }
+
+    @Test def failedCreationIsNotKept(): Unit = {
+
+        val staticState = newStaticState
+
+        intercept[OXFException] {
+            cache.findOrCreateDocument(staticState.digest, false, logger, creator(throw new OXFException("creation failed")))
+        }
+        assert(cache.getDocument(staticState.digest) eq null)
+
+        // The next request creates the state again
+        assert(cache.findOrCreateDocument(staticState.digest, false, logger, creator(staticState)) eq staticState)
+    }
+}
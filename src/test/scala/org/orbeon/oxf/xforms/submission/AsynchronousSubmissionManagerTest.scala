@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Orbeon, Inc.
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the
+ * GNU Lesser General Public License as published by the Free Software Foundation; either version
+ * 2.1 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * The full text of the license is available at http://www.gnu.org/copyleft/lesser.html
+ */
+package org.orbeon.oxf.xforms.submission
+
+import AsynchronousSubmissionManager.AsynchronousSubmissions
+import java.util.concurrent._
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+import org.orbeon.oxf.test.ResourceManagerTestBase
+import org.orbeon.oxf.util.ConnectionResult
+import org.scalatest.junit.AssertionsForJUnit
+
+class AsynchronousSubmissionManagerTest extends ResourceManagerTestBase with AssertionsForJUnit {
+
+    private def result(id: String) = new SubmissionResult(id, null: Replacer, null: ConnectionResult)
+
+    private def callable(body: ⇒ Unit) = new Callable[SubmissionResult] {
+        def call() = { body; result("done") }
+    }
+
+    private def withPool[T](pool: ExecutorService)(body: ExecutorService ⇒ T) =
+        try body(pool)
+        finally pool.shutdownNow()
+
+    // Pool with a single thread and no queue
+    private def singleThreadPool =
+        new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue[Runnable])
+
+    @Test(timeout = 10000) def capsRunningSubmissionsPerDocument(): Unit =
+        withPool(Executors.newFixedThreadPool(8)) { pool ⇒
+
+            val submissions = new AsynchronousSubmissions(pool, 2)
+            val running     = new AtomicInteger
+            val maxRunning  = new AtomicInteger
+
+            for (i ← 1 to 10)
+                submissions.submit("s" + i, callable {
+                    val current = running.incrementAndGet()
+                    maxRunning.synchronized { maxRunning.set(math.max(maxRunning.get, current)) }
+                    Thread.sleep(20)
+                    running.decrementAndGet()
+                })
+
+            val results = 1 to 10 map (_ ⇒ submissions.take(0))
+
+            assert(results forall (_.getThrowable eq null))
+            assert(maxRunning.get === 2)
+            assert(submissions.getPendingCount === 0)
+        }
+
+    @Test(timeout = 10000) def rejectsWhenPoolIsFull(): Unit =
+        withPool(singleThreadPool) { pool ⇒
+
+            val latch = new CountDownLatch(1)
+            val submissions = new AsynchronousSubmissions(pool, 0)
+
+            submissions.submit("blocking", callable(latch.await()))
+            intercept[RejectedExecutionException] {
+                submissions.submit("rejected", callable(()))
+            }
+
+            latch.countDown()
+            assert(submissions.take(0).getThrowable eq null)
+            assert(submissions.getPendingCount === 0)
+        }
+
+    @Test(timeout = 10000) def completesQueuedSubmissionRejectedByPool(): Unit =
+        withPool(singleThreadPool) { pool ⇒
+
+            val latch = new CountDownLatch(1)
+            val submissions = new AsynchronousSubmissions(pool, 1)
+
+            // The second submission waits for the first one, and when the first one completes the pool's only thread is
+            // still busy, so the pool rejects the second one
+            submissions.submit("first", callable(latch.await()))
+            submissions.submit("second", callable(()))
+            latch.countDown()
+
+            val results = Seq(submissions.take(0), submissions.take(0))
+            assert((results filter (_.getThrowable ne null) map (_.getSubmissionEffectiveId)) === Seq("second"))
+        }
+
+    @Test(timeout = 10000) def cancelsTimedOutSubmissions(): Unit =
+        withPool(Executors.newFixedThreadPool(1)) { pool ⇒
+
+            val interrupted = new CountDownLatch(1)
+            val submissions = new AsynchronousSubmissions(pool, 0)
+
+            submissions.submit("slow", callable {
+                try Thread.sleep(60000)
+                catch { case e: InterruptedException ⇒ interrupted.countDown() }
+            })
+
+            val timedOut = submissions.take(200)
+            assert(timedOut.getSubmissionEffectiveId === "slow")
+            assert(timedOut.getThrowable ne null)
+            assert(interrupted.await(5, TimeUnit.SECONDS))
+        }
+
+    @Test(timeout = 10000) def cancelsSubmissionsOfRemovedDocument(): Unit =
+        withPool(Executors.newFixedThreadPool(1)) { pool ⇒
+
+            val submissions = new AsynchronousSubmissions(pool, 1)
+            AsynchronousSubmissionManager.registerAsynchronousSubmissions("removed-document", submissions)
+
+            // One running and one waiting submission
+            submissions.submit("running", callable(Thread.sleep(60000)))
+            submissions.submit("waiting", callable(()))
+
+            AsynchronousSubmissionManager.cancelAsynchronousSubmissions("removed-document")
+
+            val results = Seq(submissions.take(0), submissions.take(0))
+            assert(results forall (_.getThrowable ne null))
+            assert(submissions.getPendingCount === 0)
+        }
+}